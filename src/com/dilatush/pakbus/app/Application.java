@@ -12,9 +12,15 @@ import com.dilatush.pakbus.messages.MsgFactory;
 import com.dilatush.pakbus.messages.pakctrl.ClockNotificationMsg;
 import com.dilatush.pakbus.messages.serpkt.RingMsg;
 import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.util.TimingWheel;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,6 +34,9 @@ public class Application {
 
     final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
 
+    final static private int TIMER_TICK_MILLISECONDS = 10;    // resolution of request timeouts...
+    final static private int TIMER_BUCKETS           = 512;   // one turn of the timing wheel is a little over five seconds...
+
     final public Node                    address;
 
     final private PacketTransceiver      transceiver;
@@ -35,6 +44,8 @@ public class Application {
     final private Map<Node,Datalogger>   loggersByAddress;
     final private PacketReader           reader;
     final private Context                broadcastContext;
+    final private TimingWheel            timer;
+    final private TransactionListeners   transactionListeners;
 
 
     /**
@@ -49,8 +60,51 @@ public class Application {
         address          = _address;
         loggersByName    = new HashMap<>();
         loggersByAddress = new HashMap<>();
+        timer            = new TimingWheel( "Application.TimingWheel", TIMER_TICK_MILLISECONDS, TimeUnit.MILLISECONDS, TIMER_BUCKETS );
         reader           = new PacketReader();
         broadcastContext = new SimpleContext( this, null, 0  );
+        transactionListeners = new TransactionListeners();
+    }
+
+
+    /**
+     * Returns the timing wheel shared by all the dataloggers registered with this application, which owns the deadlines of all their outstanding
+     * requests.
+     *
+     * @return the timing wheel for this application
+     */
+    public TimingWheel timer() {
+        return timer;
+    }
+
+
+    /**
+     * Adds the given listener, to be told about the lifecycle of every transaction with every datalogger registered with this application.
+     *
+     * @param _listener the listener to add
+     */
+    public void addTransactionListener( final TransactionListener _listener ) {
+        transactionListeners.add( _listener );
+    }
+
+
+    /**
+     * Removes the given transaction listener, if it was added.
+     *
+     * @param _listener the listener to remove
+     */
+    public void removeTransactionListener( final TransactionListener _listener ) {
+        transactionListeners.remove( _listener );
+    }
+
+
+    /**
+     * Returns the transaction listeners added to this application, for the dataloggers to notify.
+     *
+     * @return the application's transaction listeners
+     */
+    /*package*/ TransactionListeners transactionListeners() {
+        return transactionListeners;
     }
 
 
@@ -99,15 +153,36 @@ public class Application {
      * Broadcasts the current time to set all dataloggers.
      */
     public void setClock() {
+        broadcastClock( Duration.ZERO );
+    }
+
 
-        NSec now = NSec.now();
-        now = now.add( new NSec( 268239600, 0) );
-        Msg msg = new ClockNotificationMsg( NSec.now(), broadcastContext );
+    /**
+     * Broadcasts the current time to set all dataloggers, compensated for the given path delay: the time broadcast is the time the packet is expected
+     * to arrive.
+     *
+     * @param _pathDelay the time the packet takes to get from here to the dataloggers
+     */
+    public void broadcastClock( final Duration _pathDelay ) {
+
+        Checks.required( _pathDelay );
+
+        Msg msg = new ClockNotificationMsg( new NSec( Instant.now().plus( _pathDelay ) ), broadcastContext );
         Packet packet = msg.encode();
         transceiver.tx( new RawPacket( packet.encode() ) );
     }
 
 
+    /**
+     * Returns a list of all the dataloggers registered with this application.
+     *
+     * @return the registered dataloggers
+     */
+    public synchronized List<Datalogger> getDataloggers() {
+        return new ArrayList<>( loggersByName.values() );
+    }
+
+
     /**
      * Handle the receipt of a message broadcast to all PakBus destinations.
      *
@@ -173,15 +248,9 @@ public class Application {
                     // get a packet...
                     RawPacket rawPacket = transceiver.rx();
 
-                    // if we didn't get anything, that means we timed out - tickle the loggers...
-                    if( rawPacket == null ) {
-                        synchronized( Application.this ) {
-                            for( final Datalogger datalogger : loggersByName.values() ) {
-                                datalogger.tickle();
-                            }
-                        }
+                    // if we didn't get anything, that means we timed out - just try again (request timeouts are handled by the timing wheel)...
+                    if( rawPacket == null )
                         continue;
-                    }
 
                     // we got data - decode it...
                     Packet packet = Packet.decode( rawPacket );
@@ -0,0 +1,164 @@
+package com.dilatush.pakbus.app;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class estimate the offset of a datalogger's clock from ours, the way NTP does.  The datalogger's clock is read several times,
+ * one request after another, and each read is timed with {@link System#nanoTime()}.  Each sample says that the datalogger read its clock sometime
+ * during the round trip; assuming it was the middle, the sample's offset is the datalogger's time minus our time at the middle.  The error in that
+ * is at most half the round trip, so samples with long round trips (queued behind other traffic, or retransmitted) are much worse than samples with
+ * short ones.  So only the samples with the shortest round trips are kept, and the offset is the average of theirs.  Sampling stops when enough
+ * samples have been taken, or when the time budget runs out.  Instances of this class are single use, mutable, and threadsafe through
+ * synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class ClockEstimator {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final private Datalogger                     datalogger;
+    final private int                            maxSamples;      // the number of samples to take...
+    final private long                           deadlineNanos;   // the System.nanoTime() after which we take no more samples...
+    final private ClockOffset                    previous;        // the previous measurement of this datalogger, or null if none...
+    final private Instant                        baseWall;        // our wall clock time at baseNanos...
+    final private long                           baseNanos;       // the System.nanoTime() at baseWall...
+    final private List<Sample>                   samples;
+    final private CompletableFuture<ClockOffset> result;
+
+    private int       attempts;    // the number of samples attempted, including failures...
+    private Throwable lastError;   // the reason the last failed sample failed...
+
+
+    /**
+     * Creates a new instance of this class that will take up to the given number of samples of the given datalogger's clock, within the given time
+     * budget.
+     *
+     * @param _datalogger the datalogger whose clock is to be measured
+     * @param _samples the number of samples to take
+     * @param _budget the most time to spend taking samples
+     * @param _previous the previous measurement of this datalogger's clock (for estimating drift), or null if there was none
+     */
+    /*package*/ ClockEstimator( final Datalogger _datalogger, final int _samples, final Duration _budget, final ClockOffset _previous ) {
+        datalogger    = _datalogger;
+        maxSamples    = _samples;
+        previous      = _previous;
+        baseWall      = Instant.now();
+        baseNanos     = System.nanoTime();
+        deadlineNanos = baseNanos + _budget.toNanos();
+        samples       = new ArrayList<>();
+        result        = new CompletableFuture<>();
+    }
+
+
+    /**
+     * Starts sampling, returning a future that will be completed with the estimated clock offset.
+     *
+     * @return the future estimated clock offset
+     */
+    /*package*/ CompletableFuture<ClockOffset> start() {
+        sample();
+        return result;
+    }
+
+
+    /**
+     * Takes one sample of the datalogger's clock, then either takes another or finishes up.
+     */
+    private void sample() {
+
+        // start the request - which can fail before it's sent (say, if there are no free transaction numbers), just like a failed sample...
+        long sentNanos = System.nanoTime();
+        CompletableFuture<Instant> request;
+        try {
+            request = datalogger.requestClock( Duration.ZERO );
+        }
+        catch( RuntimeException _e ) {
+            request = new CompletableFuture<>();
+            request.completeExceptionally( _e );
+        }
+        request.whenComplete( (clock, e) -> {
+
+            long receivedNanos = System.nanoTime();
+            boolean more;
+            synchronized( this ) {
+                attempts++;
+                if( e == null )
+                    samples.add( new Sample( sentNanos, receivedNanos, clock ) );
+                else
+                    lastError = ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e;
+
+                // keep going until we have enough samples, we've tried too many times, or we've run out of time...
+                more = (samples.size() < maxSamples) && (attempts < 2 * maxSamples) && (receivedNanos - deadlineNanos < 0);
+            }
+            if( more )
+                sample();
+            else
+                finish();
+        } );
+    }
+
+
+    /**
+     * Computes the clock offset from the samples with the shortest round trips, and completes our result with it.
+     */
+    private synchronized void finish() {
+
+        // if we got no samples at all, we've failed...
+        if( samples.isEmpty() ) {
+            result.completeExceptionally( (lastError != null) ? lastError : new IllegalStateException( "No clock samples taken" ) );
+            return;
+        }
+
+        // keep the best half of the samples (the ones with the shortest round trips)...
+        samples.sort( Comparator.comparingLong( sample -> sample.roundTripNanos ) );
+        List<Sample> kept = samples.subList( 0, Math.max( 1, samples.size() / 2 ) );
+
+        // average their offsets and the times they apply to...
+        long offsetSum = 0;
+        long midSum    = 0;
+        for( Sample sample : kept ) {
+            offsetSum += sample.offsetNanos;
+            midSum    += sample.midNanos - baseNanos;
+        }
+        long offsetNanos = offsetSum / kept.size();
+        Instant measuredAt = baseWall.plusNanos( midSum / kept.size() );
+        long roundTripNanos = kept.get( kept.size() - 1 ).roundTripNanos;
+
+        // if we have a previous measurement, the change in offset since then is the drift...
+        double drift = Double.NaN;
+        if( previous != null ) {
+            long elapsedNanos = Duration.between( previous.measuredAt, measuredAt ).toNanos();
+            if( elapsedNanos > 0 )
+                drift = (double)(offsetNanos - previous.offset.toNanos()) / elapsedNanos;
+        }
+
+        ClockOffset offset = new ClockOffset( measuredAt, Duration.ofNanos( offsetNanos ), Duration.ofNanos( roundTripNanos ), drift, samples.size() );
+        LOGGER.fine( "Datalogger " + datalogger.name + " clock: " + offset );
+        result.complete( offset );
+    }
+
+
+    /**
+     * One sample of the datalogger's clock.
+     */
+    private class Sample {
+
+        final private long roundTripNanos;   // the time from sending the request to receiving the response...
+        final private long midNanos;         // the System.nanoTime() at the middle of the round trip...
+        final private long offsetNanos;      // the datalogger's clock minus ours, at the middle of the round trip...
+
+        private Sample( final long _sentNanos, final long _receivedNanos, final Instant _clock ) {
+            roundTripNanos = _receivedNanos - _sentNanos;
+            midNanos       = _sentNanos + (roundTripNanos >>> 1);
+            offsetNanos    = Duration.between( baseWall.plusNanos( midNanos - baseNanos ), _clock ).toNanos();
+        }
+    }
+}
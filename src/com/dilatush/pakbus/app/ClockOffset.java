@@ -0,0 +1,49 @@
+package com.dilatush.pakbus.app;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Instances of this class hold the result of measuring a datalogger's clock against this computer's clock.  The offset is how far the datalogger's
+ * clock is ahead of ours (negative if it's behind); it's accurate to within the uncertainty, which is half the longest round trip of the samples it
+ * came from, as the datalogger could have read its clock at any moment during a round trip.  The drift is how fast the offset is changing, in seconds
+ * per second, as measured between this measurement and the previous one of the same datalogger (or NaN if there was no previous one).  Instances of
+ * this class are immutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ClockOffset {
+
+    final public Instant  measuredAt;    // our clock's time at the moment the offset applies to...
+    final public Duration offset;        // how far the datalogger's clock is ahead of ours...
+    final public Duration roundTrip;     // the longest round trip of the samples the offset came from...
+    final public Duration uncertainty;   // how far the offset could be wrong...
+    final public double   drift;         // how fast the offset is changing in seconds per second, or NaN if unknown...
+    final public int      samples;       // the number of samples taken...
+
+
+    /**
+     * Creates a new instance of this class with the given values.
+     *
+     * @param _measuredAt our clock's time at the moment the offset applies to
+     * @param _offset how far the datalogger's clock is ahead of ours
+     * @param _roundTrip the longest round trip of the samples the offset came from
+     * @param _drift how fast the offset is changing in seconds per second, or NaN if unknown
+     * @param _samples the number of samples taken
+     */
+    public ClockOffset( final Instant _measuredAt, final Duration _offset, final Duration _roundTrip, final double _drift, final int _samples ) {
+        measuredAt  = _measuredAt;
+        offset      = _offset;
+        roundTrip   = _roundTrip;
+        uncertainty = _roundTrip.dividedBy( 2 );
+        drift       = _drift;
+        samples     = _samples;
+    }
+
+
+    @Override
+    public String toString() {
+        return "offset " + offset + " +/- " + uncertainty + ((Double.isNaN( drift )) ? "" : String.format( ", drift %.3f ppm", drift * 1e6 ))
+                + " (" + samples + " samples)";
+    }
+}
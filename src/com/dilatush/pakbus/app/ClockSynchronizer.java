@@ -0,0 +1,331 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class synchronize the clocks of many dataloggers with this computer's clock in one sweep.  First every datalogger's clock is
+ * measured (see {@link Datalogger#measureClockAsync(int, Duration)}), which also measures the path delay to it (half the round trip).  The
+ * dataloggers whose clocks are off by more than the precision are then corrected: if there are several of them, a single clock notification is
+ * broadcast, compensated for the median path delay, to correct all of those whose path delay is close enough to the median (unless it would knock a
+ * datalogger that's already close enough out of precision, as a broadcast sets every datalogger's clock); the rest are measured again after the
+ * broadcast and corrected one at a time.  Finally the corrected dataloggers (or all of them, if there was a broadcast, as that reaches everything)
+ * are measured again, and any still off are corrected one at a time and measured once more.  Measurements are made with a few dataloggers at once, as
+ * each datalogger's requests are independent, but not so many that they queue behind each other and spoil the round trip times.  Instances of this
+ * class are immutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ClockSynchronizer {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static public  int DEFAULT_DEPTH = 4;   // dataloggers to measure at once...
+    final static private int MIN_BROADCAST = 2;   // the fewest dataloggers worth broadcasting a correction to...
+
+    final public Application application;
+    final public Duration    precision;
+    final public int         depth;
+
+
+    /**
+     * Creates a new instance of this class that synchronizes the dataloggers of the given application to within the given precision, measuring up to
+     * the given number of dataloggers at once.
+     *
+     * @param _application the application whose dataloggers are to be synchronized
+     * @param _precision how far off a datalogger's clock may be without being corrected
+     * @param _depth the number of dataloggers to measure at once
+     */
+    public ClockSynchronizer( final Application _application, final Duration _precision, final int _depth ) {
+
+        // sanity checks...
+        Checks.required( _application, _precision );
+        Checks.isTrue( !_precision.isNegative(), "Invalid clock precision: " + _precision );
+        Checks.inBounds( _depth, 1, 64, "Invalid depth: " + _depth );
+
+        application = _application;
+        precision   = _precision;
+        depth       = _depth;
+    }
+
+
+    /**
+     * Creates a new instance of this class that synchronizes the dataloggers of the given application to within the default precision, measuring up
+     * to the default number of dataloggers at once.
+     *
+     * @param _application the application whose dataloggers are to be synchronized
+     */
+    public ClockSynchronizer( final Application _application ) {
+        this( _application, Datalogger.DEFAULT_CLOCK_PRECISION, DEFAULT_DEPTH );
+    }
+
+
+    /**
+     * Synchronizes the clocks of all the dataloggers registered with our application, blocking until done.  Returns the final clock offsets, by
+     * datalogger name, of the dataloggers that could be measured, or null if the sweep was interrupted.
+     *
+     * @return the final clock offsets by datalogger name
+     */
+    public Map<String,ClockOffset> synchronize() {
+        try {
+            return synchronizeAsync( application.getDataloggers() ).get();
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( ExecutionException _e ) {
+            LOGGER.log( Level.WARNING, "Clock synchronization failed", _e.getCause() );
+            return null;
+        }
+    }
+
+
+    /**
+     * Synchronizes the clocks of the given dataloggers, returning a future that will be completed with the final clock offsets, by datalogger name,
+     * of the dataloggers that could be measured.  Dataloggers that couldn't be measured are logged and left out, but don't stop the others being
+     * synchronized.  If a datalogger's offset is still larger than the precision, its clock couldn't be set that precisely.
+     *
+     * @param _dataloggers the dataloggers to synchronize
+     * @return the future final clock offsets by datalogger name
+     */
+    public CompletableFuture<Map<String,ClockOffset>> synchronizeAsync( final Collection<Datalogger> _dataloggers ) {
+
+        Checks.required( _dataloggers );
+
+        List<Datalogger> all = new ArrayList<>( _dataloggers );
+        return measure( all ).thenCompose( offsets -> {
+
+            // if everything is close enough, we're done...
+            List<Datalogger> off = outOfPrecision( all, offsets );
+            if( off.isEmpty() )
+                return CompletableFuture.completedFuture( byName( offsets ) );
+
+            // correct the ones that need it, by broadcast where we can, then see how we did, correcting anything still off one at a time...
+            return correct( off, offsets ).thenCompose( broadcast -> {
+                List<Datalogger> verify = broadcast ? all : off;
+                return measure( verify ).thenApply( verified -> {
+                    offsets.putAll( verified );
+                    return outOfPrecision( verify, verified );
+                } );
+            } ).thenCompose( stillOff -> {
+                if( stillOff.isEmpty() )
+                    return CompletableFuture.completedFuture( byName( offsets ) );
+                return forEach( stillOff, dl -> dl.correctTimeAsync( offsets.get( dl ).offset.negated() ) )
+                        .thenCompose( corrected -> measure( stillOff ) )
+                        .thenApply( last -> {
+                            offsets.putAll( last );
+                            return byName( offsets );
+                        } );
+            } );
+        } );
+    }
+
+
+    /**
+     * Corrects the clocks of the given dataloggers by their measured offsets.  If there are enough of them, a correction is broadcast for all those
+     * whose path delay is within our precision of their median path delay - unless that would move the clock of a datalogger that's already close
+     * enough by more than our precision, as a broadcast sets every datalogger's clock.  The rest are corrected one at a time, but if there was a
+     * broadcast it has set their clocks too, so they're measured again first.  Returns a future that will be completed, once all the corrections
+     * have been made, with true if a correction was broadcast.
+     *
+     * @param _off the dataloggers to correct
+     * @param _offsets the measured offsets of the dataloggers (including those that don't need correcting)
+     * @return the future indication of whether a correction was broadcast
+     */
+    private CompletableFuture<Boolean> correct( final List<Datalogger> _off, final Map<Datalogger,ClockOffset> _offsets ) {
+
+        // figure out which dataloggers a broadcast compensated for the median path delay would set closely enough...
+        List<Datalogger> unicast = new ArrayList<>( _off );
+        List<Datalogger> broadcast = new ArrayList<>();
+        Duration pathDelay = Duration.ZERO;
+        if( _off.size() >= MIN_BROADCAST ) {
+            // the path delay to a datalogger is half the round trip, which is just the uncertainty of its offset...
+            List<Duration> delays = new ArrayList<>();
+            _off.forEach( dl -> delays.add( _offsets.get( dl ).uncertainty ) );
+            delays.sort( null );
+            pathDelay = delays.get( delays.size() / 2 );
+            for( Datalogger dl : _off ) {
+                if( _offsets.get( dl ).uncertainty.minus( pathDelay ).abs().compareTo( precision ) <= 0 )
+                    broadcast.add( dl );
+            }
+            if( broadcast.size() >= MIN_BROADCAST )
+                unicast.removeAll( broadcast );
+            else
+                broadcast.clear();
+        }
+
+        // a broadcast reaches every datalogger, so don't broadcast if it would knock one that's close enough now out of precision...
+        if( !broadcast.isEmpty() ) {
+            for( Map.Entry<Datalogger,ClockOffset> entry : _offsets.entrySet() ) {
+                if( !_off.contains( entry.getKey() ) && (broadcastMove( entry.getValue(), pathDelay ).abs().compareTo( precision ) > 0) ) {
+                    LOGGER.info( "Not broadcasting clock, as it would move datalogger " + entry.getKey().name + " clock by "
+                            + broadcastMove( entry.getValue(), pathDelay ) );
+                    broadcast.clear();
+                    unicast = new ArrayList<>( _off );
+                    break;
+                }
+            }
+        }
+
+        // if we can't broadcast, just correct them all one at a time...
+        if( broadcast.isEmpty() )
+            return correctEach( unicast, _offsets ).thenApply( corrected -> false );
+
+        // broadcast, noting how far that moved each datalogger we've measured...
+        LOGGER.info( "Broadcasting clock to " + broadcast.size() + " dataloggers, compensated for path delay " + pathDelay );
+        application.broadcastClock( pathDelay );
+        for( Map.Entry<Datalogger,ClockOffset> entry : _offsets.entrySet() )
+            entry.getKey().clockCorrected( broadcastMove( entry.getValue(), pathDelay ) );
+
+        // the broadcast set the rest too, so their offsets are stale; measure them again before correcting them one at a time...
+        List<Datalogger> rest = unicast;
+        return measure( rest ).thenCompose( remeasured -> {
+            _offsets.putAll( remeasured );
+            return correctEach( outOfPrecision( rest, remeasured ), _offsets );
+        } ).thenApply( corrected -> true );
+    }
+
+
+    /**
+     * Returns about how far a broadcast compensated for the given path delay would move the clock of the datalogger with the given offset: it sets
+     * the clock to the time we sent it plus the compensation, when the packet actually arrives after the datalogger's own path delay.
+     */
+    private Duration broadcastMove( final ClockOffset _offset, final Duration _pathDelay ) {
+        return _pathDelay.minus( _offset.uncertainty ).minus( _offset.offset );
+    }
+
+
+    /**
+     * Corrects the clocks of the given dataloggers one at a time by their measured offsets, returning a future that will be completed once all the
+     * corrections have been made.
+     */
+    private CompletableFuture<Map<Datalogger,Instant>> correctEach( final List<Datalogger> _dataloggers,
+                                                                   final Map<Datalogger,ClockOffset> _offsets ) {
+        return forEach( _dataloggers, dl -> {
+            Duration correction = _offsets.get( dl ).offset.negated();
+            LOGGER.info( "Correcting datalogger " + dl.name + " clock by " + correction );
+            return dl.correctTimeAsync( correction );
+        } );
+    }
+
+
+    /**
+     * Returns the given dataloggers that were measured and found to be off by more than our precision.
+     *
+     * @param _dataloggers the dataloggers to check
+     * @param _offsets the measured offsets of the dataloggers
+     * @return the dataloggers that are off by more than our precision
+     */
+    private List<Datalogger> outOfPrecision( final List<Datalogger> _dataloggers, final Map<Datalogger,ClockOffset> _offsets ) {
+        List<Datalogger> result = new ArrayList<>();
+        for( Datalogger dl : _dataloggers ) {
+            ClockOffset offset = _offsets.get( dl );
+            if( (offset != null) && (offset.offset.abs().compareTo( precision ) > 0) )
+                result.add( dl );
+        }
+        return result;
+    }
+
+
+    /**
+     * Measures the clocks of the given dataloggers, returning a future that will be completed with the offsets of those that could be measured.
+     *
+     * @param _dataloggers the dataloggers to measure
+     * @return the future measured offsets
+     */
+    private CompletableFuture<Map<Datalogger,ClockOffset>> measure( final List<Datalogger> _dataloggers ) {
+        return forEach( _dataloggers, dl -> dl.measureClockAsync( Datalogger.DEFAULT_CLOCK_SAMPLES, Datalogger.DEFAULT_CLOCK_BUDGET ) );
+    }
+
+
+    /**
+     * Returns the given offsets by datalogger name.
+     *
+     * @param _offsets the offsets by datalogger
+     * @return the offsets by datalogger name
+     */
+    private Map<String,ClockOffset> byName( final Map<Datalogger,ClockOffset> _offsets ) {
+        Map<String,ClockOffset> result = new ConcurrentHashMap<>();
+        _offsets.forEach( (dl, offset) -> result.put( dl.name, offset ) );
+        return result;
+    }
+
+
+    /**
+     * Applies the given asynchronous operation to each of the given dataloggers, with up to our depth of operations in flight at once, returning a
+     * future that will be completed with the results of the operations that succeeded.  Operations that fail are logged and left out of the results.
+     *
+     * @param _dataloggers the dataloggers to apply the operation to
+     * @param _operation the operation to apply
+     * @param <V> the type of the operation's result
+     * @return the future results by datalogger
+     */
+    private <V> CompletableFuture<Map<Datalogger,V>> forEach( final List<Datalogger> _dataloggers,
+                                                             final Function<Datalogger,CompletableFuture<V>> _operation ) {
+
+        Map<Datalogger,V> results = new ConcurrentHashMap<>();
+        CompletableFuture<Map<Datalogger,V>> result = new CompletableFuture<>();
+        if( _dataloggers.isEmpty() ) {
+            result.complete( results );
+            return result;
+        }
+
+        // start up to our depth of operations; each one starts the next when it finishes...
+        Iterator<Datalogger> it = _dataloggers.iterator();
+        AtomicInteger remaining = new AtomicInteger( _dataloggers.size() );
+        for( int i = 0; i < Math.min( depth, _dataloggers.size() ); i++ )
+            forNext( it, _operation, results, remaining, result );
+        return result;
+    }
+
+
+    /**
+     * Starts the operation for the next datalogger, if there is one; when it finishes, records its result and starts the next one.
+     */
+    private <V> void forNext( final Iterator<Datalogger> _it, final Function<Datalogger,CompletableFuture<V>> _operation,
+                              final Map<Datalogger,V> _results, final AtomicInteger _remaining, final CompletableFuture<Map<Datalogger,V>> _result ) {
+
+        // get the next datalogger, if there is one...
+        Datalogger dl;
+        synchronized( _it ) {
+            if( !_it.hasNext() )
+                return;
+            dl = _it.next();
+        }
+
+        // start its operation, then start the next one...
+        CompletableFuture<V> operation;
+        try {
+            operation = _operation.apply( dl );
+        }
+        catch( RuntimeException _e ) {
+            operation = new CompletableFuture<>();
+            operation.completeExceptionally( _e );
+        }
+        operation.whenComplete( (value, e) -> {
+            if( e != null )
+                LOGGER.log( Level.INFO, "Clock operation on datalogger " + dl.name + " failed", e );
+            else if( value != null )
+                _results.put( dl, value );
+            if( _remaining.decrementAndGet() == 0 )
+                _result.complete( _results );
+            else
+                forNext( _it, _operation, _results, _remaining, _result );
+        } );
+    }
+}
@@ -0,0 +1,360 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.DataQuery;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.Datum;
+import com.dilatush.pakbus.values.NSec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class keep track of how far collection from one table in one datalogger has gotten, so that each poll collects exactly the
+ * records that are new since the last one.  The cursor holds the record number and timestamp of the last record collected, and the signature of the
+ * table it was collected from; it's persisted in a small properties file (named for the datalogger and table) so that it survives restarts.  The
+ * cursor resets itself (and collects as if it were new) when the table's signature changes, which happens when a new program is loaded into the
+ * datalogger, and when the datalogger's records turn out to be older than the last one collected, which happens when the table is reset.  Record
+ * numbers wrap around from 2^32-1 to zero, which the cursor follows without any fuss.  Instances of this class are mutable and threadsafe through
+ * synchronization, though polls of one cursor must not overlap.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class CollectionCursor {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private String PROPERTY_SIGNATURE     = "signature";
+    final static private String PROPERTY_RECORD_NUMBER = "lastRecordNumber";
+    final static private String PROPERTY_SECONDS       = "lastTimestampSeconds";
+    final static private String PROPERTY_NANOSECONDS   = "lastTimestampNanoseconds";
+
+    final public Datalogger datalogger;
+    final public String     tableName;
+
+    final private Path file;
+
+    private int     initialRecords;   // the number of records to collect when we have no position, or zero for all of them...
+    private boolean positioned;       // true if we have collected at least one record...
+    private int     signature;        // the signature of the table the last record was collected from...
+    private int     lastRecordNumber;
+    private NSec    lastTimestamp;
+
+
+    /**
+     * Creates a new instance of this class for the given datalogger and table, persisted in a file in the given directory.  If that file exists, the
+     * cursor's position is read from it; otherwise the cursor has no position, and its first poll will collect all the records in the table.
+     *
+     * @param _datalogger the datalogger to collect from
+     * @param _tableName the name of the table to collect from
+     * @param _directory the directory to persist the cursor in
+     */
+    public CollectionCursor( final Datalogger _datalogger, final String _tableName, final Path _directory ) {
+
+        // sanity checks...
+        Checks.required( _datalogger, _tableName, _directory );
+
+        datalogger = _datalogger;
+        tableName  = _tableName;
+        file       = _directory.resolve( sanitize( _datalogger.name ) + "-" + sanitize( _tableName ) + ".cursor" );
+
+        load();
+    }
+
+
+    /**
+     * Sets the number of the most recent records to collect when this cursor has no position (when it's new, or after a reset).  Zero (the default)
+     * means to collect all the records in the table.
+     *
+     * @param _initialRecords the number of records to collect when this cursor has no position, or zero for all of them
+     */
+    public synchronized void setInitialRecords( final int _initialRecords ) {
+        Checks.inBounds( _initialRecords, 0, Integer.MAX_VALUE, "Invalid number of initial records: " + _initialRecords );
+        initialRecords = _initialRecords;
+    }
+
+
+    /**
+     * Returns true if this cursor has a position (that is, if it has collected at least one record since it was created or reset).
+     *
+     * @return true if this cursor has a position
+     */
+    public synchronized boolean isPositioned() {
+        return positioned;
+    }
+
+
+    /**
+     * Returns the record number of the last record collected, which is only meaningful if this cursor has a position.
+     *
+     * @return the record number of the last record collected
+     */
+    public synchronized int getLastRecordNumber() {
+        return lastRecordNumber;
+    }
+
+
+    /**
+     * Returns the timestamp of the last record collected, or null if this cursor has no position.
+     *
+     * @return the timestamp of the last record collected
+     */
+    public synchronized NSec getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+
+    /**
+     * Forgets this cursor's position, so that the next poll collects as if the cursor were new.
+     */
+    public synchronized void reset() {
+        positioned = false;
+        lastTimestamp = null;
+        save();
+    }
+
+
+    /**
+     * Collects the records that are new since the last poll, returning a future that will be completed with them (in the order they were collected).
+     * All fields of each record are collected.  When the future completes, the cursor has already been advanced past the returned records and
+     * persisted.
+     *
+     * @return the future list of new records
+     */
+    public CompletableFuture<List<Datum>> pollAsync() {
+
+        // get the table's current definition, which has its current signature...
+        return datalogger.getTableDefinitionsAsync().thenCompose( tds -> {
+
+            TableDefinition td = tds.getTableDef( tableName );
+            Checks.isNonNull( td, "Table not found in datalogger " + datalogger.name + ": " + tableName );
+            DataQuery query = new DataQuery( td.index, td.signature );
+
+            // if the program has been reloaded, our record numbers are meaningless now...
+            synchronized( this ) {
+                if( positioned && (signature != td.signature.getSignature()) ) {
+                    LOGGER.info( "Table " + tableName + " in " + datalogger.name + " has a new signature; resetting cursor" );
+                    positioned = false;
+                }
+            }
+
+            return collect( query, td.signature.getSignature() );
+        } );
+    }
+
+
+    /**
+     * Collects the records that are new since the last poll, blocking until they've been collected.
+     *
+     * @return the list of new records, or null if there was a problem
+     */
+    public List<Datum> poll() {
+        try {
+            return pollAsync().get();
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( Exception _e ) {
+            LOGGER.log( Level.FINE, "Poll of " + tableName + " in " + datalogger.name + " failed", _e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Collects the new records with the given query, detecting a reset table along the way.
+     *
+     * @param _query the query for all the fields of the table
+     * @param _signature the current signature of the table
+     * @return the future list of new records
+     */
+    private CompletableFuture<List<Datum>> collect( final DataQuery _query, final int _signature ) {
+
+        // if we have no position, collect the initial records...
+        boolean isPositioned;
+        int     from;
+        synchronized( this ) {
+            isPositioned = positioned;
+            from         = lastRecordNumber + 1;   // wraps around to zero, just as the datalogger's record numbers do...
+        }
+        if( !isPositioned )
+            return collectInitial( _query, _signature );
+
+        // otherwise, collect everything after the last record we got...
+        return datalogger.collectFromRecordNumberAsync( _query, from ).thenCompose( records -> {
+
+            // if we got nothing, check the newest record to make sure the table hasn't been reset out from under us...
+            if( records.isEmpty() )
+                return datalogger.collectMostRecentAsync( _query, 1 ).thenCompose( newest -> {
+                    if( !newest.isEmpty() && isBehind( newest.get( 0 ) ) )
+                        return resetAndCollect( _query, _signature );
+                    return CompletableFuture.completedFuture( records );
+                } );
+
+            // if we got records older than the last one we collected, the table has been reset...
+            if( isBehind( records.get( 0 ) ) )
+                return resetAndCollect( _query, _signature );
+
+            // if we didn't get the very next record, some records were overwritten before we could collect them...
+            int first = Datalogger.getRecordNumber( records.get( 0 ) );
+            if( first != from )
+                LOGGER.warning( "Records " + from + " through " + (first - 1) + " of " + tableName + " in " + datalogger.name
+                        + " were lost before they could be collected" );
+
+            advance( records, _signature );
+            return CompletableFuture.completedFuture( records );
+        } );
+    }
+
+
+    /**
+     * Collects the records for a cursor with no position: either the configured number of the most recent records, or all of them.
+     *
+     * @param _query the query for all the fields of the table
+     * @param _signature the current signature of the table
+     * @return the future list of records
+     */
+    private CompletableFuture<List<Datum>> collectInitial( final DataQuery _query, final int _signature ) {
+
+        int records;
+        synchronized( this ) {
+            records = initialRecords;
+        }
+        CompletableFuture<List<Datum>> collected = (records == 0)
+                ? datalogger.collectAllAsync( _query )
+                : datalogger.collectMostRecentAsync( _query, records );
+        return collected.thenApply( list -> {
+            advance( list, _signature );
+            return list;
+        } );
+    }
+
+
+    /**
+     * Resets this cursor because the table was reset, then collects as if the cursor were new.
+     *
+     * @param _query the query for all the fields of the table
+     * @param _signature the current signature of the table
+     * @return the future list of records
+     */
+    private CompletableFuture<List<Datum>> resetAndCollect( final DataQuery _query, final int _signature ) {
+        LOGGER.info( "Table " + tableName + " in " + datalogger.name + " has been reset; resetting cursor" );
+        synchronized( this ) {
+            positioned = false;
+        }
+        return collectInitial( _query, _signature );
+    }
+
+
+    /**
+     * Returns true if the given record is behind this cursor's position: it has a record number before the last one collected, or a timestamp before
+     * the last one collected.  Record numbers are compared by their (wrapping) difference.
+     *
+     * @param _record the record to check
+     * @return true if the given record is behind this cursor's position
+     */
+    private synchronized boolean isBehind( final Datum _record ) {
+        int recordNumber = Datalogger.getRecordNumber( _record );
+        if( recordNumber - lastRecordNumber < 0 )
+            return true;
+        NSec timestamp = _record.at( Datalogger.FIELD_TIMESTAMP ).getAsNSec();
+        return (lastTimestamp != null) && timestamp.asInstant().isBefore( lastTimestamp.asInstant() );
+    }
+
+
+    /**
+     * Advances this cursor past the given records (if there are any), collected from a table with the given signature, and persists it.
+     *
+     * @param _records the records just collected
+     * @param _signature the signature of the table they were collected from
+     */
+    private synchronized void advance( final List<Datum> _records, final int _signature ) {
+
+        if( _records.isEmpty() )
+            return;
+
+        Datum last = _records.get( _records.size() - 1 );
+        lastRecordNumber = Datalogger.getRecordNumber( last );
+        lastTimestamp    = last.at( Datalogger.FIELD_TIMESTAMP ).getAsNSec();
+        signature        = _signature;
+        positioned       = true;
+        save();
+    }
+
+
+    /**
+     * Reads this cursor's position from its file, if the file exists.
+     */
+    private void load() {
+
+        if( !Files.exists( file ) )
+            return;
+
+        Properties props = new Properties();
+        try( InputStream in = Files.newInputStream( file ) ) {
+            props.load( in );
+            signature        = Integer.parseInt( props.getProperty( PROPERTY_SIGNATURE ) );
+            lastRecordNumber = Integer.parseUnsignedInt( props.getProperty( PROPERTY_RECORD_NUMBER ) );
+            lastTimestamp    = new NSec( Integer.parseInt( props.getProperty( PROPERTY_SECONDS ) ),
+                                         Integer.parseInt( props.getProperty( PROPERTY_NANOSECONDS ) ) );
+            positioned       = true;
+        }
+        catch( IOException | RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Could not read collection cursor " + file + "; starting over", _e );
+            positioned    = false;
+            lastTimestamp = null;
+        }
+    }
+
+
+    /**
+     * Writes this cursor's position to its file, replacing the file atomically so that a crash never leaves a partly written cursor behind.  If the
+     * cursor has no position, its file is deleted.
+     */
+    private void save() {
+
+        try {
+            if( !positioned ) {
+                Files.deleteIfExists( file );
+                return;
+            }
+
+            Properties props = new Properties();
+            props.setProperty( PROPERTY_SIGNATURE,     Integer.toString( signature ) );
+            props.setProperty( PROPERTY_RECORD_NUMBER, Integer.toUnsignedString( lastRecordNumber ) );
+            props.setProperty( PROPERTY_SECONDS,       Integer.toString( lastTimestamp.seconds ) );
+            props.setProperty( PROPERTY_NANOSECONDS,   Integer.toString( lastTimestamp.nanoseconds ) );
+
+            Path temp = file.resolveSibling( file.getFileName() + ".tmp" );
+            try( OutputStream out = Files.newOutputStream( temp ) ) {
+                props.store( out, "Collection cursor for table " + tableName + " in " + datalogger.name );
+            }
+            Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.WARNING, "Could not write collection cursor " + file, _e );
+        }
+    }
+
+
+    /**
+     * Returns the given name with any characters that might be trouble in a file name replaced by underscores.
+     *
+     * @param _name the name to sanitize
+     * @return the sanitized name
+     */
+    private static String sanitize( final String _name ) {
+        return _name.replaceAll( "[^A-Za-z0-9._-]", "_" );
+    }
+}
@@ -0,0 +1,383 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.shims.TableDefinitions;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.util.TimingWheel;
+import com.dilatush.pakbus.values.Datum;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class collect new records from tables in dataloggers, each just after the table is expected to have stored a new record.  Each
+ * table's definition says how often it stores a record (its interval) and when within that interval it does so (its time into), so the scheduler
+ * can compute when the next record will appear and poll then - rather than polling on some arbitrary period, which either wastes polls on tables
+ * with nothing new or delays records.  Each poll happens a settling delay after the record is due, plus a random jitter so that stations storing
+ * records at the same moment aren't all polled in the same second.  Tables that don't store records on an interval (event tables, or the "Public"
+ * table) are polled on a fixed period instead.  Polls go through a {@link CollectionCursor} for each table, so each one collects exactly the new
+ * records, and the cursors persist across restarts.  All the dataloggers of an application share one link, so the number of polls in progress at
+ * once is limited by a budget; polls that come due when the budget is spent wait their turn.  All the timing is done on the application's timing
+ * wheel, and the collected records are handed to a listener on the given executor.  Instances of this class are mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class CollectionScheduler {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static public Duration DEFAULT_SETTLING_DELAY = Duration.ofSeconds( 2 );    // after a record is due, before we poll for it...
+    final static public Duration DEFAULT_MAX_JITTER     = Duration.ofSeconds( 10 );   // the most random delay added to each poll...
+    final static public Duration DEFAULT_POLL_PERIOD    = Duration.ofMinutes( 1 );    // for tables with no interval...
+    final static public int      DEFAULT_LINK_BUDGET    = 2;                          // the most polls in progress at once...
+
+    final private Application             application;
+    final private Path                    cursorDirectory;
+    final private Listener                listener;
+    final private Executor                executor;
+    final private Semaphore               budget;      // permits for polls in progress on the link...
+    final private Queue<Entry>            waiting;     // polls that came due while the budget was spent...
+    final private Map<String,Entry>       entries;     // scheduled tables, by datalogger and table name...
+
+    private volatile Duration settlingDelay;
+    private volatile Duration maxJitter;
+    private volatile Duration pollPeriod;
+
+
+    /**
+     * Creates a new instance of this class that collects from dataloggers registered with the given application, keeping the collection cursors in
+     * the given directory, and handing collected records to the given listener on the given executor.
+     *
+     * @param _application the application whose dataloggers will be collected from
+     * @param _cursorDirectory the directory to persist collection cursors in
+     * @param _listener the listener to hand collected records to
+     * @param _executor the executor to run the listener on
+     * @param _linkBudget the most polls to have in progress at once
+     */
+    public CollectionScheduler( final Application _application, final Path _cursorDirectory, final Listener _listener, final Executor _executor,
+                                final int _linkBudget ) {
+
+        // sanity checks...
+        Checks.required( _application, _cursorDirectory, _listener, _executor );
+        Checks.inBounds( _linkBudget, 1, 100, "Invalid link budget: " + _linkBudget );
+
+        application     = _application;
+        cursorDirectory = _cursorDirectory;
+        listener        = _listener;
+        executor        = _executor;
+        budget          = new Semaphore( _linkBudget );
+        waiting         = new ConcurrentLinkedQueue<>();
+        entries         = new ConcurrentHashMap<>();
+        settlingDelay   = DEFAULT_SETTLING_DELAY;
+        maxJitter       = DEFAULT_MAX_JITTER;
+        pollPeriod      = DEFAULT_POLL_PERIOD;
+    }
+
+
+    /**
+     * Creates a new instance of this class, as above, with the default link budget of {@link #DEFAULT_LINK_BUDGET} polls in progress at once.
+     *
+     * @param _application the application whose dataloggers will be collected from
+     * @param _cursorDirectory the directory to persist collection cursors in
+     * @param _listener the listener to hand collected records to
+     * @param _executor the executor to run the listener on
+     */
+    public CollectionScheduler( final Application _application, final Path _cursorDirectory, final Listener _listener, final Executor _executor ) {
+        this( _application, _cursorDirectory, _listener, _executor, DEFAULT_LINK_BUDGET );
+    }
+
+
+    /**
+     * Sets the delay between when a record is due to be stored and when we poll for it, to allow for the difference between the datalogger's clock
+     * and ours.
+     *
+     * @param _settlingDelay the delay after a record is due before we poll for it
+     */
+    public void setSettlingDelay( final Duration _settlingDelay ) {
+        Checks.required( _settlingDelay );
+        settlingDelay = _settlingDelay;
+    }
+
+
+    /**
+     * Sets the most random delay added to each poll.
+     *
+     * @param _maxJitter the most random delay added to each poll
+     */
+    public void setMaxJitter( final Duration _maxJitter ) {
+        Checks.required( _maxJitter );
+        maxJitter = _maxJitter;
+    }
+
+
+    /**
+     * Sets the period tables that don't store records on an interval are polled on.
+     *
+     * @param _pollPeriod the poll period for tables with no interval
+     */
+    public void setPollPeriod( final Duration _pollPeriod ) {
+        Checks.required( _pollPeriod );
+        Checks.isTrue( !_pollPeriod.isNegative() && !_pollPeriod.isZero(), "Poll period must be positive: " + _pollPeriod );
+        pollPeriod = _pollPeriod;
+    }
+
+
+    /**
+     * Starts collecting from the given table in the given datalogger.  The first poll happens right away (subject to the link budget), to catch up
+     * with anything stored while we weren't collecting; after that, each poll happens just after the next record is due.
+     *
+     * @param _datalogger the datalogger to collect from
+     * @param _tableName the name of the table to collect from
+     */
+    public void schedule( final Datalogger _datalogger, final String _tableName ) {
+
+        // sanity check...
+        Checks.required( _datalogger, _tableName );
+
+        Entry entry = new Entry( new CollectionCursor( _datalogger, _tableName, cursorDirectory ) );
+        Entry old = entries.put( key( _datalogger, _tableName ), entry );
+        if( old != null )
+            old.cancel();
+        due( entry );
+    }
+
+
+    /**
+     * Stops collecting from the given table in the given datalogger.  A poll already in progress will finish, but no more will be started.
+     *
+     * @param _datalogger the datalogger to stop collecting from
+     * @param _tableName the name of the table to stop collecting from
+     */
+    public void unschedule( final Datalogger _datalogger, final String _tableName ) {
+        Entry entry = entries.remove( key( _datalogger, _tableName ) );
+        if( entry != null )
+            entry.cancel();
+    }
+
+
+    /**
+     * Stops collecting from all tables.  Polls already in progress will finish, but no more will be started.
+     */
+    public void shutdown() {
+        entries.values().forEach( Entry::cancel );
+        entries.clear();
+        waiting.clear();
+    }
+
+
+    /**
+     * Called when a poll of the given entry is due: starts it if the link budget allows, otherwise leaves it waiting for a poll in progress to
+     * finish.
+     *
+     * @param _entry the entry whose poll is due
+     */
+    private void due( final Entry _entry ) {
+
+        if( _entry.cancelled )
+            return;
+
+        if( budget.tryAcquire() )
+            poll( _entry );
+        else
+            waiting.add( _entry );
+    }
+
+
+    /**
+     * Polls the given entry, holding a permit from the link budget until the poll is finished.
+     *
+     * @param _entry the entry to poll
+     */
+    private void poll( final Entry _entry ) {
+
+        CollectionCursor cursor = _entry.cursor;
+        try {
+            cursor.pollAsync().whenComplete( (records, e) -> {
+                finished();
+                report( cursor, records, e );
+                reschedule( _entry );
+            } );
+        }
+        catch( RuntimeException _e ) {
+            finished();
+            report( cursor, null, _e );
+            reschedule( _entry );
+        }
+    }
+
+
+    /**
+     * Called when a poll has finished: passes its permit on to the next poll waiting for one, or returns it to the budget.
+     */
+    private void finished() {
+
+        Entry next;
+        while( (next = waiting.poll()) != null ) {
+            if( !next.cancelled ) {
+                poll( next );
+                return;
+            }
+        }
+        budget.release();
+
+        // a poll may have come due between our check of the waiting queue and our release...
+        next = waiting.peek();
+        if( (next != null) && budget.tryAcquire() ) {
+            next = waiting.poll();
+            if( next != null )
+                poll( next );
+            else
+                budget.release();
+        }
+    }
+
+
+    /**
+     * Hands the results of a poll to our listener, on our executor.
+     *
+     * @param _cursor the cursor that was polled
+     * @param _records the records collected, or null if the poll failed
+     * @param _e the reason the poll failed, or null if it succeeded
+     */
+    private void report( final CollectionCursor _cursor, final List<Datum> _records, final Throwable _e ) {
+
+        Throwable cause = ((_e instanceof CompletionException) && (_e.getCause() != null)) ? _e.getCause() : _e;
+        if( (cause == null) && _records.isEmpty() )
+            return;
+
+        executor.execute( () -> {
+            try {
+                if( cause == null )
+                    listener.collected( _cursor, _records );
+                else
+                    listener.failed( _cursor, cause );
+            }
+            catch( RuntimeException _re ) {
+                LOGGER.log( Level.WARNING, "Collection listener threw exception, ignoring", _re );
+            }
+        } );
+    }
+
+
+    /**
+     * Schedules the next poll of the given entry, just after the next record of its table is due.
+     *
+     * @param _entry the entry to schedule
+     */
+    private void reschedule( final Entry _entry ) {
+
+        if( _entry.cancelled )
+            return;
+
+        // figure out when to poll next, from the table's definition if we can (the poll will have loaded the definitions if it could)...
+        long delayNanos;
+        CollectionCursor cursor = _entry.cursor;
+        try {
+            TableDefinitions tds = cursor.datalogger.getTableDefinitionsAsync().getNow( null );
+            TableDefinition  td  = (tds == null) ? null : tds.getTableDef( cursor.tableName );
+            delayNanos = nanosUntilDue( td, System.currentTimeMillis() );
+        }
+        catch( RuntimeException _e ) {
+            delayNanos = pollPeriod.toNanos();
+        }
+
+        // add our jitter, and schedule it...
+        long jitterNanos = maxJitter.toNanos();
+        if( jitterNanos > 0 )
+            delayNanos += ThreadLocalRandom.current().nextLong( jitterNanos );
+        _entry.timeout = application.timer().schedule( () -> due( _entry ), delayNanos, TimeUnit.NANOSECONDS );
+        LOGGER.finer( "Next poll of " + cursor.tableName + " in " + cursor.datalogger.name + " in "
+                + TimeUnit.NANOSECONDS.toSeconds( delayNanos ) + " seconds" );
+    }
+
+
+    /**
+     * Returns the nanoseconds from the given time until the table with the given definition is due to store its next record, plus the settling
+     * delay.  If the table doesn't store records on an interval (or we don't have its definition), the poll period is returned instead.
+     *
+     * @param _td the definition of the table, or null if we don't have it
+     * @param _nowMillis the current time, in milliseconds since the epoch
+     * @return the nanoseconds until the table's next record is due, plus the settling delay
+     */
+    private long nanosUntilDue( final TableDefinition _td, final long _nowMillis ) {
+
+        long intervalMillis = (_td == null) ? 0 : _td.interval.asDuration().toMillis();
+        if( intervalMillis <= 0 )
+            return pollPeriod.toNanos();
+
+        // records are stored when the time, less the time into, is a multiple of the interval...
+        // (the datalogger's epoch is a whole number of days after ours, so intervals that divide a day come out the same either way)
+        long timeIntoMillis = _td.timeInto.asDuration().toMillis();
+        long sinceLast      = Math.floorMod( _nowMillis - timeIntoMillis, intervalMillis );
+        long untilNext      = intervalMillis - sinceLast;
+        return TimeUnit.MILLISECONDS.toNanos( untilNext ) + settlingDelay.toNanos();
+    }
+
+
+    private static String key( final Datalogger _datalogger, final String _tableName ) {
+        return _datalogger.name + "/" + _tableName;
+    }
+
+
+    /**
+     * Implemented by classes that want the records collected by a scheduler.
+     */
+    public interface Listener {
+
+
+        /**
+         * Called with the new records collected from the table of the given cursor, in the order they were collected in.  Not called when a poll
+         * found no new records.
+         *
+         * @param _cursor the cursor for the table the records were collected from
+         * @param _records the records collected
+         */
+        void collected( final CollectionCursor _cursor, final List<Datum> _records );
+
+
+        /**
+         * Called when a poll of the table of the given cursor failed.  The table will be polled again when its next record is due.
+         *
+         * @param _cursor the cursor for the table whose poll failed
+         * @param _cause the reason the poll failed
+         */
+        default void failed( final CollectionCursor _cursor, final Throwable _cause ) {
+            LOGGER.log( Level.INFO, "Collection from " + _cursor.tableName + " in " + _cursor.datalogger.name + " failed", _cause );
+        }
+    }
+
+
+    /**
+     * A scheduled table.
+     */
+    private static class Entry {
+
+        final private CollectionCursor cursor;
+
+        private volatile TimingWheel.Timeout timeout;     // the timeout for the next poll, if one is scheduled...
+        private volatile boolean             cancelled;
+
+        private Entry( final CollectionCursor _cursor ) {
+            cursor = _cursor;
+        }
+
+        private void cancel() {
+            cancelled = true;
+            TimingWheel.Timeout t = timeout;
+            if( t != null )
+                t.cancel();
+        }
+    }
+}
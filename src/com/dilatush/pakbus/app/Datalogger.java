@@ -9,32 +9,66 @@ import com.dilatush.pakbus.messages.Msg;
 import com.dilatush.pakbus.messages.bmp5.*;
 import com.dilatush.pakbus.messages.pakctrl.GetStringSettingsReqMsg;
 import com.dilatush.pakbus.messages.pakctrl.GetStringSettingsRspMsg;
+import com.dilatush.pakbus.metrics.DataloggerMetrics;
+import com.dilatush.pakbus.metrics.TableMetrics;
 import com.dilatush.pakbus.shims.DataQuery;
 import com.dilatush.pakbus.shims.FieldDefinition;
+import com.dilatush.pakbus.shims.ProgrammingStatistics;
 import com.dilatush.pakbus.shims.TableDefinition;
 import com.dilatush.pakbus.shims.TableDefinitions;
+import com.dilatush.pakbus.store.RecordRange;
+import com.dilatush.pakbus.store.RecordSegment;
 import com.dilatush.pakbus.types.*;
 import com.dilatush.pakbus.util.BitBuffer;
 import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.util.SingleFlight;
+import com.dilatush.pakbus.util.TimingWheel;
 import com.dilatush.pakbus.values.ArrayDatum;
 import com.dilatush.pakbus.values.CompositeDatum;
 import com.dilatush.pakbus.values.Datum;
 import com.dilatush.pakbus.values.SimpleDatum;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.dilatush.pakbus.types.DataTypes.*;
 
 /**
- * Instances of this class represent a datalogger on a PakBus network.  Instances of this class are mutable and stateful, and not threadsafe.
+ * Instances of this class represent a datalogger on a PakBus network.  Instances of this class are mutable and stateful.  The table of outstanding
+ * transactions is lock-free, so any number of threads may issue requests concurrently while the application's packet reader completes them.  Every
+ * operation comes in two forms: a blocking method that returns null on failure (or after {@link #getAwaitTimeout()}), and a method (with the "Async"
+ * suffix) that returns a {@link CompletableFuture} without blocking.  The futures are completed on the application's packet reader thread (or its
+ * timing wheel's thread), so anything dependent on them that might block or take a while should be run with one of the "Async" completion stage
+ * methods.  A future that fails is completed with a {@link TransactionException}: a {@link TransactionTimeoutException} if the datalogger never
+ * answered, a {@link ResponseCodeException} if it answered with an error, or an {@link UnexpectedResponseException} if it answered with the wrong
+ * kind of message.
  *
  * @author Tom Dilatush  tom@dilatush.com
  */
@@ -42,16 +76,54 @@ public class Datalogger {
 
     final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
 
+    final static private int         TRANSACTION_NUMBERS = 256;                // transaction numbers are a single byte...
+    final static private Transaction RESERVED            = new Transaction();  // marks a slot whose number is taken, but not yet sent...
+    final static private int         PACKET_OVERHEAD     = 10;                 // bytes of packet headers and signature nullifier around a message...
+
+    final static public  int         DEFAULT_MAX_PACKET_BYTES  = 1010;         // the largest packet PakBus allows, headers included...
+    final static public  int         DEFAULT_PIPELINE_DEPTH    = 4;            // collection requests to keep in flight at once...
+    final static private int         COLLECT_RESPONSE_OVERHEAD = 12;           // message header, response code, block header, more records flag...
+    final static private int         FILE_RESPONSE_OVERHEAD    = 7;            // message header, response code, file offset...
+    final static private int         MAX_FILE_SWATH            = 0xFFFF;       // the largest swath a file request can ask for...
+    final static private int         FILE_SEND_OVERHEAD        = 10;           // message header, security code, attribute, close flag, file offset...
+    final static public  int         MAX_CONFIRM_ATTEMPTS      = 6;            // reads to confirm set values before setting them again...
+    final static public  int         MAX_SET_ROUNDS            = 3;            // times to set values that can't be confirmed before giving up...
+    final static private long        CONFIRM_BACKOFF_MS        = 250;          // delay before the second read to confirm set values...
+    final static private long        CONFIRM_MAX_BACKOFF_MS    = 8000;         // longest delay between reads to confirm set values...
+    final static public  int         DEFAULT_CLOCK_SAMPLES     = 8;            // clock samples to take when calibrating...
+    final static public  Duration    DEFAULT_CLOCK_BUDGET      = Duration.ofSeconds( 10 );   // most time to spend taking clock samples...
+    final static public  Duration    DEFAULT_CLOCK_PRECISION   = Duration.ofMillis( 50 );    // clock error allowed without correcting it...
+    final static public  Duration    DEFAULT_AWAIT_TIMEOUT     = Duration.ofMinutes( 10 );   // longest a blocking method waits for its result...
+
     final public Application application;
     final public String      name;
     final public Node        address;
     final public HopCount    hopCount;
     final public Context     context;    // simple context with no transaction number, for decoding received messages...
 
-    final private Map<Integer,Transaction> transactions;
+    final public DataloggerMetrics metrics;
+
+    final private RoundTripEstimator   roundTrip;
+    final private TransactionListeners transactionListeners;
+
+    final private AtomicReferenceArray<Transaction> transactions;   // outstanding transactions, indexed by transaction number...
+    final private AtomicInteger                     nextTrialTransactionNumber;
+
+    // requests in flight, shared by concurrent callers making identical requests...
+    final private SingleFlight<String,TableDefinitions>            tableDefinitionsFlight;
+    final private SingleFlight<Duration,Instant>                   clockFlight;
+    final private SingleFlight<List<String>,Map<String,String>>    settingsFlight;
+    final private SingleFlight<List<Object>,List<Datum>>           collectionFlight;
+    final private SingleFlight<ValueRequest,ByteBuffer>            valuesFlight;
 
-    private int nextTrialTransactionNumber;
-    private TableDefinitions tableDefinitions;
+    final private Map<String,LatestRecordCache> latestRecordCaches;   // caches of the most recent record, by table name...
+    final private Map<String,TablePoller>       tablePollers;         // pollers for value subscriptions, by table name...
+
+    private volatile TableDefinitions     tableDefinitions;
+    private volatile TableDefinitionCache tableDefinitionCache;
+    private volatile int                  maxPacketBytes;
+    private volatile Duration             awaitTimeout;      // the longest a blocking method waits for its result...
+    private volatile ClockOffset          lastClockOffset;   // the most recent clock measurement, or null if none...
 
 
     /**
@@ -66,9 +138,77 @@ public class Datalogger {
         name = _name;
         address = _address;
         hopCount = HopCount.ZERO;
-        transactions = new HashMap<>();
-        nextTrialTransactionNumber = 1;
+        transactions = new AtomicReferenceArray<>( TRANSACTION_NUMBERS );
+        nextTrialTransactionNumber = new AtomicInteger( 1 );
         context = new SimpleContext( application, this, 0 );
+        roundTrip = new RoundTripEstimator( hopCount );
+        metrics = new DataloggerMetrics( name );
+        transactionListeners = new TransactionListeners();
+        maxPacketBytes = DEFAULT_MAX_PACKET_BYTES;
+        awaitTimeout = DEFAULT_AWAIT_TIMEOUT;
+        tableDefinitionsFlight = new SingleFlight<>();
+        clockFlight = new SingleFlight<>();
+        settingsFlight = new SingleFlight<>();
+        collectionFlight = new SingleFlight<>();
+        valuesFlight = new SingleFlight<>();
+        latestRecordCaches = new ConcurrentHashMap<>();
+        tablePollers = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns the round-trip time estimator for this datalogger, which sets the timeouts (and the retransmission limit) for all requests to it.
+     *
+     * @return the round-trip time estimator for this datalogger
+     */
+    public RoundTripEstimator getRoundTripEstimator() {
+        return roundTrip;
+    }
+
+
+    /**
+     * Returns the largest packet (including headers) that this datalogger can send or receive.
+     *
+     * @return the largest packet this datalogger can send or receive, in bytes
+     */
+    public int getMaxPacketBytes() {
+        return maxPacketBytes;
+    }
+
+
+    /**
+     * Sets the largest packet (including headers) that this datalogger can send or receive.  This defaults to the largest packet PakBus allows, but
+     * some dataloggers (such as the CR200 series) have a smaller limit.  It is used to size the requests in pipelined operations.
+     *
+     * @param _maxPacketBytes the largest packet this datalogger can send or receive, in bytes
+     */
+    public void setMaxPacketBytes( final int _maxPacketBytes ) {
+        Checks.inBounds( _maxPacketBytes, 64, DEFAULT_MAX_PACKET_BYTES, "Invalid maximum packet size: " + _maxPacketBytes );
+        maxPacketBytes = _maxPacketBytes;
+    }
+
+
+    /**
+     * Returns the longest time the blocking (non-async) methods of this class wait for their result before giving up and returning null.
+     *
+     * @return the longest time a blocking method waits
+     */
+    public Duration getAwaitTimeout() {
+        return awaitTimeout;
+    }
+
+
+    /**
+     * Sets the longest time the blocking (non-async) methods of this class wait for their result before giving up and returning null.  This
+     * defaults to {@link #DEFAULT_AWAIT_TIMEOUT}; it should be longer than the slowest operation expected (say, collecting a large table over a slow
+     * link), as a blocking method that gives up doesn't stop the operation it was waiting for.
+     *
+     * @param _awaitTimeout the longest time a blocking method waits
+     */
+    public void setAwaitTimeout( final Duration _awaitTimeout ) {
+        Checks.required( _awaitTimeout );
+        Checks.isTrue( !_awaitTimeout.isNegative() && !_awaitTimeout.isZero(), "Invalid await timeout: " + _awaitTimeout );
+        awaitTimeout = _awaitTimeout;
     }
 
 
@@ -77,18 +217,50 @@ public class Datalogger {
      *
      * @param _msg the message received by the application
      */
-    public synchronized void handle( final Msg _msg ) {
+    public void handle( final Msg _msg ) {
+
+        // see if we have an active transaction matching the message we just got, and claim it if so (only one thread can win the claim)...
+        int number = 0xFF & _msg.transactionNumber();
+        Transaction active = transactions.get( number );
+        if( (active != null) && (active != RESERVED) && transactions.compareAndSet( number, active, null ) ) {
+
+            // stop the retransmission timer...
+            long rtt = System.nanoTime() - active.sentNanos;
+            TimingWheel.Timeout timer = active.timer;
+            if( timer != null )
+                timer.cancel();
+
+            // if we got the wrong type of message, the transaction has failed...
+            if( !active.expectedClass.isInstance( _msg ) ) {
+                metrics.unexpectedResponses.increment();
+                if( hasTransactionListeners() ) {
+                    long now = System.nanoTime();
+                    int bytes = _msg.getPacket().length() + 2;
+                    fireTransactionEvent( l -> l.mismatched( this, number, active.request.getClass(), active.expectedClass, _msg.getClass(),
+                            bytes, now ) );
+                }
+                active.future.completeExceptionally(
+                        new UnexpectedResponseException( active.request.getClass(), active.expectedClass, _msg ) );
+                return;
+            }
 
-        // see if we have an active transaction matching the message we just got...
-        Transaction active = transactions.get( _msg.transactionNumber() );
-        if( active != null ) {
+            // record the round trip time (including any retransmits, which is what the caller waited)...
+            metrics.responses.increment();
+            metrics.roundTrip( active.request.getClass() ).record( rtt );
+            if( hasTransactionListeners() ) {
+                long now = active.sentNanos + rtt;
+                int bytes = _msg.getPacket().length() + 2;
+                fireTransactionEvent( l -> l.answered( this, number, active.request.getClass(), _msg.getClass(), bytes, rtt, now ) );
+            }
 
-            // if we got the right type of message, stuff it away; null otherwise...
-            active.response = active.expectedClass.isInstance( _msg ) ? _msg : null;
+            // if it was answered on the first try, we've got a good round-trip time sample...
+            if( active.retransmits == 0 ) {
+                roundTrip.sample( rtt, active.requestBytes, _msg.getPacket().length() + 2 );
+                LOGGER.finest( active.expectedClass.getSimpleName() + ": " + TimeUnit.NANOSECONDS.toMillis( rtt ) + " milliseconds round trip" );
+            }
 
-            // now finish up and release the thread waiting on this...
-            active.waiter.release();
-            transactions.remove( _msg.transactionNumber() );
+            // now complete the transaction (which runs anything waiting on it, on this thread)...
+            active.future.complete( _msg );
         }
 
         // if there's no active transaction with this number, then it's a mystery and we'll ignore it...
@@ -99,23 +271,67 @@ public class Datalogger {
 
 
     /**
-     * Examines all outstanding (unsatisfied) requests; if any of them have timed out the request is resent.
+     * Called by the application's timing wheel when the given transaction's deadline passes.  If the transaction is still outstanding, the request is
+     * resent and a new (backed off) deadline is scheduled - unless it has already been retransmitted as many times as we allow, in which case the
+     * transaction fails with no response.
+     *
+     * @param _transaction the transaction whose deadline has passed
      */
-    public synchronized void tickle() {
-
-        Instant now = Instant.now();
-
-        transactions.forEach( (number, transaction) -> {
+    private void onTimeout( final Transaction _transaction ) {
+
+        // if the transaction was answered in the meantime, there's nothing to do...
+        int number = _transaction.request.context().transactionNumber();
+        if( transactions.get( number ) != _transaction )
+            return;
+
+        // if we've run out of retries, fail the transaction (unless it got answered just now)...
+        if( _transaction.retransmits >= roundTrip.getMaxRetransmits() ) {
+            if( transactions.compareAndSet( number, _transaction, null ) ) {
+                metrics.timeouts.increment();
+                if( hasTransactionListeners() ) {
+                    long now = System.nanoTime();
+                    int retransmits = _transaction.retransmits;
+                    fireTransactionEvent( l -> l.timedOut( this, number, _transaction.request.getClass(), retransmits, now ) );
+                }
+                LOGGER.info( "Transaction failed after " + _transaction.retransmits + " retransmits: "
+                        + _transaction.expectedClass.getSimpleName() );
+                _transaction.future.completeExceptionally(
+                        new TransactionTimeoutException( _transaction.request.getClass(), _transaction.retransmits ) );
+            }
+            return;
+        }
 
-            // if this transaction has timed out, resend it and reset the timeout...
-            if( transaction.timeout.compareTo( now ) < 0 ) {
+        // schedule our next deadline first, so that a failure to send doesn't leave the transaction with no deadline at all...
+        _transaction.retransmits++;
+        metrics.retransmits.increment();
+        schedule( _transaction );
+
+        // then resend the request...
+        try {
+            // tell the listeners before sending, as the answer could be in before send() returns...
+            if( hasTransactionListeners() ) {
+                long now = System.nanoTime();
+                int retransmits = _transaction.retransmits;
+                fireTransactionEvent( l -> l.retransmitted( this, number, _transaction.request.getClass(), _transaction.requestBytes,
+                        retransmits, now ) );
+            }
+            send( _transaction.request );
+            LOGGER.finer( "Transaction timed out; resent: " + _transaction.expectedClass.getSimpleName() );
+        }
+        catch( RuntimeException _e ) {
+            LOGGER.warning( "Transaction timed out; could not resend: " + _e.getMessage() );
+        }
+    }
 
-                send( transaction.request );
-                transaction.timeout = now.plus( Duration.ofMillis( transaction.timeoutMilliSeconds ) );
 
-                LOGGER.finer( "Transaction timed out; resent: " + transaction.expectedClass.getSimpleName() );
-            }
-        } );
+    /**
+     * Schedules the deadline for the given transaction on the application's timing wheel.
+     *
+     * @param _transaction the transaction to schedule a deadline for
+     */
+    private void schedule( final Transaction _transaction ) {
+        long timeout = roundTrip.timeoutNanos( _transaction.requestBytes, _transaction.retransmits );
+        _transaction.timer = application.timer().schedule( () -> onTimeout( _transaction ), timeout, TimeUnit.NANOSECONDS );
     }
 
 
@@ -125,68 +341,177 @@ public class Datalogger {
      * @return the current time in the datalogger
      */
     public Instant getTime() {
+        return await( getTimeAsync() );
+    }
+
 
-        // send the request...
-        return correctTime( Duration.ZERO );
+    /**
+     * Returns a future that will be completed with the current time in the datalogger.
+     *
+     * @return the future current time in the datalogger
+     */
+    public CompletableFuture<Instant> getTimeAsync() {
+        return correctTimeAsync( Duration.ZERO );
     }
 
 
     /**
-     * Corrects the datalogger's clock by the given duration, returning the original clock time.
+     * Corrects the datalogger's clock by the given duration, returning the original clock time.  Returns null if the request failed.
      *
      * @param _correction the amount to correct the clock by (may be negative)
      * @return the datalogger's clock before correction...
      */
     public Instant correctTime( final Duration _correction ) {
+        return await( correctTimeAsync( _correction ) );
+    }
+
+
+    /**
+     * Corrects the datalogger's clock by the given duration, returning a future that will be completed with the original clock time.  A request with
+     * a zero correction (that is, just reading the clock) is shared with any identical request already in flight; a real correction never is.
+     *
+     * @param _correction the amount to correct the clock by (may be negative)
+     * @return the future datalogger's clock before correction
+     */
+    public CompletableFuture<Instant> correctTimeAsync( final Duration _correction ) {
 
         // sanity check...
         Checks.required( _correction );
 
-        // send the request...
-        Msg msg = new ClockReqMsg( 0, new NSec( _correction ), new RequestContext() );
-        Transaction trans = sendRequest( msg, ClockRspMsg.class, 1000 );
+        // if we're just reading the clock, share any read already in flight...
+        if( _correction.isZero() )
+            return clockFlight.run( _correction, () -> requestClock( _correction ) );
+        return requestClock( _correction );
+    }
+
+
+    /**
+     * Sends a clock request with the given correction, returning a future that will be completed with the original clock time.
+     *
+     * @param _correction the amount to correct the clock by (may be negative)
+     * @return the future datalogger's clock before correction
+     */
+    /*package*/ CompletableFuture<Instant> requestClock( final Duration _correction ) {
+
+        // send the request, and return the time from the response...
+        try {
+            Msg msg = newRequest( requestContext -> new ClockReqMsg( 0, new NSec( _correction ), requestContext ) );
+            return request( msg, ClockRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                if( !_correction.isZero() )
+                    clockCorrected( _correction );
+                return rspMsg.oldTime.asInstant();
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
 
-        // wait for our response, or a bad response...
-        try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
+    /**
+     * Notes that the datalogger's clock has been corrected by (about) the given amount, adjusting the last measured clock offset to match, so that
+     * drift is still measured correctly by the next measurement.
+     *
+     * @param _correction the amount the clock was corrected by
+     */
+    /*package*/ void clockCorrected( final Duration _correction ) {
+        ClockOffset last = lastClockOffset;
+        if( last != null )
+            lastClockOffset = new ClockOffset( last.measuredAt, last.offset.plus( _correction ), last.roundTrip, last.drift, last.samples );
+    }
 
-        // if we got no response, just leave...
-        if( trans.response == null ) return null;
 
-        // otherwise, return with our time...
-        ClockRspMsg rspMsg = (ClockRspMsg) trans.response;
-        return rspMsg.oldTime.asInstant();
+    /**
+     * Measures the datalogger's clock against this computer's clock, blocking until done.  Up to the given number of samples are taken, within the
+     * given time budget (at least one is always taken).  Returns null if the clock couldn't be read at all.
+     *
+     * @param _samples the number of samples to take
+     * @param _budget the most time to spend taking samples
+     * @return the measured clock offset
+     */
+    public ClockOffset measureClock( final int _samples, final Duration _budget ) {
+        return await( measureClockAsync( _samples, _budget ) );
     }
 
 
     /**
-     * Calibrate the datalogger's clock against this computer's clock, adjusting the datalogger's clock to match within one second.
+     * Measures the datalogger's clock against this computer's clock, returning a future that will be completed with the measured offset.  Up to the
+     * given number of samples are taken, one after another, within the given time budget (at least one is always taken).  The offset is estimated
+     * from the samples with the shortest round trips, and the drift from the change since this datalogger's previous measurement.  Samples are never
+     * shared with other clock reads in flight, as that would spoil their timing.
+     *
+     * @param _samples the number of samples to take
+     * @param _budget the most time to spend taking samples
+     * @return the future measured clock offset
      */
-    public void calibrateClock() {
+    public CompletableFuture<ClockOffset> measureClockAsync( final int _samples, final Duration _budget ) {
 
-        // get our round-trip time...
-        // empirically the first two or three round trips are variable; the rest stable, so we take the fifth one...
-        Duration roundTrip = null;
-        Instant start = null;
-        Instant end = null;
-        Instant clock = null;
-        for( int i = 0; i < 5; i++ ) {
+        // sanity checks...
+        Checks.required( _budget );
+        Checks.inBounds( _samples, 1, 100, "Invalid number of clock samples: " + _samples );
 
-            start = Instant.now();
-            clock = getTime();
-            end = Instant.now();
-            roundTrip = Duration.between( start, end );
-        }
+        return new ClockEstimator( this, _samples, _budget, lastClockOffset ).start().thenApply( offset -> {
+            lastClockOffset = offset;
+            return offset;
+        } );
+    }
 
-        // calculate our correction...
-        Duration center = Duration.ofMillis( roundTrip.toMillis() >>> 1 );
-        Instant target = start.plus( center );
-        Duration correction = Duration.between( clock, target );
 
-        // if the computed correction is greater than a second, issue it...
-        if( Math.abs( correction.toMillis() ) > 1000 ) {
-            LOGGER.info( "Correcting datalogger clock by " + correction );
-            correctTime( correction );
-        }
+    /**
+     * Calibrates the datalogger's clock against this computer's clock with the default number of samples, time budget, and precision, blocking until
+     * done.  Returns the offset measured before any correction, or null if the clock couldn't be read.
+     *
+     * @return the clock offset measured before any correction
+     */
+    public ClockOffset calibrateClock() {
+        return calibrateClock( DEFAULT_CLOCK_PRECISION );
+    }
+
+
+    /**
+     * Calibrates the datalogger's clock against this computer's clock with the default number of samples and time budget, correcting it if it's off
+     * by more than the given precision, blocking until done.  Returns the offset measured before any correction, or null if there was a problem.
+     *
+     * @param _precision how far off the datalogger's clock may be without being corrected
+     * @return the clock offset measured before any correction
+     */
+    public ClockOffset calibrateClock( final Duration _precision ) {
+        return await( calibrateClockAsync( DEFAULT_CLOCK_SAMPLES, DEFAULT_CLOCK_BUDGET, _precision ) );
+    }
+
+
+    /**
+     * Calibrates the datalogger's clock against this computer's clock, returning a future that will be completed with the offset measured before any
+     * correction.  The clock is measured (see {@link #measureClockAsync(int, Duration)}), and if it's off by more than the given precision, it is
+     * corrected by the measured offset.  Note that the clock can't be set any more precisely than the measurement's uncertainty; if that's larger
+     * than the given precision, the clock is still corrected, but a warning is logged.
+     *
+     * @param _samples the number of samples to take
+     * @param _budget the most time to spend taking samples
+     * @param _precision how far off the datalogger's clock may be without being corrected
+     * @return the future clock offset measured before any correction
+     */
+    public CompletableFuture<ClockOffset> calibrateClockAsync( final int _samples, final Duration _budget, final Duration _precision ) {
+
+        // sanity checks...
+        Checks.required( _precision );
+        Checks.isTrue( !_precision.isNegative(), "Invalid clock precision: " + _precision );
+
+        return measureClockAsync( _samples, _budget ).thenCompose( offset -> {
+
+            // if the clock is close enough, we're done...
+            if( offset.offset.abs().compareTo( _precision ) <= 0 )
+                return CompletableFuture.completedFuture( offset );
+
+            if( offset.uncertainty.compareTo( _precision ) > 0 )
+                LOGGER.warning( "Datalogger " + name + " clock uncertainty " + offset.uncertainty + " is larger than the precision wanted: " + _precision );
+
+            // correct the clock...
+            Duration correction = offset.offset.negated();
+            LOGGER.info( "Correcting datalogger " + name + " clock by " + correction );
+            return requestClock( correction ).thenApply( oldTime -> offset );
+        } );
     }
 
 
@@ -201,27 +526,220 @@ public class Datalogger {
      *         or null if there was an error
      */
     public Integer setValues( final String _tableName, final String _fieldName, final Datum _values ) {
+        return await( setValuesAsync( _tableName, _fieldName, _values ) );
+    }
+
+
+    /**
+     * Sets one or more values in the given table and field, as {@link #setValues(String, String, Datum)} does, returning a future that will be
+     * completed with the number of seconds to wait before trying to communicate with the datalogger (or -1 if no wait is required).
+     *
+     * @param _tableName the table name to set the value in
+     * @param _fieldName the field name to set the value in
+     * @param _values the values to set
+     * @return the future number of seconds to wait before trying to communicate with the datalogger, or -1
+     */
+    public CompletableFuture<Integer> setValuesAsync( final String _tableName, final String _fieldName, final Datum _values ) {
 
         // sanity checks...
         Checks.required( _tableName, _fieldName, _values );
 
-        // send our request and wait for an answer...
-        Msg msg = new SetValuesReqMsg( 0, _tableName, _fieldName, _values, new RequestContext() );
-        Transaction trans = sendRequest( msg, SetValuesRspMsg.class, 2000 );
+        // send our request, and return the reboot interval from the response (a reboot is success, too)...
+        try {
+            Msg msg = newRequest( requestContext -> new SetValuesReqMsg( 0, _tableName, _fieldName, _values, requestContext ) );
+            return request( msg, SetValuesRspMsg.class ).thenApply( rspMsg -> {
+                if( rspMsg.responseCode != ResponseCode.SuccessWithReboot )
+                    checkResponseCode( msg, rspMsg.responseCode );
+                return rspMsg.rebootInterval;
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Sets the given values (a map of field names to values) in the given table, then confirms that they were set by reading them back, as
+     * {@link #setValuesAsync(String, Map)} does.
+     *
+     * @param _tableName the table name to set the values in
+     * @param _values the map of field names to the values to set in them
+     * @return the map of field names to the confirmed values read back, or null if there was a problem
+     */
+    public Map<String,Datum> setValues( final String _tableName, final Map<String,Datum> _values ) {
+        return await( setValuesAsync( _tableName, _values ) );
+    }
+
+
+    /**
+     * Sets the given values (a map of field names to values) in the given table, then confirms that they were set by reading them back, returning a
+     * future that will be completed with a map of the field names to the values read back.  The set values requests are pipelined (see
+     * {@link #DEFAULT_PIPELINE_DEPTH}).  If the datalogger says it must reboot for any of them to take effect, nothing more is sent until the
+     * longest reboot interval it asked for has passed.  The values are then read back with get values requests (also pipelined); any that don't
+     * match yet (or can't be read yet because of a timeout or other transient error) are read again after a backoff delay that doubles each time,
+     * while any other read failure fails the future at once.  Values that still don't match after {@link #MAX_CONFIRM_ATTEMPTS} reads are set
+     * again, up to {@link #MAX_SET_ROUNDS} times in all, after which the future fails.
+     *
+     * @param _tableName the table name to set the values in
+     * @param _values the map of field names to the values to set in them
+     * @return the future map of field names to the confirmed values read back
+     */
+    public CompletableFuture<Map<String,Datum>> setValuesAsync( final String _tableName, final Map<String,Datum> _values ) {
+
+        // sanity checks...
+        Checks.required( _tableName, _values );
+
+        // figure out how to read back each value, with the same field type and swath the set values request will have...
+        Map<String,ValueRequest> readBacks = new LinkedHashMap<>();
+        for( Map.Entry<String,Datum> entry : _values.entrySet() ) {
+            Checks.required( entry.getKey(), entry.getValue() );
+            readBacks.put( entry.getKey(), new ValueRequest( _tableName, entry.getKey(), SetValuesReqMsg.fieldTypeOf( entry.getValue() ),
+                    SetValuesReqMsg.swathOf( entry.getValue() ) ) );
+        }
 
-        // wait for our response, or a bad response...
-        try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
+        // then set them all, and confirm them...
+        CompletableFuture<Map<String,Datum>> result = new CompletableFuture<>();
+        setAndConfirm( _tableName, _values, readBacks, _values.keySet(), 1, result );
+        return result;
+    }
 
-        // if we got no response, just leave...
-        if( trans.response == null ) return null;
 
-        // if we got a bad response code, just leave...
-        SetValuesRspMsg rspMsg = (SetValuesRspMsg)trans.response;
-        if( rspMsg.responseCode != ResponseCode.OK )
-            return null;
+    /**
+     * Sets the given fields to their values, waits for any reboot the datalogger asked for, then confirms all the values.
+     *
+     * @param _tableName the table name to set the values in
+     * @param _values the map of field names to the values to set in them
+     * @param _readBacks the map of field names to the value requests that read them back
+     * @param _fields the names of the fields to set this round
+     * @param _round the number of this round of setting values (starting at one)
+     * @param _result the future to complete with the confirmed values
+     */
+    private void setAndConfirm( final String _tableName, final Map<String,Datum> _values, final Map<String,ValueRequest> _readBacks,
+                                final Collection<String> _fields, final int _round, final CompletableFuture<Map<String,Datum>> _result ) {
+
+        pipeline( _fields, field -> setValuesAsync( _tableName, field, _values.get( field ) ) ).thenAccept( reboots -> {
+
+            // if the datalogger is rebooting, wait for the longest reboot interval before we try to read anything...
+            int rebootSeconds = -1;
+            for( int seconds : reboots.values() )
+                rebootSeconds = Math.max( rebootSeconds, seconds );
+            if( rebootSeconds >= 0 )
+                LOGGER.info( "Datalogger " + name + " is rebooting; waiting " + rebootSeconds + " seconds to confirm values" );
+            long delayMs = (rebootSeconds >= 0) ? TimeUnit.SECONDS.toMillis( rebootSeconds ) : 0;
+
+            after( delayMs, () -> confirm( _tableName, _values, _readBacks, _round, 1, _result ) );
+
+        } ).exceptionally( _e -> fail( _result, _e ) );
+    }
+
+
+    /**
+     * Reads back all the values being set, and compares them with the values that were set.  If they all match, the given future is completed with
+     * the values read back.  Otherwise they're read again after a backoff delay, or set again, or we give up - depending on how many attempts we've
+     * already made.
+     *
+     * @param _tableName the table name the values were set in
+     * @param _values the map of field names to the values that were set
+     * @param _readBacks the map of field names to the value requests that read them back
+     * @param _round the number of the current round of setting values (starting at one)
+     * @param _attempt the number of this attempt to confirm the values in this round (starting at one)
+     * @param _result the future to complete with the confirmed values
+     */
+    private void confirm( final String _tableName, final Map<String,Datum> _values, final Map<String,ValueRequest> _readBacks, final int _round,
+                          final int _attempt, final CompletableFuture<Map<String,Datum>> _result ) {
+
+        getValuesAsync( _readBacks.values() ).whenComplete( (readValues, e) -> {
+
+            // see which fields (if any) don't match yet...
+            List<String> mismatched = new ArrayList<>();
+            Map<String,Datum> confirmed = new LinkedHashMap<>();
+            if( e == null ) {
+                for( Map.Entry<String,ValueRequest> entry : _readBacks.entrySet() ) {
+                    Datum readValue = readValues.get( entry.getValue() );
+                    confirmed.put( entry.getKey(), readValue );
+                    if( !isSameValue( _values.get( entry.getKey() ), readValue ) )
+                        mismatched.add( entry.getKey() );
+                }
+            }
+
+            // if everything matched, we're done...
+            if( (e == null) && mismatched.isEmpty() ) {
+                _result.complete( confirmed );
+                return;
+            }
+
+            // if we couldn't read them for a reason that won't go away by itself (say, permission denied or an unknown field), give up now...
+            if( (e != null) && !isTransient( e ) ) {
+                fail( _result, e );
+                return;
+            }
 
-        // all is well, so return our interval...
-        return rspMsg.rebootInterval;
+            // if we've got more confirmation attempts left, back off and try again...
+            if( _attempt < MAX_CONFIRM_ATTEMPTS ) {
+                long delayMs = Math.min( CONFIRM_MAX_BACKOFF_MS, CONFIRM_BACKOFF_MS << (_attempt - 1) );
+                after( delayMs, () -> confirm( _tableName, _values, _readBacks, _round, _attempt + 1, _result ) );
+                return;
+            }
+
+            // if we couldn't even read them, give up...
+            if( e != null ) {
+                fail( _result, e );
+                return;
+            }
+
+            // if we've got more rounds left, set whatever didn't match again...
+            if( _round < MAX_SET_ROUNDS ) {
+                LOGGER.info( "Values in " + _tableName + " not confirmed; setting them again: " + mismatched );
+                setAndConfirm( _tableName, _values, _readBacks, mismatched, _round + 1, _result );
+                return;
+            }
+
+            // otherwise, we've failed...
+            fail( _result, new IllegalStateException( "Values in " + _tableName + " could not be confirmed: " + mismatched ) );
+        } );
+    }
+
+
+    /**
+     * Returns true if the given failure (possibly wrapped in a completion exception) might not happen again if the request were retried: the request
+     * timed out, or the datalogger was temporarily out of resources.
+     *
+     * @param _e the failure
+     * @return true if the failure is transient
+     */
+    private static boolean isTransient( final Throwable _e ) {
+        Throwable cause = ((_e instanceof CompletionException) && (_e.getCause() != null)) ? _e.getCause() : _e;
+        if( cause instanceof TransactionTimeoutException )
+            return true;
+        return (cause instanceof ResponseCodeException) && (((ResponseCodeException) cause).responseCode == ResponseCode.OutOfResources);
+    }
+
+
+    /**
+     * Returns true if the given values have the same bytes.
+     *
+     * @param _a one value
+     * @param _b the other value
+     * @return true if the values have the same bytes
+     */
+    private static boolean isSameValue( final Datum _a, final Datum _b ) {
+        return (_a != null) && (_b != null) && (_a.get() != null) && (_b.get() != null)
+                && _a.get().getByteBuffer().equals( _b.get().getByteBuffer() );
+    }
+
+
+    /**
+     * Runs the given task after the given number of milliseconds, on the application's timing wheel - or right now, if the delay isn't positive.
+     *
+     * @param _delayMs the delay before running the task, in milliseconds
+     * @param _task the task to run
+     */
+    private void after( final long _delayMs, final Runnable _task ) {
+        if( _delayMs <= 0 )
+            _task.run();
+        else
+            application.timer().schedule( _task, _delayMs, TimeUnit.MILLISECONDS );
     }
 
 
@@ -236,43 +754,7 @@ public class Datalogger {
      * @return  the datum containing the value requested, or null if there was an error
      */
     public Datum getValues( final String _tableName, final String _fieldName, final PakBusType _fieldType, final int _swath ) {
-
-        // sanity checks...
-        Checks.required( _tableName, _fieldName, _fieldType );
-        Checks.inBounds( _swath, 1, 1000,"Illegal value for swath: " + _swath  );
-
-        // send our request and wait for an answer...
-        Msg msg = new GetValuesReqMsg( 0, _tableName, _fieldName, _fieldType, _swath, new RequestContext() );
-        Transaction trans = sendRequest( msg, GetValuesRspMsg.class, 2000 );
-
-        // wait for our response, or a bad response...
-        try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
-
-        // if we got no response, just leave...
-        if( trans.response == null ) return null;
-
-        // if we got a bad response code, just leave...
-        GetValuesReqMsg reqMsg = (GetValuesReqMsg)trans.request;
-        GetValuesRspMsg rspMsg = (GetValuesRspMsg)trans.response;
-        if( rspMsg.responseCode != ResponseCode.OK )
-            return null;
-
-        // all is well, so make a datum of the right type...
-        DataType dataType = DataTypes.fromPakBusType( reqMsg.fieldType );
-        Datum result;
-        if( _swath > 1 ) {
-            ArrayDataType arrayDataType = new ArrayDataType( "ARRAY", null, dataType );
-            result = new ArrayDatum( arrayDataType );
-        }
-        else {
-            if( dataType instanceof SimpleDataType ) result = new SimpleDatum( dataType );
-            else if( dataType instanceof ArrayDataType ) result = new ArrayDatum( dataType );
-            else result = new CompositeDatum( dataType );
-        }
-
-        // then stuff the result in and leave...
-        result.set( new BitBuffer( rspMsg.bytes ) );
-        return result;
+        return await( getValuesAsync( _tableName, _fieldName, _fieldType, _swath ) );
     }
 
 
@@ -290,338 +772,1350 @@ public class Datalogger {
 
 
     /**
-     * Returns all settings in the datalogger as a map of setting names to their values.
+     * Returns a future that will be completed with the value in the given table and field as the given type.  If the swath is one, the value is the
+     * single value.  Otherwise, the value is an array of the given field type.
      *
-     * @return a map of setting names to their values
+     * @param _tableName the table name to get the value from
+     * @param _fieldName the field name to get the value from
+     * @param _fieldType the type to convert the returned value to
+     * @param _swath the number of values to return (>1 for array fields)
+     * @return  the future datum containing the value requested
      */
-    public Map<String,String> getAllSettings() {
-        return getSettings( new ArrayList<>() );
+    public CompletableFuture<Datum> getValuesAsync( final String _tableName, final String _fieldName, final PakBusType _fieldType,
+                                                    final int _swath ) {
+        return getValuesAsync( new ValueRequest( _tableName, _fieldName, _fieldType, _swath ) );
     }
 
 
     /**
-     * Returns the values of the given setting names as a map of the setting names to their values.
+     * Returns a future that will be completed with the value(s) identified by the given value request.  If the swath is one, the value is the single
+     * value.  Otherwise, the value is an array of the given field type.  If an equal request is already in flight, no new request is sent; the
+     * response to the one in flight completes both (each with its own datum).
      *
-     * @param _settingNames the list of setting names to retrieve
-     * @return a map of setting names to their values
+     * @param _request the value(s) to get
+     * @return the future datum containing the value requested
      */
-    public Map<String,String> getSettings( final List<String> _settingNames ) {
+    public CompletableFuture<Datum> getValuesAsync( final ValueRequest _request ) {
 
         // sanity check...
-        Checks.required( _settingNames );
-
-        // form our request string...
-        StringBuilder sb = new StringBuilder();
-        _settingNames.forEach( name -> {
-            if( sb.length() != 0 )
-                sb.append( ';' );
-            sb.append( name );
-        } );
-
-        // send the request...
-        Msg msg = new GetStringSettingsReqMsg( sb.toString(), new RequestContext() );
-        Transaction trans = sendRequest( msg, GetStringSettingsRspMsg.class, 2000 );
+        Checks.required( _request );
 
-        // wait for our response, or a bad response...
-        try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
+        // if someone else is already asking for this, just share their answer - but decode it into a datum of our own...
+        return valuesFlight.run( _request, () -> requestValues( _request ) ).thenApply( bytes -> toValue( _request, bytes ) );
+    }
 
-        // if we got no response, just leave...
-        if( trans.response == null ) return null;
 
-        // otherwise, return with our settings...
-        GetStringSettingsRspMsg rspMsg = (GetStringSettingsRspMsg) trans.response;
-        return rspMsg.settings;
+    /**
+     * Returns a map of the given value requests to the values read for them, or null if any of them couldn't be read.
+     *
+     * @param _requests the values to get
+     * @return the map of value requests to the values read, or null if there was a problem
+     */
+    public Map<ValueRequest,Datum> getValues( final Collection<ValueRequest> _requests ) {
+        return await( getValuesAsync( _requests ) );
     }
 
 
     /**
-     * Read the datalogger file with the given name and return its bytes.
+     * Returns a future that will be completed with a map of the given value requests to the values read for them.  Each value is read with its own
+     * request (a get values request can only name one field), but up to {@link #DEFAULT_PIPELINE_DEPTH} requests are in flight at once, so reading
+     * many values takes far fewer round trip times than reading them one at a time.  Duplicate requests are read once, and requests equal to ones
+     * already in flight (from any caller) share their responses.  If any value can't be read, the future fails.
      *
-     * @param _fileName the name of the file to read
-     * @return the bytes of the file read, or null if there was a problem
+     * @param _requests the values to get
+     * @return the future map of value requests to the values read
      */
-    public ByteBuffer readFile( final String _fileName ) {
+    public CompletableFuture<Map<ValueRequest,Datum>> getValuesAsync( final Collection<ValueRequest> _requests ) {
 
         // sanity check...
-        Checks.required( _fileName );
-
-        // some setup...
-        boolean done = false;
-        int swath = 400;
-        ByteBuffer result = ByteBuffer.allocate( 1000 );
-        int offset = 0;
+        Checks.required( _requests );
 
-        // loop until we get it all...
-        while( !done ) {
+        return pipeline( _requests, this::getValuesAsync );
+    }
 
-            Msg msg = new FileReceiveReqMsg( 0, _fileName, 0, offset, swath, new RequestContext() );
-            Transaction trans = sendRequest( msg, FileReceiveRspMsg.class, 10000 );
 
-            // wait for our response, or a bad response (in which case we return with nothing)...
-            try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
+    /**
+     * Applies the given asynchronous operation to each of the given keys (ignoring duplicates), with up to {@link #DEFAULT_PIPELINE_DEPTH}
+     * operations in flight at once, returning a future that will be completed with a map of the keys to the results of their operations, in the
+     * keys' order.  Each operation is started as soon as an earlier one finishes.  If any operation fails, the future fails (and no more are
+     * started).
+     *
+     * @param _keys the keys to apply the operation to
+     * @param _operation the asynchronous operation to apply to each key
+     * @param <K> the type of the keys
+     * @param <V> the type of the operation's results
+     * @return the future map of keys to results
+     */
+    private <K,V> CompletableFuture<Map<K,V>> pipeline( final Collection<K> _keys, final Function<K,CompletableFuture<V>> _operation ) {
+
+        // get rid of any duplicates, keeping the caller's order...
+        Map<K,V> results = new LinkedHashMap<>();
+        for( K key : _keys )
+            results.put( key, null );
+        CompletableFuture<Map<K,V>> result = new CompletableFuture<>();
+        if( results.isEmpty() ) {
+            result.complete( results );
+            return result;
+        }
 
-            // if we got no response, just leave with nothing...
-            if( trans.response == null ) return null;
+        // start up to our pipeline depth of operations; each one starts the next when it finishes...
+        Iterator<K> it = new ArrayList<>( results.keySet() ).iterator();
+        AtomicInteger remaining = new AtomicInteger( results.size() );
+        for( int i = 0; i < Math.min( DEFAULT_PIPELINE_DEPTH, results.size() ); i++ )
+            pipelineNext( it, _operation, results, remaining, result );
+        return result;
+    }
 
-            // otherwise, hopefully we got a chunk of data...
-            FileReceiveRspMsg rspMsg = (FileReceiveRspMsg) trans.response;
 
-            // if we got an error, just leave with nothing...
-            if( (rspMsg.responseCode != ResponseCode.OK) || (rspMsg.fileData == null) )
-                return null;
+    /**
+     * Starts the operation on the next key from the given iterator (if there is one), puts its result into the given map of results, then either
+     * starts the next one or (if all the operations have finished) completes the given future with the map of results.
+     *
+     * @param _it the iterator over the keys still to be operated on
+     * @param _operation the asynchronous operation to apply to each key
+     * @param _results the results so far
+     * @param _remaining the number of operations not yet finished
+     * @param _result the future to complete with the results
+     * @param <K> the type of the keys
+     * @param <V> the type of the operation's results
+     */
+    private <K,V> void pipelineNext( final Iterator<K> _it, final Function<K,CompletableFuture<V>> _operation, final Map<K,V> _results,
+                                     final AtomicInteger _remaining, final CompletableFuture<Map<K,V>> _result ) {
+
+        // get the next key, if there is one...
+        K key;
+        synchronized( _it ) {
+            if( _result.isDone() || !_it.hasNext() )
+                return;
+            key = _it.next();
+        }
 
-            // if we don't have enough room in our buffer, enlarge it...
-            if( result.remaining() < rspMsg.fileData.limit() ) {
-                ByteBuffer bb = ByteBuffer.allocate( result.capacity() + 1000 );
-                result.flip();
-                bb.put( result );
-                result = bb;
+        // start its operation, then start the next one...
+        CompletableFuture<V> operation;
+        try {
+            operation = _operation.apply( key );
+        }
+        catch( RuntimeException _e ) {
+            fail( _result, _e );
+            return;
+        }
+        operation.whenComplete( (value, e) -> {
+            if( e != null ) {
+                fail( _result, e );
+                return;
             }
-
-            // concatenate the data we just received...
-            offset += rspMsg.fileData.limit();
-            result.put( rspMsg.fileData );
-            if( rspMsg.fileData.limit() < swath ) {
-                done = true;
+            synchronized( _results ) {
+                _results.put( key, value );
             }
-        }
-        result.flip();
-        return result;
+            if( _remaining.decrementAndGet() == 0 )
+                _result.complete( _results );
+            else
+                pipelineNext( _it, _operation, _results, _remaining, _result );
+        } );
     }
 
 
     /**
-     * Reads the table definitions from the datalogger, caches them, and returns them.
+     * Sends a get values request for the given value request, returning a future that will be completed with the bytes of the value(s) read.
      *
-     * @return the table definitions from this datalogger
+     * @param _request the value(s) to get
+     * @return the future read-only bytes of the value(s) requested
+     */
+    private CompletableFuture<ByteBuffer> requestValues( final ValueRequest _request ) {
+
+        // send our request, and decode the response...
+        GetValuesReqMsg msg;
+        try {
+            msg = newRequest( requestContext ->
+                    new GetValuesReqMsg( 0, _request.tableName, _request.fieldName, _request.fieldType, _request.swath, requestContext ) );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+        return request( msg, GetValuesRspMsg.class ).thenApply( rspMsg -> {
+
+            // if we got a bad response code, we've failed...
+            checkResponseCode( msg, rspMsg.responseCode );
+
+            // all is well, so return the value's bytes (read-only, as they may be shared)...
+            return rspMsg.bytes.slice().asReadOnlyBuffer();
+        } );
+    }
+
+
+    /**
+     * Returns a new datum holding the value(s) in the given bytes, as read for the given value request.
+     *
+     * @param _request the value request the bytes were read for
+     * @param _bytes the bytes read (which are not changed)
+     * @return the datum holding the value(s)
+     */
+    private static Datum toValue( final ValueRequest _request, final ByteBuffer _bytes ) {
+
+        // make a datum of the right type...
+        DataType dataType = DataTypes.fromPakBusType( _request.fieldType );
+        Datum result;
+        if( _request.swath > 1 ) {
+            ArrayDataType arrayDataType = new ArrayDataType( "ARRAY", null, dataType );
+            result = new ArrayDatum( arrayDataType );
+        }
+        else {
+            if( dataType instanceof SimpleDataType ) result = new SimpleDatum( dataType );
+            else if( dataType instanceof ArrayDataType ) result = new ArrayDatum( dataType );
+            else result = new CompositeDatum( dataType );
+        }
+
+        // then stuff the value in and leave...
+        result.set( new BitBuffer( _bytes.duplicate() ) );
+        return result;
+    }
+
+
+    /**
+     * Returns all settings in the datalogger as a map of setting names to their values.
+     *
+     * @return a map of setting names to their values
+     */
+    public Map<String,String> getAllSettings() {
+        return getSettings( new ArrayList<>() );
+    }
+
+
+    /**
+     * Returns a future that will be completed with all settings in the datalogger, as a map of setting names to their values.
+     *
+     * @return the future map of setting names to their values
+     */
+    public CompletableFuture<Map<String,String>> getAllSettingsAsync() {
+        return getSettingsAsync( new ArrayList<>() );
+    }
+
+
+    /**
+     * Returns the values of the given setting names as a map of the setting names to their values.
+     *
+     * @param _settingNames the list of setting names to retrieve
+     * @return a map of setting names to their values
+     */
+    public Map<String,String> getSettings( final List<String> _settingNames ) {
+        return await( getSettingsAsync( _settingNames ) );
+    }
+
+
+    /**
+     * Returns a future that will be completed with the values of the given setting names, as a map of the setting names to their values.
+     *
+     * @param _settingNames the list of setting names to retrieve
+     * @return the future map of setting names to their values
+     */
+    public CompletableFuture<Map<String,String>> getSettingsAsync( final List<String> _settingNames ) {
+
+        // sanity check...
+        Checks.required( _settingNames );
+
+        // share any identical request already in flight, giving each caller its own copy of the settings...
+        List<String> names = new ArrayList<>( _settingNames );
+        return settingsFlight.run( names, () -> requestSettings( names ) ).thenApply( HashMap::new );
+    }
+
+
+    /**
+     * Sends a get string settings request for the given setting names (or all settings, if there are none), returning a future that will be
+     * completed with the map of setting names to their values.
+     *
+     * @param _settingNames the list of setting names to retrieve
+     * @return the future map of setting names to their values
+     */
+    private CompletableFuture<Map<String,String>> requestSettings( final List<String> _settingNames ) {
+
+        // form our request string...
+        StringBuilder sb = new StringBuilder();
+        _settingNames.forEach( name -> {
+            if( sb.length() != 0 )
+                sb.append( ';' );
+            sb.append( name );
+        } );
+
+        // send the request, and return the settings from the response...
+        try {
+            Msg msg = newRequest( requestContext -> new GetStringSettingsReqMsg( sb.toString(), requestContext ) );
+            return request( msg, GetStringSettingsRspMsg.class ).thenApply( rspMsg -> rspMsg.settings );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Read the datalogger file with the given name and return its bytes.
+     *
+     * @param _fileName the name of the file to read
+     * @return the bytes of the file read, or null if there was a problem
+     */
+    public ByteBuffer readFile( final String _fileName ) {
+        return await( readFileAsync( _fileName ) );
+    }
+
+
+    /**
+     * Read the datalogger file with the given name, returning a future that will be completed with its bytes.  The file is read with a pipelined
+     * download (see {@link #downloadFileAsync(String, WritableByteChannel, long, int)}) into a buffer that grows as needed.
+     *
+     * @param _fileName the name of the file to read
+     * @return the future bytes of the file read
+     */
+    public CompletableFuture<ByteBuffer> readFileAsync( final String _fileName ) {
+
+        // sanity check...
+        Checks.required( _fileName );
+
+        // download the whole file into memory...
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1000 );
+        return downloadFileAsync( _fileName, Channels.newChannel( bytes ), 0, DEFAULT_PIPELINE_DEPTH )
+                .thenApply( length -> ByteBuffer.wrap( bytes.toByteArray() ) );
+    }
+
+
+    /**
+     * Reads the datalogger file with the given name, starting at the given byte offset, and writes it to the given channel, with up to
+     * {@link #DEFAULT_PIPELINE_DEPTH} requests in flight at once.  The channel is not closed.
+     *
+     * @param _fileName the name of the file to read
+     * @param _sink the channel to write the file's bytes to
+     * @param _offset the byte offset in the file to start reading at
+     * @return the length of the file, or null if there was a problem
+     */
+    public Long downloadFile( final String _fileName, final WritableByteChannel _sink, final long _offset ) {
+        return await( downloadFileAsync( _fileName, _sink, _offset, DEFAULT_PIPELINE_DEPTH ) );
+    }
+
+
+    /**
+     * Reads the datalogger file with the given name, starting at the given byte offset, and writes it to the given channel, returning a future that
+     * will be completed with the length of the file.  The file is requested in swaths as large as will fit into our maximum packet size, with up to
+     * the given number of requests in flight at once; the bytes are written to the channel in order as they arrive, so the whole file is never held
+     * in memory.  If the download fails, the future fails with a {@link FileDownloadException} whose resume offset says how far the file was
+     * written, so that it may be resumed from there.  The channel is not closed.
+     *
+     * @param _fileName the name of the file to read
+     * @param _sink the channel to write the file's bytes to
+     * @param _offset the byte offset in the file to start reading at
+     * @param _depth the most requests to have in flight at once
+     * @return the future length of the file
+     */
+    public CompletableFuture<Long> downloadFileAsync( final String _fileName, final WritableByteChannel _sink, final long _offset,
+                                                      final int _depth ) {
+
+        // sanity check...
+        Checks.required( _fileName, _sink );
+        Checks.inBounds( _offset, 0, 0xFFFFFFFFL, "Invalid file offset: " + _offset );
+        Checks.inBounds( _depth, 1, TRANSACTION_NUMBERS - 1, "Invalid pipeline depth: " + _depth );
+
+        int swath = Math.min( MAX_FILE_SWATH, maxPacketBytes - PACKET_OVERHEAD - FILE_RESPONSE_OVERHEAD );
+        return new FileDownload( this, _fileName, _sink, _offset, swath, _depth ).start();
+    }
+
+
+    /**
+     * Requests the swath of the given file that starts at the given byte offset, returning a future that will be completed with the response.  The
+     * future fails if the datalogger reports an error, or if the response is for some other part of the file.
+     *
+     * @param _fileName the name of the file being read
+     * @param _offset the byte offset of the swath in the file
+     * @param _swath the number of bytes to request
+     * @return the future file receive response
+     */
+    /*package*/ CompletableFuture<FileReceiveRspMsg> requestFileSwath( final String _fileName, final long _offset, final int _swath ) {
+
+        try {
+            Msg msg = newRequest( requestContext -> new FileReceiveReqMsg( 0, _fileName, 0, (int) _offset, _swath, requestContext ) );
+            return request( msg, FileReceiveRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                if( (0xFFFFFFFFL & rspMsg.fileOffset) != _offset )
+                    throw new IllegalStateException( "Expected file data at offset " + _offset + ", got offset " + rspMsg.fileOffset );
+                return rspMsg;
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Sends the bytes read from the given channel to the datalogger as the file with the given name, with up to {@link #DEFAULT_PIPELINE_DEPTH}
+     * chunks in flight at once.  The channel is read to its end, but not closed.
+     *
+     * @param _fileName the name of the file on the datalogger
+     * @param _source the channel to read the file's bytes from
+     * @return the number of bytes sent, or null if there was a problem
+     */
+    public Long sendFile( final String _fileName, final ReadableByteChannel _source ) {
+        return await( sendFileAsync( _fileName, _source, DEFAULT_PIPELINE_DEPTH ) );
+    }
+
+
+    /**
+     * Sends the bytes read from the given channel to the datalogger as the file with the given name, returning a future that will be completed with
+     * the number of bytes sent once the datalogger has acknowledged all of them.  The file is sent in chunks as large as will fit into our maximum
+     * packet size, with up to the given number of chunks in flight at once.  The datalogger accepts chunks only in order, so when one is lost it and
+     * every chunk sent after it are sent again.  The channel is read to its end, but not closed.
+     *
+     * @param _fileName the name of the file on the datalogger
+     * @param _source the channel to read the file's bytes from
+     * @param _depth the most chunks to have in flight at once
+     * @return the future number of bytes sent
+     */
+    public CompletableFuture<Long> sendFileAsync( final String _fileName, final ReadableByteChannel _source, final int _depth ) {
+
+        // sanity check...
+        Checks.required( _fileName, _source );
+        Checks.inBounds( _depth, 1, TRANSACTION_NUMBERS - 1, "Invalid pipeline depth: " + _depth );
+
+        // the chunk size is whatever's left of a packet after the request's header and file name...
+        int chunkBytes = maxPacketBytes - PACKET_OVERHEAD - FILE_SEND_OVERHEAD - (_fileName.length() + 1);
+        Checks.isTrue( chunkBytes > 0, "File name too long: " + _fileName );
+        return new FileUpload( this, _fileName, _source, chunkBytes, _depth ).start();
+    }
+
+
+    /**
+     * Sends the given chunk of the given file, at the given byte offset, returning a future that will be completed with the response.  The future
+     * fails if the datalogger reports an error.
+     *
+     * @param _fileName the name of the file being sent
+     * @param _offset the byte offset of the chunk in the file
+     * @param _bytes the bytes of the chunk
+     * @param _last true if this is the last chunk of the file (so the datalogger should close the file)
+     * @return the future file send response
+     */
+    /*package*/ CompletableFuture<FileSendRspMsg> requestFileSend( final String _fileName, final long _offset, final ByteBuffer _bytes,
+                                                                   final boolean _last ) {
+
+        try {
+            Msg msg = newRequest( requestContext -> new FileSendReqMsg( 0, _fileName, 0, _last ? 1 : 0, (int) _offset, _bytes, requestContext ) );
+            return request( msg, FileSendRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                return rspMsg;
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Reads the table definitions from the datalogger, caches them, and returns them.
+     *
+     * @return the table definitions from this datalogger
      */
     public TableDefinitions readTableDefinitions() {
+        return await( readTableDefinitionsAsync() );
+    }
+
+
+    /**
+     * Reads the table definitions from the datalogger and caches them, returning a future that will be completed with them.  If this datalogger has
+     * a table definition cache, the datalogger's programming statistics are read to see if the cache already has the table definitions for the
+     * program that's running; the table definitions themselves are read only if it doesn't.
+     *
+     * @return the future table definitions from this datalogger
+     */
+    public CompletableFuture<TableDefinitions> readTableDefinitionsAsync() {
+
+        // if we're already reading them, share that read...
+        return tableDefinitionsFlight.run( "TDF", this::requestTableDefinitions );
+    }
+
+
+    /**
+     * Reads the table definitions (from our cache, if we have one, or from the datalogger) and caches them, returning a future that will be
+     * completed with them.
+     *
+     * @return the future table definitions from this datalogger
+     */
+    private CompletableFuture<TableDefinitions> requestTableDefinitions() {
+
+        // if we have a cache, let it decide whether to read them...
+        TableDefinitionCache cache = tableDefinitionCache;
+        if( cache != null )
+            return cache.getAsync( this ).thenApply( tds -> {
+                tableDefinitions = tds;
+                return tds;
+            } );
+
+        // otherwise we read the file, then we interpret it...
+        return readFileAsync( ".TDF" ).thenApply( tdfBytes -> {
+            tableDefinitions = new TableDefinitions( tdfBytes );
+            return tableDefinitions;
+        } );
+    }
+
+
+    /**
+     * Sets the persistent cache this datalogger gets its table definitions from, or null for none.  This forgets any table definitions already read,
+     * so the next time they're needed they'll come from the cache.
+     *
+     * @param _cache the table definition cache, or null for none
+     */
+    public void setTableDefinitionCache( final TableDefinitionCache _cache ) {
+        tableDefinitionCache = _cache;
+        tableDefinitions = null;
+    }
+
+
+    /**
+     * Returns the cache of the most recent record from the table with the given name, creating it if this is the first time it's been asked for.
+     * All readers of the same table share one cache, and therefore share its polls of the datalogger.
+     *
+     * @param _tableName the name of the table
+     * @return the cache of the most recent record from the table
+     */
+    public LatestRecordCache getLatestRecordCache( final String _tableName ) {
+        Checks.required( _tableName );
+        return latestRecordCaches.computeIfAbsent( _tableName, tableName -> new LatestRecordCache( this, tableName ) );
+    }
+
+
+    /**
+     * Subscribes the given listener to changes in the values of the given fields in the given table.  The listener is called once with the first
+     * values read, then whenever any of the fields change - numeric fields only when they've changed by more than the given deadband.  All the
+     * subscriptions to a table share one poller, which polls just the fields subscribed to, as often as the link comfortably allows.  Cancel the
+     * returned subscription to stop it.  A subscription to a field that isn't in the table is logged and cancelled when the table is next polled,
+     * without disturbing the other subscriptions to the table.
+     *
+     * @param _tableName the name of the table
+     * @param _fieldNames the names of the fields to watch
+     * @param _deadband how much a numeric value must change by before the listener is told
+     * @param _listener the listener to tell about changes
+     * @return the subscription
+     */
+    public ValueSubscription subscribe( final String _tableName, final Collection<String> _fieldNames, final double _deadband,
+                                        final ValueChangeListener _listener ) {
+
+        // sanity checks...
+        Checks.required( _tableName, _fieldNames, _listener );
+        Checks.isTrue( !_fieldNames.isEmpty(), "No fields to subscribe to" );
+        Checks.isTrue( _deadband >= 0, "Invalid deadband: " + _deadband );
+
+        TablePoller poller = tablePollers.computeIfAbsent( _tableName, tableName -> new TablePoller( this, tableName ) );
+        ValueSubscription subscription = new ValueSubscription( poller, _fieldNames, _deadband, _listener );
+        poller.add( subscription );
+        return subscription;
+    }
+
+
+    /**
+     * Returns the programming statistics from this datalogger: its model, serial number, operating system version, and the name, signature, and
+     * compile results of the program it's running.  Returns null if the request failed.
+     *
+     * @return the programming statistics from this datalogger
+     */
+    public ProgrammingStatistics getProgrammingStatistics() {
+        return await( getProgrammingStatisticsAsync() );
+    }
+
+
+    /**
+     * Returns a future that will be completed with the programming statistics from this datalogger.
+     *
+     * @return the future programming statistics from this datalogger
+     */
+    public CompletableFuture<ProgrammingStatistics> getProgrammingStatisticsAsync() {
+        try {
+            Msg msg = newRequest( requestContext -> new GetProgrammingStatisticsReqMsg( 0, requestContext ) );
+            return request( msg, GetProgrammingStatisticsRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                return rspMsg.programmingStatistics;
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Returns the table definitions from this datalogger, reading them from the datalogger if necessary.
+     *
+     * @return the table definitions from this datalogger
+     */
+    public TableDefinitions getTableDefinitions() {
+        return await( getTableDefinitionsAsync() );
+    }
+
+
+    /**
+     * Returns a future that will be completed with the table definitions from this datalogger, reading them from the datalogger if necessary.
+     *
+     * @return the future table definitions from this datalogger
+     */
+    public CompletableFuture<TableDefinitions> getTableDefinitionsAsync() {
+        TableDefinitions tds = tableDefinitions;
+        return (tds == null) ? readTableDefinitionsAsync() : CompletableFuture.completedFuture( tds );
+    }
+
+
+    /**
+     * Collects all available records from the table and fields specified in the given data query.  The collected records are returned in a list of
+     * {@link Datum} instances, in the order that they were collected in.  Each of the collected records has two properties in addition to all the
+     * requested fields.  The first is named "Timestamp", and it is the timestamp from the datalogger indicating when the record was collected.  The
+     * second is named "RecordNumber", and it is a four byte unsigned integer with the datalogger's record number for the record.  Note that a single
+     * call to this method may result in multiple request/response transactions with the datalogger, as the cumulative size of the requested records
+     * may exceed what the datalogger can return in a single message.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @return the list of collected records
+     */
+    public List<Datum> collectAll( final DataQuery _query ) {
+        return await( collectAllAsync( _query ) );
+    }
+
+
+    /**
+     * Collects all available records, as {@link #collectAll(DataQuery)} does, returning a future that will be completed with the list of collected
+     * records.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @return the future list of collected records
+     */
+    public CompletableFuture<List<Datum>> collectAllAsync( final DataQuery _query ) {
+        Checks.required( _query );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getAll( _query, 0, requestContext ) );
+            return collectRecords( _query, msg );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Collects records starting with the given record number and ending with the most recent record, from the table and fields specified in the given
+     * data query.  The collected records are returned in a list of {@link Datum} instances, in the order that they were collected in.  Each of the
+     * collected records has two properties in addition to all the requested fields.  The first is named "Timestamp", and it is the timestamp from the
+     * datalogger indicating when the record was collected.  The second is named "RecordNumber", and it is a four byte unsigned integer with the
+     * datalogger's record number for the record. Note that a single call to this method may result in multiple request/response transactions with the
+     * datalogger, as the cumulative size of the requested records may exceed what the datalogger can return in a single message.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _recordNumber the first record number to collect
+     * @return the list of collected records
+     */
+    public List<Datum> collectFromRecordNumber( final DataQuery _query, final int _recordNumber ) {
+        return await( collectFromRecordNumberAsync( _query, _recordNumber ) );
+    }
+
+
+    /**
+     * Collects records starting with the given record number, as {@link #collectFromRecordNumber(DataQuery, int)} does, returning a future that will
+     * be completed with the list of collected records.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _recordNumber the first record number to collect
+     * @return the future list of collected records
+     */
+    public CompletableFuture<List<Datum>> collectFromRecordNumberAsync( final DataQuery _query, final int _recordNumber ) {
+        Checks.required( _query );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getFromRecordNumber( _query, 0, _recordNumber, requestContext ) );
+            return collectRecords( _query, msg );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Collects records starting with the given starting record number and ending with the last record number before the given ending record, from the
+     * table and fields specified in the given data query.  The collected records are returned in a list of {@link Datum} instances, in the order that
+     * they were collected in.  Each of the collected records has two properties in addition to all the requested fields.  The first is named
+     * "Timestamp", and it is the timestamp from the datalogger indicating when the record was collected.  The second is named "RecordNumber", and it
+     * is a four byte unsigned integer with the datalogger's record number for the record. Note that a single call to this method may result in
+     * multiple request/response transactions with the datalogger, as the cumulative size of the requested records may exceed what the datalogger can
+     * return in a single message.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @return the list of collected records
+     */
+    public List<Datum> collectRangeOfRecordNumbers( final DataQuery _query, final int _startRecord, final int _endRecord ) {
+        return await( collectRangeOfRecordNumbersAsync( _query, _startRecord, _endRecord ) );
+    }
+
+
+    /**
+     * Collects a range of records by record number, as {@link #collectRangeOfRecordNumbers(DataQuery, int, int)} does, returning a future that will
+     * be completed with the list of collected records.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @return the future list of collected records
+     */
+    public CompletableFuture<List<Datum>> collectRangeOfRecordNumbersAsync( final DataQuery _query, final int _startRecord, final int _endRecord ) {
+        Checks.required( _query );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, _startRecord, _endRecord, requestContext ) );
+            return collectRecords( _query, msg );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Collects records starting with the given starting timestamp and ending with the last timestamp before the given ending record, from the table
+     * and fields specified in the given data query.  The collected records are returned in a list of {@link Datum} instances, in the order that they
+     * were collected in.  Each of the collected records has two properties in addition to all the requested fields.  The first is named "Timestamp",
+     * and it is the timestamp from the datalogger indicating when the record was collected.  The second is named "RecordNumber", and it is a four
+     * byte unsigned integer with the datalogger's record number for the record. Note that a single call to this method may result in multiple
+     * request/response transactions with the datalogger, as the cumulative size of the requested records may exceed what the datalogger can return in
+     * a single message.  Note: this collection mode is not implemented on the model CR200 dataloggers.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first timestamp to collect
+     * @param _endRecord the first timestamp to <i>not</i> collect
+     * @return the list of collected records
+     */
+    public List<Datum> collectRangeOfTimestamps( final DataQuery _query, final NSec _startRecord, final NSec _endRecord ) {
+        return await( collectRangeOfTimestampsAsync( _query, _startRecord, _endRecord ) );
+    }
+
+
+    /**
+     * Collects a range of records by timestamp, as {@link #collectRangeOfTimestamps(DataQuery, NSec, NSec)} does, returning a future that will be
+     * completed with the list of collected records.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first timestamp to collect
+     * @param _endRecord the first timestamp to <i>not</i> collect
+     * @return the future list of collected records
+     */
+    public CompletableFuture<List<Datum>> collectRangeOfTimestampsAsync( final DataQuery _query, final NSec _startRecord, final NSec _endRecord ) {
+        Checks.required( _query );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRangeOfTimestamps( _query, 0, _startRecord, _endRecord, requestContext ) );
+            return collectRecords( _query, msg );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Collects the given number of the most recent records from the table and fields specified in the given data query.  The collected records are
+     * returned in a list of {@link Datum} instances, in the order that they were collected in.  Each of the collected records has two properties in
+     * addition to all the requested fields.  The first is named "Timestamp", and it is the timestamp from the datalogger indicating when the record
+     * was collected.  The second is named "RecordNumber", and it is a four byte unsigned integer with the datalogger's record number for the record.
+     * Note that a single call to this method may result in multiple request/response transactions with the datalogger, as the cumulative size of the
+     * requested records may exceed what the datalogger can return in a single message.  Identical collections made at the same time share one set
+     * of transactions, so while the list returned is the caller's own, the records in it may be shared with other callers, and must not be modified.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _records the number of the most recent records to collect
+     * @return the list of collected records
+     */
+    public List<Datum> collectMostRecent( final DataQuery _query, final int _records ) {
+        return await( collectMostRecentAsync( _query, _records ) );
+    }
+
+
+    /**
+     * Collects the given number of the most recent records, as {@link #collectMostRecent(DataQuery, int)} does, returning a future that will be
+     * completed with the list of collected records.  The list is the caller's own, but the records in it may be shared with other callers making
+     * the same collection at the same time, and must not be modified.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _records the number of the most recent records to collect
+     * @return the future list of collected records
+     */
+    public CompletableFuture<List<Datum>> collectMostRecentAsync( final DataQuery _query, final int _records ) {
+        Checks.required( _query );
+
+        // share any identical collection already in flight, giving each caller its own list (of the same, shared, records)...
+        List<Object> key = Arrays.asList( _query.tableIndex, _query.signature, getFieldNumbers( _query ), _records );
+        return collectionFlight.run( key, () -> {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getMostRecent( _query, 0, _records, requestContext ) );
+            return collectRecords( _query, msg );
+        } ).thenApply( ArrayList::new );
+    }
+
+
+    /**
+     * Returns an unmodifiable copy of the field numbers in the given query, so that a key built from them can't change while it's in use (as the
+     * query itself could, until it's finished).
+     *
+     * @param _query the query to get the field numbers from
+     * @return the query's field numbers
+     */
+    private static List<Integer> getFieldNumbers( final DataQuery _query ) {
+        List<Integer> fields = new ArrayList<>( _query.fieldsSize() );
+        DataQuery.FieldIterator iterator = _query.iterator();
+        while( iterator.hasNext() )
+            fields.add( (Integer) iterator.next() );
+        return Collections.unmodifiableList( fields );
+    }
+
+
+    /**
+     * Streams all available records from the table and fields specified in the given data query to the given sink, as they're collected.  Each block
+     * of records is accepted by the sink (running on the given executor) before the next is requested.  Returns a future that will be completed with
+     * the number of records delivered; if it fails, the records already delivered to the sink are still good.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on
+     * @return the future number of records delivered
+     */
+    public CompletableFuture<Long> streamAll( final DataQuery _query, final RecordSink _sink, final Executor _executor ) {
+        Checks.required( _query, _sink, _executor );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getAll( _query, 0, requestContext ) );
+            return streamRecords( _query, msg, _sink, _executor );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Streams records starting with the given record number and ending with the most recent record to the given sink, as
+     * {@link #streamAll(DataQuery, RecordSink, Executor)} does.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _recordNumber the first record number to collect
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on
+     * @return the future number of records delivered
+     */
+    public CompletableFuture<Long> streamFromRecordNumber( final DataQuery _query, final int _recordNumber, final RecordSink _sink,
+                                                           final Executor _executor ) {
+        Checks.required( _query, _sink, _executor );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getFromRecordNumber( _query, 0, _recordNumber, requestContext ) );
+            return streamRecords( _query, msg, _sink, _executor );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Streams a range of records by record number to the given sink, as {@link #streamAll(DataQuery, RecordSink, Executor)} does.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on
+     * @return the future number of records delivered
+     */
+    public CompletableFuture<Long> streamRangeOfRecordNumbers( final DataQuery _query, final int _startRecord, final int _endRecord,
+                                                               final RecordSink _sink, final Executor _executor ) {
+        Checks.required( _query, _sink, _executor );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, _startRecord, _endRecord, requestContext ) );
+            return streamRecords( _query, msg, _sink, _executor );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Streams a range of records by timestamp to the given sink, as {@link #streamAll(DataQuery, RecordSink, Executor)} does.  Note: this collection
+     * mode is not implemented on the model CR200 dataloggers.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first timestamp to collect
+     * @param _endRecord the first timestamp to <i>not</i> collect
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on
+     * @return the future number of records delivered
+     */
+    public CompletableFuture<Long> streamRangeOfTimestamps( final DataQuery _query, final NSec _startRecord, final NSec _endRecord,
+                                                            final RecordSink _sink, final Executor _executor ) {
+        Checks.required( _query, _sink, _executor );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRangeOfTimestamps( _query, 0, _startRecord, _endRecord, requestContext ) );
+            return streamRecords( _query, msg, _sink, _executor );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Streams the given number of the most recent records to the given sink, as {@link #streamAll(DataQuery, RecordSink, Executor)} does.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _records the number of the most recent records to collect
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on
+     * @return the future number of records delivered
+     */
+    public CompletableFuture<Long> streamMostRecent( final DataQuery _query, final int _records, final RecordSink _sink, final Executor _executor ) {
+        Checks.required( _query, _sink, _executor );
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext -> CollectDataReqMsg.getMostRecent( _query, 0, _records, requestContext ) );
+            return streamRecords( _query, msg, _sink, _executor );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Fills the gaps in the given segment's records between the given starting record number (inclusive) and ending record number (exclusive).  The
+     * segment's index tells which ranges of record numbers are missing, and only those ranges are collected (one after another) and streamed into
+     * the segment, as {@link #streamRangeOfRecordNumbers(DataQuery, int, int, RecordSink, Executor)} does.  The given query must collect all the
+     * fields of the segment's table.  Returns a future that will be completed with the number of records stored.
+     *
+     * @param _query the query specifying the table to collect data from
+     * @param _segment the segment to fill the gaps in
+     * @param _startRecord the first record number to check
+     * @param _endRecord the first record number to <i>not</i> check
+     * @param _executor the executor to store the records on
+     * @return the future number of records stored
+     */
+    public CompletableFuture<Long> fillGaps( final DataQuery _query, final RecordSegment _segment, final int _startRecord, final int _endRecord,
+                                             final Executor _executor ) {
+        Checks.required( _query, _segment, _executor );
+        Checks.isTrue( _query.fieldsSize() == 0, "Gap filling must collect all fields" );
+        List<RecordRange> missing = _segment.index.missingRecordNumbers(
+                new RecordRange( Integer.toUnsignedLong( _startRecord ), Integer.toUnsignedLong( _endRecord ) ) );
+        return fillRanges( missing, range ->
+                streamRangeOfRecordNumbers( _query, (int) range.start, (int) range.end, _segment, _executor ) );
+    }
+
+
+    /**
+     * Fills the gaps in the given segment's records between the given starting timestamp (inclusive) and ending timestamp (exclusive), as
+     * {@link #fillGaps(DataQuery, RecordSegment, int, int, Executor)} does - except that the missing ranges are found from the records' timestamps
+     * and the table's record interval, and collected by timestamp.  The table must have a regular record interval.  Note: this collection mode is
+     * not implemented on the model CR200 dataloggers.
+     *
+     * @param _query the query specifying the table to collect data from
+     * @param _segment the segment to fill the gaps in
+     * @param _start the first timestamp to check
+     * @param _end the first timestamp to <i>not</i> check
+     * @param _executor the executor to store the records on
+     * @return the future number of records stored
+     */
+    public CompletableFuture<Long> fillTimestampGaps( final DataQuery _query, final RecordSegment _segment, final NSec _start, final NSec _end,
+                                                      final Executor _executor ) {
+        Checks.required( _query, _segment, _start, _end, _executor );
+        Checks.isTrue( _query.fieldsSize() == 0, "Gap filling must collect all fields" );
+        return getTableDefinitionsAsync().thenCompose( tds -> {
+            long interval = RecordSegment.toNanos( tds.getTableDef( _query.tableIndex ).interval );
+            List<RecordRange> missing = _segment.index.missingTimestamps(
+                    new RecordRange( RecordSegment.toNanos( _start ), RecordSegment.toNanos( _end ) ), interval );
+            return fillRanges( missing, range -> streamRangeOfTimestamps( _query, RecordSegment.toNSec( range.start ),
+                    RecordSegment.toNSec( range.end ), _segment, _executor ) );
+        } );
+    }
 
-        // first we read the file...
-        ByteBuffer tdfBytes = readFile( ".TDF" );
-        if( tdfBytes == null )
-            return null;
 
-        // then we interpret them...
-        tableDefinitions = new TableDefinitions( tdfBytes );
-        return tableDefinitions;
+    /**
+     * Runs the given stream for each of the given ranges, one after another, returning a future that will be completed with the total number of
+     * records streamed, or exceptionally with the first failure.
+     *
+     * @param _ranges the ranges to stream
+     * @param _stream the function that streams a range
+     * @return the future total number of records streamed
+     */
+    private CompletableFuture<Long> fillRanges( final List<RecordRange> _ranges, final Function<RecordRange,CompletableFuture<Long>> _stream ) {
+        CompletableFuture<Long> total = CompletableFuture.completedFuture( 0L );
+        for( RecordRange range : _ranges )
+            total = total.thenCompose( sum -> _stream.apply( range ).thenApply( count -> sum + count ) );
+        return total;
     }
 
 
     /**
-     * Returns the table definitions from this datalogger, reading them from the datalogger if necessary.
+     * Collects records starting with the given starting record number and ending with the last record number before the given ending record, from the
+     * table and fields specified in the given data query, with up to {@link #DEFAULT_PIPELINE_DEPTH} requests in flight at once.  The collected
+     * records are returned in a list of {@link Datum} instances, in record number order, with the same properties as those returned by
+     * {@link #collectRangeOfRecordNumbers(DataQuery, int, int)}.  On a link with a long round trip this is much faster than that method, which sends
+     * each request only after the previous one has been answered.
      *
-     * @return the table definitions from this datalogger
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @return the list of collected records, or null if there was a problem
      */
-    public TableDefinitions getTableDefinitions() {
-        return (tableDefinitions == null) ? readTableDefinitions() : tableDefinitions;
+    public List<Datum> collectPipelined( final DataQuery _query, final int _startRecord, final int _endRecord ) {
+        return await( collectPipelinedAsync( _query, _startRecord, _endRecord, DEFAULT_PIPELINE_DEPTH ) );
     }
 
 
     /**
-     * Collects all available records from the table and fields specified in the given data query.  The collected records are returned in a list of
-     * {@link Datum} instances, in the order that they were collected in.  Each of the collected records has two properties in addition to all the
-     * requested fields.  The first is named "Timestamp", and it is the timestamp from the datalogger indicating when the record was collected.  The
-     * second is named "RecordNumber", and it is a four byte unsigned integer with the datalogger's record number for the record.  Note that a single
-     * call to this method may result in multiple request/response transactions with the datalogger, as the cumulative size of the requested records
-     * may exceed what the datalogger can return in a single message.
+     * Collects a range of records by record number with up to the given number of requests in flight at once, returning a future that will be
+     * completed with the list of collected records, in record number order.  The range is split into windows sized so that each window's records
+     * fit into a single response, given the size of the table's records and this datalogger's maximum packet size.  Windows whose responses are lost
+     * are requested again, and records missing from the datalogger simply leave gaps in the result.
      *
      * @param _query the query specifying the table and fields to collect data from
-     * @return the list of collected records
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @param _depth the most requests to have in flight at once
+     * @return the future list of collected records
      */
-    public List<Datum> collectAll( final DataQuery _query ) {
-        CollectDataReqMsg msg = CollectDataReqMsg.getAll( _query, 0, new RequestContext() );
-        return collectRecords( _query, msg );
+    public CompletableFuture<List<Datum>> collectPipelinedAsync( final DataQuery _query, final int _startRecord, final int _endRecord,
+                                                                 final int _depth ) {
+
+        // sanity checks...
+        Checks.required( _query );
+        Checks.inBounds( _depth, 1, TRANSACTION_NUMBERS / 2, "Invalid pipeline depth: " + _depth );
+
+        // get our record types (which may mean reading the table definitions), then start collecting...
+        return getTableDefinitionsAsync().thenCompose( tds -> {
+            CompositeDataType[] recType = getRecordDataType( _query, tds );
+            return new PipelinedCollection( this, _query, recType, _startRecord, _endRecord, getWindowRecords( recType ), _depth ).start();
+        } );
     }
 
 
     /**
-     * Collects records starting with the given record number and ending with the most recent record, from the table and fields specified in the given
-     * data query.  The collected records are returned in a list of {@link Datum} instances, in the order that they were collected in.  Each of the
-     * collected records has two properties in addition to all the requested fields.  The first is named "Timestamp", and it is the timestamp from the
-     * datalogger indicating when the record was collected.  The second is named "RecordNumber", and it is a four byte unsigned integer with the
-     * datalogger's record number for the record. Note that a single call to this method may result in multiple request/response transactions with the
-     * datalogger, as the cumulative size of the requested records may exceed what the datalogger can return in a single message.
+     * Returns the number of records of the given type that will fit into a single collection response.  If the records are variable length, that
+     * can't be known - so we return one, and rely on the datalogger telling us if it couldn't fit a record into a response.
      *
-     * @param _query the query specifying the table and fields to collect data from
-     * @param _recordNumber the first record number to collect
-     * @return the list of collected records
+     * @param _recType the deserialization and presentation data types for the records
+     * @return the number of records that will fit into a single collection response
      */
-    public List<Datum> collectFromRecordNumber( final DataQuery _query, final int _recordNumber ) {
-        CollectDataReqMsg msg = CollectDataReqMsg.getFromRecordNumber( _query, 0, _recordNumber, new RequestContext() );
-        return collectRecords( _query, msg );
+    private int getWindowRecords( final CompositeDataType[] _recType ) {
+        int recordBytes = _recType[0].bits() >>> 3;
+        if( recordBytes == 0 )
+            return 1;
+        return Math.max( 1, (maxPacketBytes - PACKET_OVERHEAD - COLLECT_RESPONSE_OVERHEAD) / recordBytes );
     }
 
 
     /**
-     * Collects records starting with the given starting record number and ending with the last record number before the given ending record, from the
-     * table and fields specified in the given data query.  The collected records are returned in a list of {@link Datum} instances, in the order that
-     * they were collected in.  Each of the collected records has two properties in addition to all the requested fields.  The first is named
-     * "Timestamp", and it is the timestamp from the datalogger indicating when the record was collected.  The second is named "RecordNumber", and it
-     * is a four byte unsigned integer with the datalogger's record number for the record. Note that a single call to this method may result in
-     * multiple request/response transactions with the datalogger, as the cumulative size of the requested records may exceed what the datalogger can
-     * return in a single message.
+     * Requests the given range of records, returning a future that will be completed with the (successful) response.  Used by pipelined collection.
      *
      * @param _query the query specifying the table and fields to collect data from
      * @param _startRecord the first record number to collect
      * @param _endRecord the first record number to <i>not</i> collect
-     * @return the list of collected records
+     * @return the future collection response
      */
-    public List<Datum> collectRangeOfRecordNumbers( final DataQuery _query, final int _startRecord, final int _endRecord ) {
-        CollectDataReqMsg msg = CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, _startRecord, _endRecord, new RequestContext() );
-        return collectRecords( _query, msg );
+    /*package*/ CompletableFuture<CollectDataRspMsg> requestRecordRange( final DataQuery _query, final int _startRecord, final int _endRecord ) {
+
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, _startRecord, _endRecord, requestContext ) );
+            return request( msg, CollectDataRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                return rspMsg;
+            } );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
     }
 
 
     /**
-     * Collects records starting with the given starting timestamp and ending with the last timestamp before the given ending record, from the table
-     * and fields specified in the given data query.  The collected records are returned in a list of {@link Datum} instances, in the order that they
-     * were collected in.  Each of the collected records has two properties in addition to all the requested fields.  The first is named "Timestamp",
-     * and it is the timestamp from the datalogger indicating when the record was collected.  The second is named "RecordNumber", and it is a four
-     * byte unsigned integer with the datalogger's record number for the record. Note that a single call to this method may result in multiple
-     * request/response transactions with the datalogger, as the cumulative size of the requested records may exceed what the datalogger can return in
-     * a single message.  Note: this collection mode is not implemented on the model CR200 dataloggers.
+     * Returns the datalogger's record number of the given collected record.
      *
-     * @param _query the query specifying the table and fields to collect data from
-     * @param _startRecord the first timestamp to collect
-     * @param _endRecord the first timestamp to <i>not</i> collect
-     * @return the list of collected records
+     * @param _record the collected record
+     * @return the record number of the given record
      */
-    public List<Datum> collectRangeOfTimestamps( final DataQuery _query, final NSec _startRecord, final NSec _endRecord ) {
-        CollectDataReqMsg msg = CollectDataReqMsg.getRangeOfTimestamps( _query, 0, _startRecord, _endRecord, new RequestContext() );
-        return collectRecords( _query, msg );
+    /*package*/ static int getRecordNumber( final Datum _record ) {
+        return _record.at( FIELD_RECORD_NUMBER ).getAsInt();
     }
 
 
     /**
-     * Collects the given number of the most recent records from the table and fields specified in the given data query.  The collected records are
-     * returned in a list of {@link Datum} instances, in the order that they were collected in.  Each of the collected records has two properties in
-     * addition to all the requested fields.  The first is named "Timestamp", and it is the timestamp from the datalogger indicating when the record
-     * was collected.  The second is named "RecordNumber", and it is a four byte unsigned integer with the datalogger's record number for the record.
-     * Note that a single call to this method may result in multiple request/response transactions with the datalogger, as the cumulative size of the
-     * requested records may exceed what the datalogger can return in a single message.
+     * Collects the data returned in response to the given query and message, returning a future that will be completed with the list of collected
+     * records.
      *
      * @param _query the query specifying the table and fields to collect data from
-     * @param _records the number of the most recent records to collect
-     * @return the list of collected records
+     * @param _reqMsg the request message to initiate collection with
+     * @return the future list of collected records
      */
-    public List<Datum> collectMostRecent( final DataQuery _query, final int _records ) {
-        CollectDataReqMsg msg = CollectDataReqMsg.getMostRecent( _query, 0, _records, new RequestContext() );
-        return collectRecords( _query, msg );
+    private CompletableFuture<List<Datum>> collectRecords( final DataQuery _query, final CollectDataReqMsg _reqMsg ) {
+        List<Datum> records = new ArrayList<>();
+        return streamRecords( _query, _reqMsg, records::addAll, null ).thenApply( count -> records );
     }
 
 
     /**
-     * Collects the data returned in response to the given query and message.
+     * Collects the data returned in response to the given query and message, delivering each block of records to the given sink (on the given
+     * executor, or on the thread that completed the response if the executor is null) and returning a future that will be completed with the
+     * number of records delivered.
      *
      * @param _query the query specifying the table and fields to collect data from
      * @param _reqMsg the request message to initiate collection with
-     * @return the list of collected records
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on, or null to run it on the thread that completed the response
+     * @return the future number of records delivered
      */
-    private List<Datum> collectRecords( final DataQuery _query, final CollectDataReqMsg _reqMsg ) {
+    private CompletableFuture<Long> streamRecords( final DataQuery _query, final CollectDataReqMsg _reqMsg, final RecordSink _sink,
+                                                   final Executor _executor ) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        collectNext( _query, _reqMsg, null, _sink, _executor, new CollectionProgress(), result );
+        return result;
+    }
 
-        // sanity check...
-        Checks.required( _query );
 
-        // our per-record data type...
-        CompositeDataType[] recType = null;
+    /**
+     * Sends the given collection request, decodes the records in its response and delivers them to the given sink, then either sends a request for
+     * the records that didn't fit in the response or (if there are no more) completes the given future with the number of records delivered.  The
+     * next request isn't sent until the sink has accepted the records from this one.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _reqMsg the collection request message to send
+     * @param _recType the deserialization and presentation data types for the records, or null if they haven't been computed yet
+     * @param _sink the sink to deliver the collected records to
+     * @param _executor the executor to run the sink on, or null to run it on the thread that completed the response
+     * @param _progress the progress of the collection so far
+     * @param _result the future to complete with the number of records delivered
+     */
+    private void collectNext( final DataQuery _query, final CollectDataReqMsg _reqMsg, final CompositeDataType[] _recType, final RecordSink _sink,
+                              final Executor _executor, final CollectionProgress _progress, final CompletableFuture<Long> _result ) {
+
+        request( _reqMsg, CollectDataRspMsg.class ).thenCompose( rspMsg -> {
 
-        // some setup...
-        List<Datum> result = new ArrayList<>();
-        boolean done = false;
-        Msg msg = _reqMsg;
-        Transaction trans = null;
-        CollectDataRspMsg rspMsg = null;
+            // if we got an error from the datalogger, we've failed...
+            checkResponseCode( _reqMsg, rspMsg.responseCode );
 
-        // loop until we get all the records...
-        while( !done ) {
+            // if we haven't already computed our record's type, do so now (which may mean reading the table definitions)...
+            CompletableFuture<CompositeDataType[]> recType = (_recType != null)
+                    ? CompletableFuture.completedFuture( _recType )
+                    : getTableDefinitionsAsync().thenApply( tds -> getRecordDataType( _query, tds ) );
 
-            // send our request...
-            long start = System.currentTimeMillis();
-            trans = sendRequest( msg, CollectDataRspMsg.class, 2000 );
+            return recType.thenCompose( type -> decodeBlock( _query, rspMsg, type ).thenCompose( block -> {
 
-            // wait for our response, or a bad response (in which case we return with nothing)...
-            try { trans.waiter.acquire(); } catch( InterruptedException _e ) { return null; }
+                // make sure we can tell where to continue from...
+                if( rspMsg.moreRecords && block.isEmpty() )
+                    throw new IllegalStateException( "Collection response had no complete records, but claimed to have more" );
 
-            // if we got no response, just leave with nothing...
-            if( trans.response == null ) return null;
-            long time = System.currentTimeMillis() - start;
-            LOGGER.fine( "Collect data request: " + time + " milliseconds round trip" );
+                // deliver them to our sink...
+                CompletableFuture<Void> delivered;
+                if( _executor == null ) {
+                    _sink.accept( block );
+                    delivered = CompletableFuture.completedFuture( null );
+                }
+                else
+                    delivered = CompletableFuture.runAsync( () -> _sink.accept( block ), _executor );
+
+                return delivered.thenAccept( v -> {
+
+                    // the sink has these records now...
+                    _progress.delivered( block );
+
+                    // if there are no more records, we're done...
+                    if( !rspMsg.moreRecords ) {
+                        try {
+                            _sink.complete();
+                        }
+                        catch( RuntimeException _e ) {
+                            LOGGER.log( Level.WARNING, "Record sink threw exception on completion, ignoring", _e );
+                        }
+                        _result.complete( _progress.records );
+                        return;
+                    }
+
+                    // otherwise, we need to send another request...
+                    LOGGER.info( "Collecting supplementary record..." );
+                    collectNext( _query, getContinuationRequest( _query, _reqMsg, _progress.lastRecord ), type, _sink, _executor, _progress, _result );
+                } );
+            } ) );
+
+        } ).exceptionally( _e -> {
+            Throwable cause = ((_e instanceof CompletionException) && (_e.getCause() != null)) ? _e.getCause() : _e;
+            try {
+                _sink.failed( cause, (_progress.lastRecord == null) ? -1 : 0xFFFFFFFFL & getRecordNumber( _progress.lastRecord ) );
+            }
+            catch( RuntimeException _re ) {
+                LOGGER.log( Level.WARNING, "Record sink threw exception on failure, ignoring", _re );
+            }
+            return fail( _result, cause );
+        } );
+    }
 
-            // otherwise, hopefully we got a chunk of data...
-            rspMsg = (CollectDataRspMsg) trans.response;
 
-            // if we got an error from the datalogger, just leave with nothing...
-            if( rspMsg.responseCode != ResponseCode.OK )
-                return null;
+    /**
+     * Decodes all the records in the given collection response, using the given record data types, returning a future that will be completed with
+     * the list of them.  If the response ended with a fragment of a record too large to fit into a response, the rest of that record is collected
+     * and it's added to the end of the list.
+     *
+     * @param _query the query specifying the table and fields being collected
+     * @param _rspMsg the collection response message to decode
+     * @param _recType the deserialization and presentation data types for the records
+     * @return the future list of decoded records
+     */
+    /*package*/ CompletableFuture<List<Datum>> decodeBlock( final DataQuery _query, final CollectDataRspMsg _rspMsg,
+                                                            final CompositeDataType[] _recType ) {
+
+        List<Datum> records = new ArrayList<>();
+        RecordFragment fragment = decodeRecords( _rspMsg, _recType, records );
+        if( fragment == null )
+            return CompletableFuture.completedFuture( records );
+
+        // we got a fragment, so go get the rest of it...
+        LOGGER.fine( "Collecting record " + fragment.recordNumber + " in fragments" );
+        return new FragmentAssembly( this, _query, _recType, fragment, DEFAULT_PIPELINE_DEPTH ).start().thenApply( record -> {
+            records.add( record );
+            return records;
+        } );
+    }
+
 
-            // if we haven't already computed our record's type, do so now...
-            if( recType == null ) recType = getRecordDataType( trans );
+    /**
+     * Decodes all the records in the given collection response, using the given record data types, adding them to the given list of records.  If the
+     * response ends with a fragment of a record (because the record was too large to fit into a response), that fragment is returned.
+     *
+     * @param _rspMsg the collection response message to decode
+     * @param _recType the deserialization and presentation data types for the records
+     * @param _records the list to add the decoded records to
+     * @return the record fragment the response ended with, or null if there was none
+     */
+    /*package*/ RecordFragment decodeRecords( final CollectDataRspMsg _rspMsg, final CompositeDataType[] _recType, final List<Datum> _records ) {
 
-            // loop through the response until we've decoded all the blocks in it...
-            BitBuffer rspBits = new BitBuffer( rspMsg.bytes );
-            while( rspBits.remaining() > 0 ) {
+        // loop through the response until we've decoded all the blocks in it...
+        BitBuffer rspBits = new BitBuffer( _rspMsg.bytes );
+        while( rspBits.remaining() > 0 ) {
 
-                // decode the block header...
-                CompositeDatum header = new CompositeDatum( BLOCK_HEADER );
-                header.set( rspBits );
+            // decode the block header...
+            CompositeDatum header = new CompositeDatum( BLOCK_HEADER );
+            header.set( rspBits );
 
-                // if we got a fragment, error as we're not supporting these (yet)...
-                // TODO: implement fragmented data collection records...
-                if( header.at( FIELD_IS_OFFSET ).getAsBoolean() )
-                    throw new UnsupportedOperationException( "Collecting data record fragments is not supported" );
+            // decode the header...
+            int recordNumber    = header.at( FIELD_FIRST_RECORD_NUMBER ).getAsInt();
+            int tableNumber     = header.at( FIELD_TABLE_NUMBER ).getAsInt();
+            int numberOfRecords = header.at( FIELD_RECORD_COUNT ).getAsInt();
 
-                // decode the header...
-                int recordNumber    = header.at( FIELD_FIRST_RECORD_NUMBER ).getAsInt();
-                int tableNumber     = header.at( FIELD_TABLE_NUMBER ).getAsInt();
-                int numberOfRecords = header.at( FIELD_RECORD_COUNT ).getAsInt();
+            // if we got a fragment, the count is really its byte offset in the record, and the rest of the response is its bytes...
+            if( header.at( FIELD_IS_OFFSET ).getAsBoolean() )
+                return new RecordFragment( recordNumber, numberOfRecords, rspBits.get().getByteBuffer() );
 
-                // decode all the records in this block
-                for( int record = 0; record < numberOfRecords; record++ ) {
+            // decode all the records in this block
+            int blockStart = rspBits.position();
+            for( int record = 0; record < numberOfRecords; record++ ) {
 
-                    // decode a record, using the deserialization type...
-                    CompositeDatum datum = new CompositeDatum( recType[0] );
-                    datum.set( rspBits );
+                // decode a record, using the deserialization type...
+                CompositeDatum datum = new CompositeDatum( _recType[0] );
+                datum.set( rspBits );
 
-                    // now switch the type to the presentation type, and set the record number...
-                    datum.changeTypeTo( recType[1] );
-                    datum.at( FIELD_RECORD_NUMBER ).setTo( recordNumber );
+                // now switch the type to the presentation type, and set the record number...
+                datum.changeTypeTo( _recType[1] );
+                datum.at( FIELD_RECORD_NUMBER ).setTo( recordNumber );
 
-                    // add it to our result...
-                    result.add( datum );
+                // add it to our result...
+                _records.add( datum );
 
-                    // bump our record number, to the next one in the block (if there are any)...
-                    recordNumber++;
-                }
+                // bump our record number, to the next one in the block (if there are any)...
+                recordNumber++;
             }
 
-            // if there are no more records, we're done...
-            if( !rspMsg.moreRecords )
-                done = true;
+            // count what we collected...
+            TableMetrics tableMetrics = metrics.table( tableName( tableNumber ) );
+            tableMetrics.recordsCollected.add( numberOfRecords );
+            tableMetrics.bytesCollected.add( (rspBits.position() - blockStart) >>> 3 );
+        }
+        return null;
+    }
 
-            // otherwise, we need to send another request...
-            else {
 
-                LOGGER.info( "Collecting supplementary record..." );
+    /**
+     * Returns the name of the table with the given (one-based) number, or a name made from the number if the table definitions haven't been read or
+     * don't include it.
+     *
+     * @param _tableNumber the number of the table
+     * @return the name of the table
+     */
+    private String tableName( final int _tableNumber ) {
+        TableDefinitions tds = tableDefinitions;
+        TableDefinition td = ((tds == null) || (_tableNumber < 1) || (_tableNumber > tds.size())) ? null : tds.getTableDef( _tableNumber );
+        return (td == null) ? "Table " + _tableNumber : td.name;
+    }
 
-                // some setup...
-                CollectDataReqMsg reqMsg = (CollectDataReqMsg)trans.request;
-                Datum lastRec = result.get( result.size() - 1 );
-                int startRec = 1 + lastRec.at( FIELD_RECORD_NUMBER ).getAsInt();
-                NSec startTime = lastRec.at( FIELD_TIMESTAMP ).getAsNSec().add( new NSec( 1, 0 ) );
 
-                // how we handle this depends on the mode of the collection request...
-                if( (reqMsg.mode == 3) || (reqMsg.mode == 4) || (reqMsg.mode == 5) )
-                    msg = CollectDataReqMsg.getFromRecordNumber( _query, 0, startRec, new RequestContext() );
-                else if( reqMsg.mode == 6 )
-                    msg = CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, startRec, reqMsg.intP2, new RequestContext() );
-                else if( reqMsg.mode == 7 )
-                    msg = CollectDataReqMsg.getRangeOfTimestamps( _query, 0, startTime, reqMsg.nsecP2, new RequestContext() );
-                else
-                    throw new UnsupportedOperationException( "Unsupported collection mode: " + reqMsg.mode );
-            }
+    /**
+     * Decodes the single record in the given bytes, using the given record data types, and gives it the given record number.  Used for records that
+     * were collected in fragments.
+     *
+     * @param _recType the deserialization and presentation data types for the record
+     * @param _bytes the bytes of the record
+     * @param _recordNumber the record number of the record
+     * @return the decoded record
+     */
+    /*package*/ Datum decodeRecord( final CompositeDataType[] _recType, final ByteBuffer _bytes, final int _recordNumber ) {
+        CompositeDatum datum = new CompositeDatum( _recType[0] );
+        datum.set( new BitBuffer( _bytes ) );
+        datum.changeTypeTo( _recType[1] );
+        datum.at( FIELD_RECORD_NUMBER ).setTo( _recordNumber );
+        return datum;
+    }
+
+
+    /**
+     * Requests the fragment of the given record that starts at the given byte offset, returning a future that will be completed with the
+     * (successful) response.  Used when assembling records too large to fit into a single response.
+     *
+     * @param _query the query specifying the table and fields being collected
+     * @param _recordNumber the record number of the record
+     * @param _offset the byte offset of the fragment in the record
+     * @return the future collection response
+     */
+    /*package*/ CompletableFuture<CollectDataRspMsg> requestRecordFragment( final DataQuery _query, final int _recordNumber, final int _offset ) {
+
+        try {
+            CollectDataReqMsg msg = newRequest( requestContext ->
+                    CollectDataReqMsg.getRecordFragment( _query, 0, _recordNumber, _offset, requestContext ) );
+            return request( msg, CollectDataRspMsg.class ).thenApply( rspMsg -> {
+                checkResponseCode( msg, rspMsg.responseCode );
+                return rspMsg;
+            } );
         }
-        return result;
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Returns the request for the records that didn't fit in the response to the given collection request, which ended with the given record.
+     *
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _reqMsg the collection request whose response didn't have all the records
+     * @param _lastRec the last record collected so far
+     * @return the collection request for the remaining records
+     */
+    private CollectDataReqMsg getContinuationRequest( final DataQuery _query, final CollectDataReqMsg _reqMsg, final Datum _lastRec ) {
+
+        // some setup...
+        int startRec = 1 + _lastRec.at( FIELD_RECORD_NUMBER ).getAsInt();
+        NSec startTime = _lastRec.at( FIELD_TIMESTAMP ).getAsNSec().add( new NSec( 1, 0 ) );
+
+        // how we handle this depends on the mode of the collection request...
+        if( (_reqMsg.mode == 3) || (_reqMsg.mode == 4) || (_reqMsg.mode == 5) )
+            return newRequest( requestContext -> CollectDataReqMsg.getFromRecordNumber( _query, 0, startRec, requestContext ) );
+        else if( _reqMsg.mode == 6 )
+            return newRequest( requestContext -> CollectDataReqMsg.getRangeOfRecordNumbers( _query, 0, startRec, _reqMsg.intP2, requestContext ) );
+        else if( _reqMsg.mode == 7 )
+            return newRequest( requestContext -> CollectDataReqMsg.getRangeOfTimestamps( _query, 0, startTime, _reqMsg.nsecP2, requestContext ) );
+        else
+            throw new UnsupportedOperationException( "Unsupported collection mode: " + _reqMsg.mode );
     }
 
 
@@ -629,8 +2123,8 @@ public class Datalogger {
     final static private String FIELD_FIRST_RECORD_NUMBER = "FirstRecordNumber";
     final static private String FIELD_IS_OFFSET           = "IsOffset";
     final static private String FIELD_RECORD_COUNT        = "RecordCount";
-    final static private String FIELD_TIMESTAMP           = "Timestamp";
-    final static private String FIELD_RECORD_NUMBER       = "RecordNumber";
+    final static public  String FIELD_TIMESTAMP           = "Timestamp";
+    final static public  String FIELD_RECORD_NUMBER       = "RecordNumber";
 
     final static private CompositeDataType BLOCK_HEADER = new CompositeDataType( "BLOCK_HEADER", null,
             new CP( FIELD_TABLE_NUMBER,        UINT2  ),
@@ -642,41 +2136,69 @@ public class Datalogger {
     /**
      * Returns the data types for the kind of record we're collecting.  An array with two data types is returned.  The first has all the correct
      * data types for how the records are serialized; the second is identical except that it has the additional property "RecordNumber", which is
-     * synthetic and not part of the
+     * synthetic and not part of the serialized record.
      *
+     * @param _query the query specifying the table and fields being collected
+     * @param _tds the table definitions for this datalogger
      * @return the deserialization and presentation data types
      */
-    private CompositeDataType[] getRecordDataType( final Transaction _trans ) {
-
-        // retrieve the query we made from the request message...
-        DataQuery query = ((CollectDataReqMsg)_trans.request).query;
+    private CompositeDataType[] getRecordDataType( final DataQuery _query, final TableDefinitions _tds ) {
 
         // some setup...
-        TableDefinitions tds = getTableDefinitions();  // ensure that we've loaded table definitions...
-        TableDefinition td = tds.getTableDef( query.tableIndex );
-        boolean allFields = (0 == query.fieldsSize());
-        List<CP> cps = new ArrayList<>();
-
-        // add the timestamp field...
-        cps.add( new CP( FIELD_TIMESTAMP, DataTypes.fromPakBusType( PakBusType.decode( td.timeType ) ) ) );
+        TableDefinition td = _tds.getTableDef( _query.tableIndex );
+        List<FieldDefinition> fields = new ArrayList<>();
 
         // if the query has an empty field list, then we're collecting ALL the fields in that record...
-        if( allFields ) {
-            for( int fn = 1; fn <= td.fieldSize(); fn++ ) {
-                FieldDefinition fd = td.getField( fn - 1 );
-                cps.add( getField( fd ) );
-            }
+        if( 0 == _query.fieldsSize() ) {
+            for( int fn = 1; fn <= td.fieldSize(); fn++ )
+                fields.add( td.getField( fn - 1 ) );
         }
 
         // otherwise we're collecting only the specified fields...
         else {
-            DataQuery.FieldIterator fi = query.iterator();
-            while( fi.hasNext() ) {
-                FieldDefinition fd = td.getField( ((Integer)fi.next()) - 1 );
-                cps.add( getField( fd ) );
-            }
+            DataQuery.FieldIterator fi = _query.iterator();
+            while( fi.hasNext() )
+                fields.add( td.getField( ((Integer)fi.next()) - 1 ) );
         }
 
+        return getRecordDataType( td, fields );
+    }
+
+
+    /**
+     * Returns the data type of the records collected with all the fields of the given table: the type of the records returned by the collection
+     * methods when the query names no fields.  Records of this type have a "RecordNumber" property, then a "Timestamp" property, then one property
+     * for each field.
+     *
+     * @param _tableDefinition the definition of the table
+     * @return the data type of the table's records
+     */
+    public static CompositeDataType getRecordType( final TableDefinition _tableDefinition ) {
+
+        Checks.required( _tableDefinition );
+
+        List<FieldDefinition> fields = new ArrayList<>();
+        for( int fn = 1; fn <= _tableDefinition.fieldSize(); fn++ )
+            fields.add( _tableDefinition.getField( fn - 1 ) );
+        return getRecordDataType( _tableDefinition, fields )[1];
+    }
+
+
+    /**
+     * Returns the deserialization and presentation data types for records with the given fields of the given table.
+     *
+     * @param _td the definition of the table
+     * @param _fields the definitions of the fields in the records, in order
+     * @return the deserialization and presentation data types
+     */
+    private static CompositeDataType[] getRecordDataType( final TableDefinition _td, final List<FieldDefinition> _fields ) {
+
+        // add the timestamp field, then the fields...
+        List<CP> cps = new ArrayList<>();
+        cps.add( new CP( FIELD_TIMESTAMP, DataTypes.fromPakBusType( PakBusType.decode( _td.timeType ) ) ) );
+        for( FieldDefinition fd : _fields )
+            cps.add( getField( fd ) );
+
         // we've got all the fields, so create our deserialization type...
         CompositeDataType[] result = new CompositeDataType[2];
         result[0] = new CompositeDataType( "REC_TYPE", null, cps );
@@ -690,7 +2212,7 @@ public class Datalogger {
     }
 
 
-    private CP getField( final FieldDefinition _fieldDefinition ) {
+    private static CP getField( final FieldDefinition _fieldDefinition ) {
 
         // get our base type...
         DataType dataType = DataTypes.fromPakBusType( PakBusType.decode( _fieldDefinition.fieldType ) );
@@ -706,43 +2228,234 @@ public class Datalogger {
 
 
     /**
-     * Sends the given request message, assigning the transaction number, then registers the given expected response class and maximum wait time.
-     * Returns a transaction that contains a semaphore that the caller can wait on; a permit will be issued only when a response message of the
-     * correct type is received.  If a response is not received within the max wait second period, the request will be resent.  If a response message
-     * of the wrong type is received, the transaction is terminated and there is no response message in the transaction.
+     * Sends the given request message, returning a future that will be completed with the response message of the given class.  If the request
+     * can't be sent at all, the returned future has already failed.
+     *
+     * @param _msg the request message to send
+     * @param _expectedResponseClass the class of the expected response message
+     * @param <T> the type of the expected response message
+     * @return the future response message
+     */
+    private <T extends Msg> CompletableFuture<T> request( final Msg _msg, final Class<T> _expectedResponseClass ) {
+
+        try {
+            return sendRequest( _msg, _expectedResponseClass ).future.thenApply( _expectedResponseClass::cast );
+        }
+        catch( RuntimeException _e ) {
+            return failed( _e );
+        }
+    }
+
+
+    /**
+     * Throws a {@link ResponseCodeException} if the given response code (in the response to the given request) is not OK.
+     *
+     * @param _request the request message that was responded to
+     * @param _responseCode the response code in the response
+     */
+    private void checkResponseCode( final Msg _request, final ResponseCode _responseCode ) {
+        if( _responseCode != ResponseCode.OK )
+            throw new ResponseCodeException( _request.getClass(), _responseCode );
+    }
+
+
+    /**
+     * Waits for the given future to complete, returning its value - or null if it failed, if it didn't complete within our await timeout, or if this
+     * thread was interrupted while waiting (in which case the thread's interrupt status is restored).
+     *
+     * @param _future the future to wait for
+     * @param <T> the type of the future's value
+     * @return the future's value, or null if there was a problem
+     */
+    private <T> T await( final CompletableFuture<T> _future ) {
+
+        try {
+            return _future.get( awaitTimeout.toNanos(), TimeUnit.NANOSECONDS );
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( ExecutionException _e ) {
+            LOGGER.log( Level.FINE, "Datalogger " + name + " request failed: " + _e.getCause().getMessage() );
+            return null;
+        }
+        catch( TimeoutException _e ) {
+            LOGGER.log( Level.WARNING, "Datalogger " + name + " request not completed within " + awaitTimeout );
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns a future that has already failed with the given exception.
+     *
+     * @param _e the exception the future failed with
+     * @param <T> the type of the future's value
+     * @return the failed future
+     */
+    private static <T> CompletableFuture<T> failed( final Throwable _e ) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally( _e );
+        return result;
+    }
+
+
+    /**
+     * Fails the given future with the given exception (unwrapped, if it's the completion exception wrapped around a failure in a dependent stage).
+     * Returns null, so that it can be the function of an {@link CompletableFuture#exceptionally(java.util.function.Function)} stage.
+     *
+     * @param _future the future to fail
+     * @param _e the exception to fail the future with
+     * @param <T> the type of the future's value
+     * @return null, always
+     */
+    private static <T> Void fail( final CompletableFuture<T> _future, final Throwable _e ) {
+        _future.completeExceptionally( ((_e instanceof CompletionException) && (_e.getCause() != null)) ? _e.getCause() : _e );
+        return null;
+    }
+
+
+    /**
+     * Sends the given request message, assigning the transaction number, then registers the given expected response class.  Returns a transaction
+     * that contains a future that will be completed when a response message is received, or completed exceptionally when the transaction fails.  If
+     * a response is not received before the timeout computed by our round-trip estimator, the request will be resent (by the application's timing
+     * wheel, whether or not the link is busy) with a backed off timeout; after the maximum number of retransmissions the transaction fails with a
+     * {@link TransactionTimeoutException}.  If a response message of the wrong type is received, the transaction fails with an
+     * {@link UnexpectedResponseException}.
      *
      * @param _msg the request message to send
      * @param _expectedResponseClass the class of the expected response message
-     * @param _maxWaitMilliseconds the maximum number of seconds to wait for a response
      * @return the transaction record
      */
-    private synchronized Transaction sendRequest( final Msg _msg, final Class _expectedResponseClass, final int _maxWaitMilliseconds ) {
+    private Transaction sendRequest( final Msg _msg, final Class _expectedResponseClass ) {
 
         // get a new transaction and number to use...
-        Transaction transaction = getTransaction( _msg, _expectedResponseClass, _maxWaitMilliseconds );
-
-        // send the request...
-        send( _msg );
+        Transaction transaction = getTransaction( _msg, _expectedResponseClass );
+
+        // send the request and start its timer, freeing up the transaction number if we couldn't send...
+        try {
+            // tell the listeners before sending, as the answer could be in before send() returns...
+            if( hasTransactionListeners() ) {
+                long now = System.nanoTime();
+                fireTransactionEvent( l -> l.sent( this, _msg.context().transactionNumber(), _msg.getClass(), transaction.requestBytes, now ) );
+            }
+            send( _msg );
+            metrics.requests.increment();
+        }
+        catch( RuntimeException _e ) {
+            transactions.set( _msg.context().transactionNumber(), null );
+            if( hasTransactionListeners() ) {
+                long now = System.nanoTime();
+                fireTransactionEvent( l -> l.abandoned( this, _msg.context().transactionNumber(), _msg.getClass(), _e, now ) );
+            }
+            throw _e;
+        }
+        schedule( transaction );
 
         return transaction;
     }
 
 
-    private synchronized Transaction getTransaction( final Msg _msg, final Class _expectedResponseClass, final int _maxWaitMilliseconds ) {
+    private Transaction getTransaction( final Msg _msg, final Class _expectedResponseClass ) {
 
-        // create our transaction, stuff it away, and return it...
+        // create our transaction...
         Transaction result = new Transaction();
-        result.waiter = new Semaphore( 0 );
-        result.response = null;
+        result.future = new CompletableFuture<>();
         result.expectedClass = _expectedResponseClass;
-        result.timeout = Instant.now().plus( Duration.ofMillis( _maxWaitMilliseconds ) );
-        result.timeoutMilliSeconds = _maxWaitMilliseconds;
+        result.requestBytes = _msg.bytes().limit() + PACKET_OVERHEAD;
         result.request = _msg;
-        transactions.put( _msg.context().transactionNumber(), result );
+        result.sentNanos = System.nanoTime();   // we're about to send it...
+
+        // then replace the reservation in its slot (a volatile write, which publishes the fully built transaction to the packet reader)...
+        transactions.set( _msg.context().transactionNumber(), result );
+        if( hasTransactionListeners() )
+            fireTransactionEvent( l -> l.created( this, _msg.context().transactionNumber(), _msg.getClass(), result.requestBytes,
+                    result.sentNanos ) );
         return result;
     }
 
 
+    /**
+     * Adds the given listener, to be told about the lifecycle of every transaction with this datalogger.
+     *
+     * @param _listener the listener to add
+     */
+    public void addTransactionListener( final TransactionListener _listener ) {
+        transactionListeners.add( _listener );
+    }
+
+
+    /**
+     * Removes the given transaction listener, if it was added.
+     *
+     * @param _listener the listener to remove
+     */
+    public void removeTransactionListener( final TransactionListener _listener ) {
+        transactionListeners.remove( _listener );
+    }
+
+
+    /**
+     * Returns true if there are any transaction listeners for this datalogger, either its own or its application's.  Callers check this before
+     * building an event, so that transactions cost nothing extra when nobody is listening.
+     *
+     * @return true if there are any transaction listeners
+     */
+    private boolean hasTransactionListeners() {
+        return transactionListeners.any() || application.transactionListeners().any();
+    }
+
+
+    /**
+     * Gives the given event to this datalogger's transaction listeners, then to its application's.
+     *
+     * @param _event the event to give to each listener
+     */
+    private void fireTransactionEvent( final Consumer<TransactionListener> _event ) {
+        transactionListeners.fire( _event );
+        application.transactionListeners().fire( _event );
+    }
+
+
+    /**
+     * Reserves and returns an unused transaction number.  The search starts just past the last number handed out, so that numbers are reused as
+     * rarely as possible, and each slot is claimed with a compare-and-set so that concurrent callers never get the same number.
+     *
+     * @return the reserved transaction number
+     */
+    private int reserveTransactionNumber() {
+
+        for( int tries = 0; tries < TRANSACTION_NUMBERS; tries++ ) {
+            int number = 0xFF & nextTrialTransactionNumber.getAndIncrement();
+            if( transactions.compareAndSet( number, null, RESERVED ) )
+                return number;
+        }
+        throw new IllegalStateException( "No free transaction numbers for datalogger " + name );
+    }
+
+
+    /**
+     * Builds a request message with the given builder, giving it a context with a newly reserved transaction number.  If the message can't be
+     * built, the transaction number is released again before the exception is rethrown, so that it doesn't stay reserved forever.
+     *
+     * @param _builder the function that builds the request message from its context
+     * @param <M> the type of the request message
+     * @return the request message
+     */
+    private <M extends Msg> M newRequest( final Function<Context,M> _builder ) {
+
+        RequestContext requestContext = new RequestContext();
+        try {
+            return _builder.apply( requestContext );
+        }
+        catch( RuntimeException _e ) {
+            transactions.compareAndSet( requestContext.transactionNumber, RESERVED, null );
+            throw _e;
+        }
+    }
+
+
     private void send( final Msg _msg ) {
 
         Checks.required( _msg );
@@ -761,16 +2474,8 @@ public class Datalogger {
 
         private RequestContext() {
 
-            // find an unused transaction number...
-            Integer numb = null;
-            while( numb == null ) {
-                if( !transactions.containsKey( nextTrialTransactionNumber ) )
-                    numb = nextTrialTransactionNumber;
-                nextTrialTransactionNumber = 0xFF & (nextTrialTransactionNumber + 1);
-            }
-
-            // set the transaction number...
-            transactionNumber = numb;
+            // reserve an unused transaction number...
+            transactionNumber = reserveTransactionNumber();
         }
 
         /**
@@ -807,12 +2512,47 @@ public class Datalogger {
     }
 
 
+    /**
+     * A fragment of a record that was too large to fit into a single collection response.
+     */
+    /*package*/ static class RecordFragment {
+
+        final /*package*/ int        recordNumber;
+        final /*package*/ int        offset;   // the byte offset of this fragment in the record...
+        final /*package*/ ByteBuffer bytes;
+
+        private RecordFragment( final int _recordNumber, final int _offset, final ByteBuffer _bytes ) {
+            recordNumber = _recordNumber;
+            offset       = _offset;
+            bytes        = _bytes;
+        }
+    }
+
+
+    /**
+     * The progress of a streaming collection: how many records have been delivered, and the last of them.  Only touched by one stage of the
+     * collection at a time, each of which happens-before the next.
+     */
+    private static class CollectionProgress {
+
+        private long  records;
+        private Datum lastRecord;
+
+        private void delivered( final List<Datum> _block ) {
+            records += _block.size();
+            if( !_block.isEmpty() )
+                lastRecord = _block.get( _block.size() - 1 );
+        }
+    }
+
+
     private static class Transaction {
-        private Semaphore waiter;
-        private Msg       response;
-        private Instant   timeout;
-        private Class     expectedClass;
-        private int       timeoutMilliSeconds;
-        private Msg       request;
+        private          CompletableFuture<Msg> future;
+        private volatile TimingWheel.Timeout    timer;
+        private          Class                  expectedClass;
+        private          Msg                    request;
+        private          int                    requestBytes;   // size of the request packet...
+        private          long                   sentNanos;      // System.nanoTime() when the request was first sent...
+        private volatile int                    retransmits;    // only changed by the timing wheel's thread...
     }
 }
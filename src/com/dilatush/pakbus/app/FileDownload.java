@@ -0,0 +1,209 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.messages.bmp5.FileReceiveRspMsg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class read a file from a datalogger, keeping several requests in flight at once, and write it to a channel.  The file is read in
+ * swaths as large as will fit into a response; requests for successive swaths are sent without waiting for the previous ones to be answered, so on a
+ * slow link the datalogger always has a request to answer.  Swaths may be answered in any order; they're written to the channel in file order.
+ * The end of the file is the end of the first swath answered with fewer bytes than were requested; requests past it are simply ignored.  A swath
+ * whose request failed is requested again (up to a limit); if the download fails anyway, it fails with a {@link FileDownloadException} that says
+ * how much of the file was written, so the download can be resumed from there.  Instances of this class are single use, mutable, and threadsafe
+ * through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class FileDownload {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private int MAX_SWATH_ATTEMPTS = 3;   // the most times we'll request any one swath...
+
+    final private Datalogger              datalogger;
+    final private String                  fileName;
+    final private WritableByteChannel     sink;
+    final private int                     swath;      // the number of bytes to request at once...
+    final private int                     depth;      // the most swaths to have in flight at once...
+    final private Map<Long,ByteBuffer>    received;   // swaths received but not yet written, by offset...
+    final private CompletableFuture<Long> result;
+
+    private long    nextOffset;   // the offset of the first byte not yet requested...
+    private long    written;      // the offset of the first byte not yet written...
+    private long    end;          // the length of the file, once we've found it (Long.MAX_VALUE until then)...
+    private int     inFlight;     // the number of swaths requested but not yet answered...
+    private boolean done;         // true once we've completed or failed...
+
+
+    /**
+     * Creates a new instance of this class that will read the given file from the given datalogger, starting at the given offset, writing it to the
+     * given channel.
+     *
+     * @param _datalogger the datalogger to read the file from
+     * @param _fileName the name of the file to read
+     * @param _sink the channel to write the file to
+     * @param _offset the offset in the file to start reading at
+     * @param _swath the number of bytes to request at once
+     * @param _depth the most requests to have in flight at once
+     */
+    /*package*/ FileDownload( final Datalogger _datalogger, final String _fileName, final WritableByteChannel _sink, final long _offset,
+                              final int _swath, final int _depth ) {
+        datalogger = _datalogger;
+        fileName   = _fileName;
+        sink       = _sink;
+        swath      = _swath;
+        depth      = _depth;
+        received   = new HashMap<>();
+        result     = new CompletableFuture<>();
+        nextOffset = _offset;
+        written    = _offset;
+        end        = Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Starts the download, returning a future that will be completed with the length of the file once all of it has been written.
+     *
+     * @return the future length of the file
+     */
+    /*package*/ CompletableFuture<Long> start() {
+        send( nextSwaths() );
+        return result;
+    }
+
+
+    /**
+     * Returns the swaths that should be requested now to fill the pipeline, marking them as in flight.
+     *
+     * @return the swaths to request
+     */
+    private synchronized List<Swath> nextSwaths() {
+
+        List<Swath> swaths = new ArrayList<>();
+        while( !done && (inFlight < depth) && (nextOffset < end) ) {
+            swaths.add( new Swath( nextOffset, 1 ) );
+            nextOffset += swath;
+            inFlight++;
+        }
+        return swaths;
+    }
+
+
+    /**
+     * Sends requests for the given swaths.  Note that this is never called while holding our lock, as sending may block on the link.
+     *
+     * @param _swaths the swaths to request
+     */
+    private void send( final List<Swath> _swaths ) {
+        for( Swath s : _swaths ) {
+            datalogger.requestFileSwath( fileName, s.offset, swath ).whenComplete( (rspMsg, e) -> onResponse( s, rspMsg, e ) );
+        }
+    }
+
+
+    /**
+     * Handles the response (or failure) of the request for the given swath, writes whatever can now be written in order, then either completes the
+     * download or requests whatever swaths are needed to keep the pipeline full.
+     *
+     * @param _swath the swath that was requested
+     * @param _rspMsg the response message, or null if the request failed
+     * @param _e the reason the request failed, or null if it succeeded
+     */
+    private void onResponse( final Swath _swath, final FileReceiveRspMsg _rspMsg, final Throwable _e ) {
+
+        List<Swath> toSend   = new ArrayList<>();
+        Long        complete = null;
+        Throwable   cause    = (_e instanceof CompletionException) && (_e.getCause() != null) ? _e.getCause() : _e;
+
+        synchronized( this ) {
+
+            // if we've already completed or failed, there's nothing more to do...
+            if( done )
+                return;
+            inFlight--;
+
+            // if the request failed, either try it again or give up...
+            if( cause != null ) {
+                if( _swath.offset >= end ) {
+                    cause = null;   // past the end of the file anyway; we don't care...
+                }
+                else if( _swath.attempts >= MAX_SWATH_ATTEMPTS ) {
+                    done = true;
+                }
+                else {
+                    LOGGER.info( "Read of " + fileName + " at " + _swath.offset + " failed; retrying: " + cause.getMessage() );
+                    toSend.add( new Swath( _swath.offset, _swath.attempts + 1 ) );
+                    inFlight++;
+                    cause = null;
+                }
+            }
+
+            // otherwise, we've got some bytes (or found the end of the file)...
+            else if( _swath.offset < end ) {
+                ByteBuffer bytes = _rspMsg.fileData.duplicate();
+                if( bytes.remaining() < swath )
+                    end = _swath.offset + bytes.remaining();
+                received.put( _swath.offset, bytes );
+
+                // write whatever we can now write in order...
+                try {
+                    ByteBuffer next;
+                    while( (next = received.remove( written )) != null ) {
+                        long length = next.remaining();
+                        while( next.hasRemaining() )
+                            sink.write( next );
+                        written += length;
+                    }
+                }
+                catch( IOException _ioe ) {
+                    done  = true;
+                    cause = _ioe;
+                }
+                if( !done && (written >= end) ) {
+                    done     = true;
+                    complete = written;
+                }
+            }
+
+            // if we've failed, say how far we got...
+            if( (cause != null) && done )
+                cause = new FileDownloadException( fileName, written, cause );
+
+            if( !done )
+                toSend.addAll( nextSwaths() );
+        }
+
+        // complete, fail, or keep the pipeline full...
+        if( complete != null )
+            result.complete( complete );
+        else if( cause != null )
+            result.completeExceptionally( cause );
+        else
+            send( toSend );
+    }
+
+
+    /**
+     * A swath of the file to request.
+     */
+    private static class Swath {
+
+        final private long offset;     // the offset of the first byte of the swath...
+        final private int  attempts;   // the number of times this swath has been requested, including this one...
+
+        private Swath( final long _offset, final int _attempts ) {
+            offset   = _offset;
+            attempts = _attempts;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.dilatush.pakbus.app;
+
+/**
+ * Used to complete a future exceptionally when a file download from a datalogger fails.  The resume offset is the number of bytes of the file that
+ * were written before the failure; a download started from that offset picks up right where this one left off.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class FileDownloadException extends RuntimeException {
+
+    final static private long serialVersionUID = 1L;
+
+    final public String fileName;       // the name of the file being downloaded...
+    final public long   resumeOffset;   // the offset of the first byte of the file not written...
+
+
+    /**
+     * Creates a new instance of this class for the given file, resume offset, and cause.
+     *
+     * @param _fileName the name of the file being downloaded
+     * @param _resumeOffset the offset of the first byte of the file not written
+     * @param _cause the reason the download failed
+     */
+    public FileDownloadException( final String _fileName, final long _resumeOffset, final Throwable _cause ) {
+        super( "Download of " + _fileName + " failed at offset " + _resumeOffset + ": " + _cause.getMessage(), _cause );
+        fileName     = _fileName;
+        resumeOffset = _resumeOffset;
+    }
+}
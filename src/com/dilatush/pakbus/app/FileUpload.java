@@ -0,0 +1,303 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.messages.bmp5.ResponseCode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class send a file to a datalogger, keeping a window of several chunks in flight at once.  The file is read from a channel in
+ * chunks as large as will fit into a request, and the request for each chunk is sent without waiting for the previous ones to be answered.  A
+ * datalogger only accepts the chunks of a file in order: once one is lost, it rejects every chunk after it (with an "invalid fragment" response)
+ * until the lost one arrives.  So when the oldest unacknowledged chunk fails, that chunk and every chunk after it in the window are sent again, in
+ * order (go-back-N).  Failures of later chunks are just noted; they're resent when the window goes back.  Chunks are held in memory only until
+ * they're acknowledged.  The last chunk carries the flag that tells the datalogger to close the file.  Instances of this class are single use,
+ * mutable, and threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class FileUpload {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private int MAX_CHUNK_ATTEMPTS = 3;   // the most times any one chunk may fail as the oldest in the window...
+
+    final private Datalogger              datalogger;
+    final private String                  fileName;
+    final private ReadableByteChannel     source;
+    final private int                     chunkBytes;   // the most bytes to send in one chunk...
+    final private int                     depth;        // the most chunks to have in flight at once...
+    final private Deque<Chunk>            window;       // chunks sent but not yet acknowledged, in file order...
+    final private CompletableFuture<Long> result;
+
+    private ByteBuffer readAhead;    // the next chunk read from the source, but not yet sent, or null if none...
+    private long       nextOffset;   // the offset of the first byte not yet read from the source...
+    private boolean    anyRead;      // true once the first chunk has been read...
+    private boolean    allRead;      // true once the last chunk has been read...
+    private boolean    done;         // true once we've completed or failed...
+
+
+    /**
+     * Creates a new instance of this class that will send the bytes read from the given channel to the given datalogger as the file with the given
+     * name.
+     *
+     * @param _datalogger the datalogger to send the file to
+     * @param _fileName the name of the file on the datalogger
+     * @param _source the channel to read the file's bytes from
+     * @param _chunkBytes the most bytes to send in one chunk
+     * @param _depth the most chunks to have in flight at once
+     */
+    /*package*/ FileUpload( final Datalogger _datalogger, final String _fileName, final ReadableByteChannel _source, final int _chunkBytes,
+                            final int _depth ) {
+        datalogger = _datalogger;
+        fileName   = _fileName;
+        source     = _source;
+        chunkBytes = _chunkBytes;
+        depth      = _depth;
+        window     = new ArrayDeque<>();
+        result     = new CompletableFuture<>();
+    }
+
+
+    /**
+     * Starts the upload, returning a future that will be completed with the number of bytes sent once the datalogger has acknowledged all of them.
+     *
+     * @return the future number of bytes sent
+     */
+    /*package*/ CompletableFuture<Long> start() {
+        List<Send> toSend = new ArrayList<>();
+        Throwable  cause  = null;
+        synchronized( this ) {
+            try {
+                fillWindow( toSend );
+            }
+            catch( IOException _e ) {
+                done  = true;
+                cause = _e;
+            }
+        }
+        if( cause != null )
+            result.completeExceptionally( cause );
+        else
+            send( toSend );
+        return result;
+    }
+
+
+    /**
+     * Reads chunks from the source and adds them to the window (and to the given list of chunks to send) until the window is full or the whole file
+     * has been read.  Note that this reads the source while holding our lock, so the source should be something quick, like a file.
+     *
+     * @param _toSend the list to add the chunks to send to
+     * @throws IOException on any problem reading the source
+     */
+    private void fillWindow( final List<Send> _toSend ) throws IOException {
+
+        // we always read one chunk ahead, so we know which chunk is the last one...
+        if( (readAhead == null) && !allRead )
+            readAhead = readChunk();
+
+        while( !done && (window.size() < depth) && (readAhead != null) ) {
+            ByteBuffer bytes = readAhead;
+            readAhead = (bytes.limit() < chunkBytes) ? null : readChunk();
+            boolean last = (readAhead == null);
+            allRead = last;
+
+            Chunk chunk = new Chunk( nextOffset, bytes, last );
+            nextOffset += bytes.limit();
+            window.addLast( chunk );
+            _toSend.add( chunk.send() );
+        }
+    }
+
+
+    /**
+     * Reads the next chunk from the source, returning null if there are no more bytes to read (except for an empty file, which is sent as one empty
+     * chunk).
+     *
+     * @return the chunk read, or null if there are no more
+     * @throws IOException on any problem reading the source
+     */
+    private ByteBuffer readChunk() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate( chunkBytes );
+        int read = 0;
+        while( bytes.hasRemaining() && ((read = source.read( bytes )) >= 0) ) {
+            // keep reading until the chunk is full or we hit the end...
+        }
+        bytes.flip();
+        if( !bytes.hasRemaining() && (read < 0) && anyRead )
+            return null;
+        anyRead = true;
+        return bytes;
+    }
+
+
+    /**
+     * Sends the given chunk requests.  Note that this is never called while holding our lock, as sending may block on the link.
+     *
+     * @param _sends the chunk requests to send
+     */
+    private void send( final List<Send> _sends ) {
+        for( Send s : _sends ) {
+            datalogger.requestFileSend( fileName, s.chunk.offset, s.chunk.bytes.duplicate(), s.chunk.last )
+                    .whenComplete( (rspMsg, e) -> onResponse( s, e ) );
+        }
+    }
+
+
+    /**
+     * Handles the response (or failure) of the given chunk request, then either completes the upload, goes back to resend the oldest unacknowledged
+     * chunk and everything after it, or sends whatever new chunks will fit into the window.
+     *
+     * @param _send the chunk request that was answered
+     * @param _e the reason the request failed, or null if it succeeded
+     */
+    private void onResponse( final Send _send, final Throwable _e ) {
+
+        List<Send> toSend   = new ArrayList<>();
+        Long       complete = null;
+        Throwable  cause    = (_e instanceof CompletionException) && (_e.getCause() != null) ? _e.getCause() : _e;
+        Chunk      chunk    = _send.chunk;
+
+        synchronized( this ) {
+
+            // if we've already completed or failed, there's nothing more to do...
+            if( done )
+                return;
+
+            // a success from any send of a chunk means the datalogger has it; a failure only counts if it's from the chunk's latest send...
+            if( cause == null ) {
+                chunk.acked = true;
+            }
+            else if( chunk.acked || (_send.sendNumber != chunk.sendNumber) ) {
+                cause = null;
+            }
+            else if( isFatal( cause ) ) {
+                done = true;
+            }
+            else {
+                chunk.failure = cause;
+                cause = null;
+            }
+
+            if( !done ) {
+
+                // drop any acknowledged chunks from the front of the window...
+                while( !window.isEmpty() && window.peekFirst().acked )
+                    window.removeFirst();
+
+                // if the oldest unacknowledged chunk failed, go back and resend it and everything after it...
+                Chunk oldest = window.peekFirst();
+                if( (oldest != null) && (oldest.failure != null) ) {
+                    oldest.attempts++;
+                    if( oldest.attempts >= MAX_CHUNK_ATTEMPTS ) {
+                        done  = true;
+                        cause = oldest.failure;
+                    }
+                    else {
+                        LOGGER.info( "Sending " + fileName + " at offset " + oldest.offset + " failed; resending " + window.size() + " chunks: "
+                                + oldest.failure.getMessage() );
+                        for( Chunk c : window )
+                            if( !c.acked )
+                                toSend.add( c.send() );
+                    }
+                }
+
+                // if we're all done, say so; otherwise keep the window full...
+                if( !done ) {
+                    if( window.isEmpty() && allRead ) {
+                        done     = true;
+                        complete = nextOffset;
+                    }
+                    else {
+                        try {
+                            fillWindow( toSend );
+                        }
+                        catch( IOException _ioe ) {
+                            done  = true;
+                            cause = _ioe;
+                        }
+                    }
+                }
+            }
+        }
+
+        // complete, fail, or send whatever we need to...
+        if( complete != null )
+            result.complete( complete );
+        else if( cause != null )
+            result.completeExceptionally( cause );
+        else
+            send( toSend );
+    }
+
+
+    /**
+     * Returns true if the given failure means there's no point in sending anything again: the datalogger refused the file itself, rather than just
+     * a chunk of it.
+     *
+     * @param _cause the reason a chunk request failed
+     * @return true if the upload should fail right away
+     */
+    private boolean isFatal( final Throwable _cause ) {
+        return (_cause instanceof ResponseCodeException)
+                && (((ResponseCodeException) _cause).responseCode != ResponseCode.InvalidFragment);
+    }
+
+
+    /**
+     * A chunk of the file to send, which stays in the window until the datalogger acknowledges it.
+     */
+    private static class Chunk {
+
+        final private long       offset;      // the offset of the first byte of the chunk in the file...
+        final private ByteBuffer bytes;       // the bytes of the chunk...
+        final private boolean    last;        // true if this is the last chunk of the file...
+
+        private int       attempts;     // the number of times this chunk has failed as the oldest in the window...
+        private int       sendNumber;   // identifies the latest send of this chunk...
+        private boolean   acked;        // true once the datalogger has acknowledged this chunk...
+        private Throwable failure;      // the reason the latest send of this chunk failed, or null if it hasn't...
+
+        private Chunk( final long _offset, final ByteBuffer _bytes, final boolean _last ) {
+            offset = _offset;
+            bytes  = _bytes;
+            last   = _last;
+        }
+
+
+        /**
+         * Returns a new send of this chunk, marking it as in flight.  This must be called while holding the upload's lock.
+         *
+         * @return the new send of this chunk
+         */
+        private Send send() {
+            sendNumber++;
+            failure = null;
+            return new Send( this, sendNumber );
+        }
+    }
+
+
+    /**
+     * One send of a chunk, so that responses to earlier sends of the same chunk can be told apart.
+     */
+    private static class Send {
+
+        final private Chunk chunk;
+        final private int   sendNumber;
+
+        private Send( final Chunk _chunk, final int _sendNumber ) {
+            chunk      = _chunk;
+            sendNumber = _sendNumber;
+        }
+    }
+}
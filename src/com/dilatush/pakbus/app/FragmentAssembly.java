@@ -0,0 +1,251 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.messages.bmp5.CollectDataRspMsg;
+import com.dilatush.pakbus.shims.DataQuery;
+import com.dilatush.pakbus.types.CompositeDataType;
+import com.dilatush.pakbus.values.Datum;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class collect a record that is too large to fit into a single collection response.  When a datalogger can't fit a record into
+ * a response, it returns the first fragment of it instead: the bytes of the record starting at some byte offset, as many as will fit.  The rest of
+ * the record is requested here as fragments at successive byte offsets (several in flight at once), each of which is copied into place in a buffer
+ * as big as the whole record.  When every byte has arrived the record is decoded, once.  A fragment shorter than requested simply leaves a hole,
+ * which is requested in turn; a fragment request that fails is retried (up to a limit).  Only fixed-length records can be assembled this way, as
+ * the size of the record must be known in advance.  Instances of this class are single use, mutable, and threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class FragmentAssembly {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private int MAX_FRAGMENT_ATTEMPTS = 3;   // the most times we'll request any one fragment...
+
+    final private Datalogger                datalogger;
+    final private DataQuery                 query;
+    final private CompositeDataType[]       recType;        // deserialization and presentation types for the record...
+    final private int                       recordNumber;
+    final private byte[]                    record;         // the bytes of the record, as they arrive...
+    final private BitSet                    received;       // the bytes of the record that have arrived...
+    final private int                       depth;          // the most fragments to have in flight at once...
+    final private CompletableFuture<Datum>  result;
+
+    private int     fragmentBytes;   // the number of bytes to expect in each fragment, from the first one...
+    private int     nextOffset;      // the offset of the first byte not yet requested...
+    private int     inFlight;        // the number of fragments requested but not yet answered...
+    private boolean done;            // true once we've completed or failed...
+
+
+    /**
+     * Creates a new instance of this class that will assemble the record that the given fragment is part of.
+     *
+     * @param _datalogger the datalogger to collect the fragments from
+     * @param _query the query specifying the table and fields being collected
+     * @param _recType the deserialization and presentation data types for the record
+     * @param _first the fragment the datalogger returned in place of the record
+     * @param _depth the most fragment requests to have in flight at once
+     */
+    /*package*/ FragmentAssembly( final Datalogger _datalogger, final DataQuery _query, final CompositeDataType[] _recType,
+                                  final Datalogger.RecordFragment _first, final int _depth ) {
+
+        // sanity check...
+        int recordBytes = _recType[0].bits() >>> 3;
+        if( recordBytes == 0 )
+            throw new UnsupportedOperationException( "Collecting fragments of variable length records is not supported" );
+
+        datalogger    = _datalogger;
+        query         = _query;
+        recType       = _recType;
+        recordNumber  = _first.recordNumber;
+        record        = new byte[recordBytes];
+        received      = new BitSet( recordBytes );
+        depth         = _depth;
+        result        = new CompletableFuture<>();
+        fragmentBytes = Math.max( 1, _first.bytes.remaining() );
+        nextOffset    = 0;
+
+        // the first fragment might not be at offset zero, though it always is in practice...
+        put( _first );
+    }
+
+
+    /**
+     * Starts assembling, returning a future that will be completed with the decoded record.
+     *
+     * @return the future decoded record
+     */
+    /*package*/ CompletableFuture<Datum> start() {
+        List<Fragment> toSend = new ArrayList<>();
+        Datum assembled;
+        synchronized( this ) {
+            assembled = assembledRecord();
+            if( assembled == null )
+                toSend.addAll( nextFragments() );
+        }
+        if( assembled != null )
+            result.complete( assembled );
+        send( toSend );
+        return result;
+    }
+
+
+    /**
+     * Copies the given fragment into our record buffer, ignoring any part of it that lies outside the record.
+     *
+     * @param _fragment the fragment to copy
+     */
+    private synchronized void put( final Datalogger.RecordFragment _fragment ) {
+        int length = Math.min( _fragment.bytes.remaining(), record.length - _fragment.offset );
+        if( (_fragment.offset < 0) || (length <= 0) )
+            return;
+        _fragment.bytes.duplicate().get( record, _fragment.offset, length );
+        received.set( _fragment.offset, _fragment.offset + length );
+    }
+
+
+    /**
+     * Returns the decoded record if all of its bytes have arrived, or null otherwise.
+     *
+     * @return the decoded record, or null if it isn't complete yet
+     */
+    private synchronized Datum assembledRecord() {
+        if( received.cardinality() < record.length )
+            return null;
+        done = true;
+        return datalogger.decodeRecord( recType, ByteBuffer.wrap( record ), recordNumber );
+    }
+
+
+    /**
+     * Returns the fragments that should be requested now to fill the pipeline, marking them as in flight.  Holes left by short fragments are
+     * requested before anything new.
+     *
+     * @return the fragments to request
+     */
+    private synchronized List<Fragment> nextFragments() {
+
+        List<Fragment> fragments = new ArrayList<>();
+        while( !done && (inFlight < depth) ) {
+
+            // find the next byte we haven't requested, skipping over any we already have...
+            int offset = received.nextClearBit( nextOffset );
+            if( offset >= record.length )
+                break;
+            fragments.add( new Fragment( offset, 1 ) );
+            nextOffset = offset + fragmentBytes;
+            inFlight++;
+        }
+        return fragments;
+    }
+
+
+    /**
+     * Sends requests for the given fragments.  Note that this is never called while holding our lock, as sending may block on the link.
+     *
+     * @param _fragments the fragments to request
+     */
+    private void send( final List<Fragment> _fragments ) {
+        for( Fragment fragment : _fragments ) {
+            datalogger.requestRecordFragment( query, recordNumber, fragment.offset )
+                    .whenComplete( (rspMsg, e) -> onResponse( fragment, rspMsg, e ) );
+        }
+    }
+
+
+    /**
+     * Handles the response (or failure) of the request for the given fragment, then either completes the record or requests whatever fragments are
+     * needed to keep the pipeline full.
+     *
+     * @param _fragment the fragment that was requested
+     * @param _rspMsg the response message, or null if the request failed
+     * @param _e the reason the request failed, or null if it succeeded
+     */
+    private void onResponse( final Fragment _fragment, final CollectDataRspMsg _rspMsg, final Throwable _e ) {
+
+        List<Fragment> toSend    = new ArrayList<>();
+        Datum          assembled = null;
+        Throwable      cause     = (_e instanceof CompletionException) && (_e.getCause() != null) ? _e.getCause() : _e;
+
+        // pick the fragment out of the response...
+        Datalogger.RecordFragment fragment = null;
+        if( cause == null ) {
+            try {
+                fragment = datalogger.decodeRecords( _rspMsg, recType, new ArrayList<>() );
+                if( (fragment == null) || (fragment.recordNumber != recordNumber) || (fragment.offset != _fragment.offset)
+                        || !fragment.bytes.hasRemaining() )
+                    throw new IllegalStateException( "Expected fragment of record " + recordNumber + " at offset " + _fragment.offset );
+            }
+            catch( RuntimeException _re ) {
+                cause = _re;
+            }
+        }
+
+        synchronized( this ) {
+
+            // if we've already completed or failed, there's nothing more to do...
+            if( done )
+                return;
+            inFlight--;
+
+            // if the request failed, either try it again or give up...
+            if( cause != null ) {
+                if( _fragment.attempts >= MAX_FRAGMENT_ATTEMPTS ) {
+                    done = true;
+                }
+                else {
+                    LOGGER.info( "Collection of record " + recordNumber + " fragment at " + _fragment.offset + " failed; retrying: "
+                            + cause.getMessage() );
+                    toSend.add( new Fragment( _fragment.offset, _fragment.attempts + 1 ) );
+                    inFlight++;
+                    cause = null;
+                }
+            }
+
+            // otherwise, put it in place, and see if we're done...
+            else {
+                put( fragment );
+                assembled = assembledRecord();
+
+                // if this fragment was short, request the hole it left right away...
+                int end = _fragment.offset + fragment.bytes.remaining();
+                if( (assembled == null) && (end < nextOffset) && !received.get( end ) ) {
+                    toSend.add( new Fragment( end, 1 ) );
+                    inFlight++;
+                }
+            }
+            if( !done )
+                toSend.addAll( nextFragments() );
+        }
+
+        // complete, fail, or keep the pipeline full...
+        if( assembled != null )
+            result.complete( assembled );
+        else if( cause != null )
+            result.completeExceptionally( cause );
+        else
+            send( toSend );
+    }
+
+
+    /**
+     * A fragment of the record to request.
+     */
+    private static class Fragment {
+
+        final private int offset;     // the byte offset of the fragment in the record...
+        final private int attempts;   // the number of times this fragment has been requested, including this one...
+
+        private Fragment( final int _offset, final int _attempts ) {
+            offset   = _offset;
+            attempts = _attempts;
+        }
+    }
+}
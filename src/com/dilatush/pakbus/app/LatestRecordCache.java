@@ -0,0 +1,191 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.DataQuery;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.util.SingleFlight;
+import com.dilatush.pakbus.values.Datum;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class hold the most recent record collected from one table in one datalogger, so that any number of readers can get it without
+ * each of them polling the datalogger.  A record younger than the cache's freshness is returned straight from memory.  A record older than that, but
+ * still within the maximum staleness, is also returned from memory - but it also starts a refresh in the background, so the next reader gets a fresh
+ * record (stale-while-revalidate).  Only when there's no record at all, or the record is older than the maximum staleness, does a reader have to
+ * wait for the datalogger.  However many readers there are, there's only ever one refresh in flight, so the link carries at most about one poll per
+ * table per freshness period.  Get an instance with {@link Datalogger#getLatestRecordCache(String)}.  Note that the record returned is shared by all
+ * readers, and must not be modified.  Instances of this class are mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class LatestRecordCache {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static public Duration DEFAULT_FRESHNESS     = Duration.ofSeconds( 10 );
+    final static public Duration DEFAULT_MAX_STALENESS = Duration.ofSeconds( 60 );
+
+    final public Datalogger datalogger;
+    final public String     tableName;
+
+    final private SingleFlight<Long,Datum> refresher;    // makes sure there's only one refresh in flight per generation...
+    final private AtomicLong               generation;   // bumped by each invalidation...
+
+    private volatile Snapshot snapshot;           // the most recent record, or null if we don't have one...
+    private volatile long     freshnessNanos;     // how long a record is fresh...
+    private volatile long     maxStalenessNanos;  // how long a record may be returned at all...
+
+
+    /**
+     * Creates a new instance of this class for the given datalogger and table, with the default freshness and maximum staleness.
+     *
+     * @param _datalogger the datalogger to collect from
+     * @param _tableName the name of the table to collect from
+     */
+    /*package*/ LatestRecordCache( final Datalogger _datalogger, final String _tableName ) {
+        datalogger        = _datalogger;
+        tableName         = _tableName;
+        refresher         = new SingleFlight<>();
+        generation        = new AtomicLong();
+        freshnessNanos    = DEFAULT_FRESHNESS.toNanos();
+        maxStalenessNanos = DEFAULT_MAX_STALENESS.toNanos();
+    }
+
+
+    /**
+     * Sets how long after it was collected a record is fresh (and is returned without refreshing it).
+     *
+     * @param _freshness how long a record is fresh
+     */
+    public void setFreshness( final Duration _freshness ) {
+        Checks.required( _freshness );
+        Checks.isTrue( !_freshness.isNegative(), "Invalid freshness: " + _freshness );
+        freshnessNanos = _freshness.toNanos();
+    }
+
+
+    /**
+     * Sets how long after it was collected a record may be returned at all (while a refresh is running in the background).  If this is no longer
+     * than the freshness, stale records are never returned.
+     *
+     * @param _maxStaleness how long a record may be returned at all
+     */
+    public void setMaxStaleness( final Duration _maxStaleness ) {
+        Checks.required( _maxStaleness );
+        Checks.isTrue( !_maxStaleness.isNegative(), "Invalid maximum staleness: " + _maxStaleness );
+        maxStalenessNanos = _maxStaleness.toNanos();
+    }
+
+
+    /**
+     * Returns the most recent record from the table, or null if there was a problem getting it.
+     *
+     * @return the most recent record from the table, or null if there was a problem
+     */
+    public Datum get() {
+        try {
+            return getAsync().get();
+        }
+        catch( InterruptedException _e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( Exception _e ) {
+            LOGGER.log( Level.WARNING, "Could not get latest record from " + tableName, _e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns a future that will be completed with the most recent record from the table.  If we have a fresh record, the future is already
+     * completed.  If we have a stale (but not too stale) record, the future is already completed with it, and a refresh is started in the background.
+     * Otherwise the future is completed when the refresh completes.
+     *
+     * @return the future most recent record from the table
+     */
+    public CompletableFuture<Datum> getAsync() {
+
+        // if we have a fresh record, we're done...
+        Snapshot current = snapshot;
+        long age = (current == null) ? Long.MAX_VALUE : System.nanoTime() - current.collectedNanos;
+        if( age <= freshnessNanos )
+            return CompletableFuture.completedFuture( current.record );
+
+        // if our record is stale, but not too stale, return it and refresh in the background...
+        if( age <= maxStalenessNanos ) {
+            refresh().exceptionally( _e -> {
+                LOGGER.log( Level.INFO, "Background refresh of latest record from " + tableName + " failed", _e );
+                return null;
+            } );
+            return CompletableFuture.completedFuture( current.record );
+        }
+
+        // otherwise, we've got to wait for a refresh...
+        return refresh();
+    }
+
+
+    /**
+     * Forgets the record we're holding, so that the next reader waits for a new one.  Any refresh already in flight was started before this call
+     * (and so may have collected a record from before it), so its record is neither kept nor shared with readers arriving after this call - they
+     * wait for a refresh of their own.
+     */
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+
+    /**
+     * Starts collecting the most recent record from the table (unless that's already in flight), returning a future that will be completed with it.
+     *
+     * @return the future most recent record from the table
+     */
+    private CompletableFuture<Datum> refresh() {
+        long started = generation.get();
+        return refresher.run( started, () -> datalogger.getTableDefinitionsAsync().thenCompose( tds -> {
+
+            // collect the most recent record from our table (streaming it, because a plain collection would share any identical collection in
+            // flight - which might have been started before we were invalidated)...
+            TableDefinition td = tds.getTableDef( tableName );
+            Checks.isNonNull( td, "Table not found in datalogger " + datalogger.name + ": " + tableName );
+            DataQuery query = new DataQuery( td.index, td.signature );
+            long startNanos = System.nanoTime();
+            List<Datum> records = new ArrayList<>();
+            return datalogger.streamMostRecent( query, 1, records::addAll, Runnable::run ).thenApply( count -> {
+                Checks.isTrue( !records.isEmpty(), "No records in table " + tableName + " of datalogger " + datalogger.name );
+
+                // the record is as old as the moment we asked for it; keep it, unless we've been invalidated since we asked...
+                Datum record = records.get( 0 );
+                synchronized( this ) {
+                    if( generation.get() == started )
+                        snapshot = new Snapshot( record, startNanos );
+                }
+                return record;
+            } );
+        } ) );
+    }
+
+
+    /**
+     * A record, and when it was collected.
+     */
+    private static class Snapshot {
+
+        final private Datum record;
+        final private long  collectedNanos;   // the System.nanoTime() when the record was requested...
+
+        private Snapshot( final Datum _record, final long _collectedNanos ) {
+            record         = _record;
+            collectedNanos = _collectedNanos;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.DataQuery;
+import com.dilatush.pakbus.types.CompositeDataType;
+import com.dilatush.pakbus.values.Datum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class collect a range of records from a table in a datalogger, keeping several requests in flight at once.  The range is split
+ * into windows of consecutive record numbers, each sized so that its records should fit in a single response, and each window is requested with its
+ * own "range of record numbers" collection request.  As each response arrives another window is requested, so on a slow link the datalogger always
+ * has a request to answer.  Responses may arrive in any order; they're reassembled in record number order before being delivered.  A window whose
+ * response didn't hold all its records has its remainder requested as a new window, and a window whose request failed is requested again (up to a
+ * limit).  Record numbers missing from the datalogger (overwritten, or never written) simply leave gaps in the result.  Instances of this class are
+ * single use, mutable, and threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class PipelinedCollection {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private int MAX_WINDOW_ATTEMPTS = 3;   // the most times we'll request any one window...
+
+    final private Datalogger                     datalogger;
+    final private DataQuery                      query;
+    final private CompositeDataType[]            recType;         // deserialization and presentation types for the records...
+    final private int                            endRecord;       // the first record number to not collect...
+    final private int                            windowRecords;   // the number of records to request in each window...
+    final private int                            depth;           // the most windows to have in flight at once...
+    final private Map<Integer,Chunk>             received;        // windows received but not yet delivered, by first record number...
+    final private List<Datum>                    records;         // the records delivered so far, in order...
+    final private CompletableFuture<List<Datum>> result;
+
+    private int     nextRecord;    // the first record number not yet requested...
+    private int     deliveredTo;   // the first record number not yet delivered...
+    private int     inFlight;      // the number of windows requested but not yet answered...
+    private boolean failed;
+
+
+    /**
+     * Creates a new instance of this class that will collect the given range of records.
+     *
+     * @param _datalogger the datalogger to collect records from
+     * @param _query the query specifying the table and fields to collect data from
+     * @param _recType the deserialization and presentation data types for the records
+     * @param _startRecord the first record number to collect
+     * @param _endRecord the first record number to <i>not</i> collect
+     * @param _windowRecords the number of records to request in each window
+     * @param _depth the most windows to have in flight at once
+     */
+    /*package*/ PipelinedCollection( final Datalogger _datalogger, final DataQuery _query, final CompositeDataType[] _recType, final int _startRecord,
+                                     final int _endRecord, final int _windowRecords, final int _depth ) {
+        datalogger    = _datalogger;
+        query         = _query;
+        recType       = _recType;
+        endRecord     = _endRecord;
+        windowRecords = _windowRecords;
+        depth         = _depth;
+        received      = new HashMap<>();
+        records       = new ArrayList<>();
+        result        = new CompletableFuture<>();
+        nextRecord    = _startRecord;
+        deliveredTo   = _startRecord;
+    }
+
+
+    /**
+     * Starts collecting, returning a future that will be completed with the list of collected records, in record number order.
+     *
+     * @return the future list of collected records
+     */
+    /*package*/ CompletableFuture<List<Datum>> start() {
+
+        // if the range is empty, there's nothing to do...
+        if( endRecord - deliveredTo <= 0 )
+            result.complete( records );
+        else
+            send( nextWindows() );
+        return result;
+    }
+
+
+    /**
+     * Returns the windows that should be requested now to fill the pipeline, marking them as in flight.
+     *
+     * @return the windows to request
+     */
+    private synchronized List<Window> nextWindows() {
+
+        List<Window> windows = new ArrayList<>();
+        while( !failed && (inFlight < depth) && (endRecord - nextRecord > 0) ) {
+            int end = (endRecord - nextRecord > windowRecords) ? nextRecord + windowRecords : endRecord;
+            windows.add( new Window( nextRecord, end, 1 ) );
+            nextRecord = end;
+            inFlight++;
+        }
+        return windows;
+    }
+
+
+    /**
+     * Sends requests for the given windows.  Note that this is never called while holding our lock, as sending may block on the link.
+     *
+     * @param _windows the windows to request
+     */
+    private void send( final List<Window> _windows ) {
+        for( Window window : _windows ) {
+            datalogger.requestRecordRange( query, window.start, window.end )
+                    .thenCompose( rspMsg -> datalogger.decodeBlock( query, rspMsg, recType )
+                            .thenApply( decoded -> new Block( decoded, rspMsg.moreRecords ) ) )
+                    .whenComplete( (block, e) -> onResponse( window, block, e ) );
+        }
+    }
+
+
+    /**
+     * Handles the response (or failure) of the request for the given window, then requests whatever windows are needed to keep the pipeline full.
+     *
+     * @param _window the window that was requested
+     * @param _block the records decoded from the response, or null if the request failed
+     * @param _e the reason the request failed, or null if it succeeded
+     */
+    private void onResponse( final Window _window, final Block _block, final Throwable _e ) {
+
+        List<Window> toSend = new ArrayList<>();
+        List<Datum>  done   = null;
+        boolean      giveUp = false;
+        Throwable    cause  = (_e instanceof CompletionException) && (_e.getCause() != null) ? _e.getCause() : _e;
+
+        // make sure we can tell where to continue from...
+        if( (cause == null) && _block.moreRecords && _block.records.isEmpty() )
+            cause = new IllegalStateException( "Collection response had no complete records, but claimed to have more" );
+
+        synchronized( this ) {
+
+            // if we've already failed, there's nothing more to do...
+            if( failed )
+                return;
+            inFlight--;
+
+            // if the request failed, either try it again or give up...
+            if( cause != null ) {
+                if( _window.attempts >= MAX_WINDOW_ATTEMPTS ) {
+                    failed = true;
+                    giveUp = true;
+                }
+                else {
+                    LOGGER.info( "Collection of records " + _window.start + " to " + _window.end + " failed; retrying: " + cause.getMessage() );
+                    toSend.add( new Window( _window.start, _window.end, _window.attempts + 1 ) );
+                    inFlight++;
+                }
+            }
+
+            // otherwise we've got what the datalogger had for this window, though maybe not all of it...
+            else {
+                int chunkEnd = _window.end;
+                if( _block.moreRecords ) {
+                    int lastRecord = Datalogger.getRecordNumber( _block.records.get( _block.records.size() - 1 ) );
+                    if( _window.end - (lastRecord + 1) > 0 ) {
+                        chunkEnd = lastRecord + 1;
+                        toSend.add( new Window( chunkEnd, _window.end, 1 ) );
+                        inFlight++;
+                    }
+                }
+                received.put( _window.start, new Chunk( chunkEnd, _block.records ) );
+
+                // deliver whatever we now have in order...
+                Chunk chunk;
+                while( (chunk = received.remove( deliveredTo )) != null ) {
+                    records.addAll( chunk.records );
+                    deliveredTo = chunk.end;
+                }
+                if( endRecord - deliveredTo <= 0 )
+                    done = records;
+            }
+        }
+
+        // complete, fail, or keep the pipeline full...
+        if( done != null )
+            result.complete( done );
+        else if( giveUp )
+            result.completeExceptionally( cause );
+        else {
+            toSend.addAll( nextWindows() );
+            send( toSend );
+        }
+    }
+
+
+    /**
+     * A range of record numbers to request.
+     */
+    private static class Window {
+
+        final private int start;      // the first record number to collect...
+        final private int end;        // the first record number to not collect...
+        final private int attempts;   // the number of times this window has been requested, including this one...
+
+        private Window( final int _start, final int _end, final int _attempts ) {
+            start    = _start;
+            end      = _end;
+            attempts = _attempts;
+        }
+    }
+
+
+    /**
+     * The records decoded from a response, and whether the datalogger had more records it couldn't fit in.
+     */
+    private static class Block {
+
+        final private List<Datum> records;
+        final private boolean     moreRecords;
+
+        private Block( final List<Datum> _records, final boolean _moreRecords ) {
+            records     = _records;
+            moreRecords = _moreRecords;
+        }
+    }
+
+
+    /**
+     * The records received for a range of record numbers.
+     */
+    private static class Chunk {
+
+        final private int         end;       // the first record number after this chunk...
+        final private List<Datum> records;
+
+        private Chunk( final int _end, final List<Datum> _records ) {
+            end     = _end;
+            records = _records;
+        }
+    }
+}
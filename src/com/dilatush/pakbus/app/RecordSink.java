@@ -0,0 +1,43 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.values.Datum;
+
+import java.util.List;
+
+/**
+ * Implemented by classes that consume records as they're collected from a datalogger, one block (the records in one response) at a time.  The
+ * blocks are delivered in the order they were collected in, and the request for the next block isn't sent until the previous block has been
+ * accepted - so a sink that takes a while to accept a block (say, while writing it to a database) slows collection down to match, rather than
+ * letting records pile up in memory.  Exactly one of {@link #complete()} or {@link #failed(Throwable, long)} is called when collection ends.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface RecordSink {
+
+
+    /**
+     * Accepts the given block of collected records.  Each record has the same properties as those returned by the collection methods of
+     * {@link Datalogger}.  Throwing an exception from this method stops the collection, which then fails with that exception.
+     *
+     * @param _records the block of collected records
+     */
+    void accept( final List<Datum> _records );
+
+
+    /**
+     * Called after the last block of records has been accepted, when the collection has completed successfully.
+     */
+    default void complete() {
+    }
+
+
+    /**
+     * Called when the collection has failed, after the last block that was collected successfully has been accepted.  Every record up to and
+     * including the given record number was delivered, so the collection can be resumed from the record after it.
+     *
+     * @param _cause the reason the collection failed
+     * @param _lastRecordNumber the record number of the last record accepted, or -1 if no records were accepted
+     */
+    default void failed( final Throwable _cause, final long _lastRecordNumber ) {
+    }
+}
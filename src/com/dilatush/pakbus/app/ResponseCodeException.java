@@ -0,0 +1,27 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.messages.bmp5.ResponseCode;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when a datalogger answers a request with a response code indicating an error.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ResponseCodeException extends TransactionException {
+
+    final static private long serialVersionUID = 1L;
+
+    final public ResponseCode responseCode;   // the response code the datalogger returned...
+
+
+    /**
+     * Creates a new instance of this class for the given request class and response code.
+     *
+     * @param _requestClass the class of the request message that failed
+     * @param _responseCode the response code the datalogger returned
+     */
+    public ResponseCodeException( final Class<?> _requestClass, final ResponseCode _responseCode ) {
+        super( _requestClass, _requestClass.getSimpleName() + " failed with response code " + _responseCode );
+        responseCode = _responseCode;
+    }
+}
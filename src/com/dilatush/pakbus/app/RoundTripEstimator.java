@@ -0,0 +1,169 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.HopCount;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instances of this class estimate the round-trip time to a datalogger, and from that compute the retransmission timeout for requests to it.  The
+ * estimate follows Jacobson and Karels: a smoothed round-trip time and a smoothed mean deviation are updated from each sample, and the timeout is the
+ * smoothed time plus four deviations.  Because PakBus requests and responses vary from a few bytes to a thousand, the part of each round trip that
+ * depends on packet size is estimated separately (by a smoothed linear fit of round-trip time against bytes), taken out of each sample before it's
+ * smoothed, and added back in for the size of each new request.  Before any samples have been taken, the timeout is a conservative constant scaled by
+ * the datalogger's hop count.  Each retransmission doubles the timeout (exponential backoff), up to a maximum.  Only requests answered without being
+ * retransmitted provide samples (Karn's algorithm), as there is no way to tell which transmission a response to a retransmitted request answers.
+ * Instances of this class are mutable and threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RoundTripEstimator {
+
+    final static public  int  DEFAULT_MAX_RETRANSMITS = 4;
+
+    final static private long INITIAL_TIMEOUT_NANOS   = TimeUnit.MILLISECONDS.toNanos( 2000 );   // per hop, before we have any samples...
+    final static private long MIN_TIMEOUT_NANOS       = TimeUnit.MILLISECONDS.toNanos(  200 );
+    final static private long MAX_TIMEOUT_NANOS       = TimeUnit.SECONDS.toNanos(        60 );
+    final static private long GRANULARITY_NANOS       = TimeUnit.MILLISECONDS.toNanos(   20 );   // floor on the deviation term...
+    final static private int  DEFAULT_RESPONSE_BYTES  = 100;                                      // guess until we've seen some responses...
+
+    final private int hops;
+
+    private boolean sampled;          // true once we've taken at least one sample...
+    private double  srtt;             // smoothed round-trip time, less the size-dependent part, in nanoseconds...
+    private double  rttvar;           // smoothed mean deviation of the above, in nanoseconds...
+    private double  meanBytes;        // smoothed mean of bytes (request plus response) per sample...
+    private double  meanRtt;          // smoothed mean of round-trip time per sample, in nanoseconds...
+    private double  covBytesRtt;      // smoothed covariance of bytes and round-trip time...
+    private double  varBytes;         // smoothed variance of bytes...
+    private double  responseBytes;    // smoothed mean of response bytes...
+    private int     maxRetransmits;
+
+
+    /**
+     * Creates a new instance of this class for a datalogger at the given hop count.
+     *
+     * @param _hopCount the hop count to the datalogger
+     */
+    public RoundTripEstimator( final HopCount _hopCount ) {
+
+        // sanity check...
+        Checks.required( _hopCount );
+
+        hops           = _hopCount.getHops();
+        responseBytes  = DEFAULT_RESPONSE_BYTES;
+        maxRetransmits = DEFAULT_MAX_RETRANSMITS;
+    }
+
+
+    /**
+     * Updates this estimator with a sample round trip for a request of the given size that was answered by a response of the given size.
+     *
+     * @param _rttNanos the measured round-trip time, in nanoseconds
+     * @param _requestBytes the size of the request packet, in bytes
+     * @param _responseBytes the size of the response packet, in bytes
+     */
+    public synchronized void sample( final long _rttNanos, final int _requestBytes, final int _responseBytes ) {
+
+        int bytes = _requestBytes + _responseBytes;
+
+        // update our fit of round-trip time against packet size (the first sample just seeds the means)...
+        if( !sampled ) {
+            meanBytes     = bytes;
+            meanRtt       = _rttNanos;
+            responseBytes = _responseBytes;
+        }
+        else {
+            double dBytes = bytes - meanBytes;
+            double dRtt   = _rttNanos - meanRtt;
+            meanBytes     += dBytes / 8;
+            meanRtt       += dRtt / 8;
+            covBytesRtt   += (dBytes * dRtt - covBytesRtt) / 8;
+            varBytes      += (dBytes * dBytes - varBytes) / 8;
+            responseBytes += (_responseBytes - responseBytes) / 8;
+        }
+
+        // take the size-dependent part out of the sample, and smooth what's left...
+        double rtt = Math.max( 0, _rttNanos - nanosPerByte() * bytes );
+        if( !sampled ) {
+            srtt    = rtt;
+            rttvar  = rtt / 2;
+            sampled = true;
+        }
+        else {
+            rttvar += (Math.abs( srtt - rtt ) - rttvar) / 4;
+            srtt   += (rtt - srtt) / 8;
+        }
+    }
+
+
+    /**
+     * Returns the timeout for a request of the given size that has already been retransmitted the given number of times.
+     *
+     * @param _requestBytes the size of the request packet, in bytes
+     * @param _retransmits the number of times the request has been retransmitted
+     * @return the timeout, in nanoseconds
+     */
+    public synchronized long timeoutNanos( final int _requestBytes, final int _retransmits ) {
+
+        // get our base timeout...
+        double timeout = sampled
+                ? srtt + Math.max( GRANULARITY_NANOS, 4 * rttvar ) + nanosPerByte() * (_requestBytes + responseBytes)
+                : INITIAL_TIMEOUT_NANOS * (1 + hops);
+        timeout = Math.min( MAX_TIMEOUT_NANOS, Math.max( MIN_TIMEOUT_NANOS, timeout ) );
+
+        // then back it off for each retransmission...
+        return Math.min( MAX_TIMEOUT_NANOS, ((long) timeout) << Math.min( _retransmits, 16 ) );
+    }
+
+
+    /**
+     * Returns the estimated size-dependent part of a round trip, in nanoseconds per byte.
+     *
+     * @return the estimated nanoseconds per byte
+     */
+    private double nanosPerByte() {
+        return (varBytes > 0) ? Math.max( 0, covBytesRtt / varBytes ) : 0;
+    }
+
+
+    /**
+     * Returns the smoothed round-trip time (for a packet of average size), in nanoseconds, or zero if there have been no samples yet.
+     *
+     * @return the smoothed round-trip time, in nanoseconds
+     */
+    public synchronized long getSmoothedRoundTripNanos() {
+        return sampled ? (long)(srtt + nanosPerByte() * meanBytes) : 0;
+    }
+
+
+    /**
+     * Returns the smoothed mean deviation of the round-trip time, in nanoseconds, or zero if there have been no samples yet.
+     *
+     * @return the smoothed round-trip time deviation, in nanoseconds
+     */
+    public synchronized long getRoundTripDeviationNanos() {
+        return (long) rttvar;
+    }
+
+
+    /**
+     * Returns the maximum number of times a request will be retransmitted before its transaction fails.
+     *
+     * @return the maximum number of retransmissions
+     */
+    public synchronized int getMaxRetransmits() {
+        return maxRetransmits;
+    }
+
+
+    /**
+     * Sets the maximum number of times a request will be retransmitted before its transaction fails.
+     *
+     * @param _maxRetransmits the maximum number of retransmissions
+     */
+    public synchronized void setMaxRetransmits( final int _maxRetransmits ) {
+        Checks.inBounds( _maxRetransmits, 0, 100, "Invalid maximum number of retransmits: " + _maxRetransmits );
+        maxRetransmits = _maxRetransmits;
+    }
+}
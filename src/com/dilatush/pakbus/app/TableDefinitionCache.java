@@ -0,0 +1,168 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.ProgrammingStatistics;
+import com.dilatush.pakbus.shims.TableDefinitions;
+import com.dilatush.pakbus.util.Checks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class cache datalogger table definitions on disk, so that they needn't be read from each datalogger every time the application
+ * starts.  A datalogger's table definitions change only when a new program is loaded into it, and the program's signature (along with the
+ * datalogger's serial number) is in the datalogger's programming statistics - which takes just one small request to get.  So the cache is keyed by
+ * serial number and program signature: if we've seen that combination before, the raw ".TDF" bytes are read from a file and parsed; otherwise the
+ * ".TDF" file is read from the datalogger and saved for next time.  Parsed table definitions are kept in memory, too.  A datalogger uses a cache
+ * once it's been given one with {@link Datalogger#setTableDefinitionCache(TableDefinitionCache)}; one cache may be shared by any number of
+ * dataloggers.  Instances of this class are threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TableDefinitionCache {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final private Path                          directory;
+    final private Map<String,TableDefinitions>  parsed;      // parsed table definitions, by key...
+
+
+    /**
+     * Creates a new instance of this class that keeps its files in the given directory.
+     *
+     * @param _directory the directory to keep table definition files in
+     */
+    public TableDefinitionCache( final Path _directory ) {
+        Checks.required( _directory );
+        directory = _directory;
+        parsed    = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns a future that will be completed with the table definitions for the program currently running in the given datalogger.  The datalogger's
+     * programming statistics are always requested (to learn which program is running); the table definitions themselves are read from the
+     * datalogger only if they aren't already cached.
+     *
+     * @param _datalogger the datalogger to get table definitions for
+     * @return the future table definitions
+     */
+    public CompletableFuture<TableDefinitions> getAsync( final Datalogger _datalogger ) {
+
+        // sanity check...
+        Checks.required( _datalogger );
+
+        return _datalogger.getProgrammingStatisticsAsync().thenCompose( stats -> {
+
+            // if we've already parsed these, we're done...
+            String key = key( _datalogger, stats );
+            TableDefinitions tds = parsed.get( key );
+            if( tds != null )
+                return CompletableFuture.completedFuture( tds );
+
+            // if we've got the bytes on disk, parse them...
+            Path file = directory.resolve( key + ".tdf" );
+            tds = load( file );
+            if( tds != null ) {
+                LOGGER.fine( "Loaded table definitions for " + _datalogger.name + " from " + file );
+                parsed.put( key, tds );
+                return CompletableFuture.completedFuture( tds );
+            }
+
+            // otherwise, we've got to read them from the datalogger (and save them for next time)...
+            LOGGER.info( "Reading table definitions from " + _datalogger.name + " for program " + stats.currentProgramFileName );
+            return _datalogger.readFileAsync( ".TDF" ).thenApply( bytes -> {
+                TableDefinitions newTds = new TableDefinitions( bytes );
+                save( file, bytes );
+                parsed.put( key, newTds );
+                return newTds;
+            } );
+        } );
+    }
+
+
+    /**
+     * Removes everything from this cache, both in memory and on disk.
+     */
+    public void clear() {
+        parsed.clear();
+        if( !Files.isDirectory( directory ) )
+            return;
+        try( DirectoryStream<Path> files = Files.newDirectoryStream( directory, "*.tdf" ) ) {
+            for( Path file : files )
+                Files.deleteIfExists( file );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.WARNING, "Could not clear table definition cache in " + directory, _e );
+        }
+    }
+
+
+    /**
+     * Returns the table definitions parsed from the given file, or null if the file doesn't exist or can't be parsed.
+     *
+     * @param _file the file to load
+     * @return the parsed table definitions, or null if there was a problem
+     */
+    private TableDefinitions load( final Path _file ) {
+
+        if( !Files.exists( _file ) )
+            return null;
+
+        try {
+            return new TableDefinitions( ByteBuffer.wrap( Files.readAllBytes( _file ) ) );
+        }
+        catch( IOException | RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Could not load cached table definitions " + _file + "; reading them again", _e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Saves the given table definition bytes in the given file, writing a temporary file and then moving it into place so that a crash never leaves a
+     * partly written file behind.  Failure to save is logged, but otherwise ignored - we'll just read them again next time.
+     *
+     * @param _file the file to save the bytes in
+     * @param _bytes the table definition bytes
+     */
+    private void save( final Path _file, final ByteBuffer _bytes ) {
+
+        try {
+            Files.createDirectories( directory );
+            ByteBuffer bytes = _bytes.duplicate();
+            bytes.position( 0 );
+            byte[] content = new byte[bytes.limit()];
+            bytes.get( content );
+
+            Path temp = _file.resolveSibling( _file.getFileName() + ".tmp" );
+            Files.write( temp, content );
+            Files.move( temp, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( IOException _e ) {
+            LOGGER.log( Level.WARNING, "Could not save table definitions in " + _file, _e );
+        }
+    }
+
+
+    /**
+     * Returns the cache key for the program described by the given programming statistics: the datalogger's serial number and the program's
+     * signature.  If the datalogger didn't report a serial number, its name is used instead.
+     *
+     * @param _datalogger the datalogger the programming statistics came from
+     * @param _stats the programming statistics from the datalogger
+     * @return the cache key
+     */
+    private static String key( final Datalogger _datalogger, final ProgrammingStatistics _stats ) {
+        String serial = ((_stats.serialNumber == null) ? _datalogger.name : _stats.serialNumber).replaceAll( "[^A-Za-z0-9._-]", "_" );
+        return serial + "-" + String.format( "%04X", 0xFFFF & _stats.currentProgramSignature );
+    }
+}
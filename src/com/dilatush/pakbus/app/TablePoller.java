@@ -0,0 +1,228 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.shims.DataQuery;
+import com.dilatush.pakbus.shims.FieldDefinition;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.types.PakBusBaseDataType;
+import com.dilatush.pakbus.types.PakBusType;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.util.TimingWheel;
+import com.dilatush.pakbus.values.Datum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class poll one table in one datalogger on behalf of all the value subscriptions to it, so that however many subscribers there
+ * are, the table is polled just once per cycle.  Each poll collects the most recent record with just the fields some subscriber wants, decodes those
+ * fields once, and hands the decoded values to every subscription.  Polls run back to back, as fast as the link allows without hogging it: the next
+ * poll starts after the last one took to complete (so polling uses at most about half the link), but never sooner than the minimum poll interval
+ * after it.  When polls fail, the interval backs off.  When there are no subscriptions, the table isn't polled at all.  Instances of this class are
+ * threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class TablePoller {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private long MIN_POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 1 );    // the shortest time between polls...
+    final static private long MAX_POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 60 );   // the longest time between polls, even backed off...
+
+    final public Datalogger datalogger;
+    final public String     tableName;
+
+    final private List<ValueSubscription> subscriptions;
+
+    private boolean             running;      // true while we're polling (that is, while we have subscriptions)...
+    private boolean             inProgress;   // true while a poll is in progress...
+    private TimingWheel.Timeout pending;      // the timeout for the next poll, or null if none is scheduled...
+    private int                 failures;     // the number of polls in a row that have failed...
+
+
+    /**
+     * Creates a new instance of this class for the given datalogger and table, with no subscriptions.
+     *
+     * @param _datalogger the datalogger to poll
+     * @param _tableName the name of the table to poll
+     */
+    /*package*/ TablePoller( final Datalogger _datalogger, final String _tableName ) {
+        datalogger    = _datalogger;
+        tableName     = _tableName;
+        subscriptions = new CopyOnWriteArrayList<>();
+    }
+
+
+    /**
+     * Adds the given subscription, starting to poll right away if we weren't already.
+     *
+     * @param _subscription the subscription to add
+     */
+    /*package*/ void add( final ValueSubscription _subscription ) {
+        subscriptions.add( _subscription );
+        synchronized( this ) {
+            if( running )
+                return;
+            running = true;
+            failures = 0;
+
+            // if the last poll is still in progress, it'll schedule the next one...
+            if( inProgress )
+                return;
+        }
+        poll();
+    }
+
+
+    /**
+     * Removes the given subscription, stopping polling if it was the last one.
+     *
+     * @param _subscription the subscription to remove
+     */
+    /*package*/ synchronized void remove( final ValueSubscription _subscription ) {
+        subscriptions.remove( _subscription );
+        if( subscriptions.isEmpty() ) {
+            running = false;
+            if( pending != null ) {
+                pending.cancel();
+                pending = null;
+            }
+        }
+    }
+
+
+    /**
+     * Polls the table once, delivers the results to all our subscriptions, then schedules the next poll.
+     */
+    private void poll() {
+
+        synchronized( this ) {
+            pending = null;
+            if( !running )
+                return;
+            inProgress = true;
+        }
+
+        long startNanos = System.nanoTime();
+        datalogger.getTableDefinitionsAsync().thenCompose( tds -> {
+
+            // build a query for the union of all our subscriptions' fields (remembering which subscriptions those are, as any added while we're
+            // polling may want fields that aren't in this query)...
+            TableDefinition td = tds.getTableDef( tableName );
+            Checks.isNonNull( td, "Table not found in datalogger " + datalogger.name + ": " + tableName );
+            List<ValueSubscription> polled = new ArrayList<>();
+            Map<String,FieldDefinition> fields = new LinkedHashMap<>();
+            for( ValueSubscription subscription : subscriptions ) {
+                Map<String,FieldDefinition> wanted = getFields( td, subscription );
+                if( wanted == null )
+                    continue;
+                polled.add( subscription );
+                fields.putAll( wanted );
+            }
+            if( polled.isEmpty() )
+                return CompletableFuture.completedFuture( null );
+            DataQuery query = new DataQuery( td.index, td.signature );
+            fields.values().forEach( fd -> query.addField( fd.index ) );
+            query.finish();
+
+            // collect the most recent record, and decode the fields we want...
+            return datalogger.collectMostRecentAsync( query, 1 ).thenApply( records -> {
+                if( records.isEmpty() )
+                    return null;
+                Datum record = records.get( 0 );
+                Map<String,Object> values = new HashMap<>();
+                fields.forEach( (name, fd) -> values.put( name, decode( record.at( name ), fd ) ) );
+                for( ValueSubscription subscription : polled )
+                    subscription.update( values, record );
+                return record;
+            } );
+
+        } ).whenComplete( (record, e) -> {
+            if( e != null )
+                LOGGER.log( Level.INFO, "Poll of " + tableName + " in datalogger " + datalogger.name + " failed", e );
+            scheduleNext( System.nanoTime() - startNanos, e == null );
+        } );
+    }
+
+
+    /**
+     * Returns the definitions of the given subscription's fields in the given table, by field name.  If any of them isn't in the table, the
+     * subscription is cancelled (so that it doesn't spoil the polls for all the other subscriptions to the table) and null is returned.
+     *
+     * @param _tableDefinition the definition of the table
+     * @param _subscription the subscription
+     * @return the definitions of the subscription's fields, or null if it has been cancelled
+     */
+    private Map<String,FieldDefinition> getFields( final TableDefinition _tableDefinition, final ValueSubscription _subscription ) {
+        Map<String,FieldDefinition> result = new LinkedHashMap<>();
+        for( String name : _subscription.fieldNames ) {
+            FieldDefinition fd = _tableDefinition.getField( name );
+            if( fd == null ) {
+                LOGGER.warning( "Field not found in table " + tableName + " of datalogger " + datalogger.name + ": " + name
+                        + "; cancelling subscription" );
+                _subscription.cancel();
+                return null;
+            }
+            result.put( name, fd );
+        }
+        return result;
+    }
+
+
+    /**
+     * Schedules the next poll, given how long the last one took and whether it succeeded.
+     *
+     * @param _pollNanos how long the last poll took, in nanoseconds
+     * @param _succeeded true if the last poll succeeded
+     */
+    private synchronized void scheduleNext( final long _pollNanos, final boolean _succeeded ) {
+
+        inProgress = false;
+        if( !running )
+            return;
+
+        // wait as long as the poll took, but at least the minimum - backed off if we're failing...
+        failures = _succeeded ? 0 : failures + 1;
+        long delayNanos = Math.max( MIN_POLL_INTERVAL_NANOS, _pollNanos ) << Math.min( failures, 6 );
+        delayNanos = Math.min( MAX_POLL_INTERVAL_NANOS, delayNanos );
+        pending = datalogger.application.timer().schedule( this::poll, delayNanos, TimeUnit.NANOSECONDS );
+    }
+
+
+    /**
+     * Returns the given field value decoded to its primitive form: numbers as a double, booleans as a boolean, strings as a string, and arrays (or
+     * anything else) as a read-only buffer of its raw bytes.
+     *
+     * @param _value the field value to decode
+     * @param _fieldDefinition the definition of the field
+     * @return the decoded value
+     */
+    private static Object decode( final Datum _value, final FieldDefinition _fieldDefinition ) {
+
+        PakBusType type = PakBusType.decode( _fieldDefinition.fieldType );
+        PakBusBaseDataType base = (type == null) ? null : type.getBase();
+
+        // strings (which are arrays of characters) are strings...
+        if( base == PakBusBaseDataType.String )
+            return _value.getAsString();
+
+        // single numbers and booleans are themselves...
+        if( _fieldDefinition.pieceSize == 1 ) {
+            if( (base == PakBusBaseDataType.Float) || (base == PakBusBaseDataType.SignedInteger) || (base == PakBusBaseDataType.UnsignedInteger) )
+                return _value.getAsDouble();
+            if( base == PakBusBaseDataType.Boolean )
+                return _value.getAsBoolean();
+        }
+
+        // anything else is just bytes...
+        return _value.get().getByteBuffer().asReadOnlyBuffer();
+    }
+}
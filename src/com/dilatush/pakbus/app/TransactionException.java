@@ -0,0 +1,26 @@
+package com.dilatush.pakbus.app;
+
+/**
+ * Base class for the exceptions that a failed request to a datalogger completes its future with.  The subclasses distinguish the ways a request can
+ * fail: no response at all, a response with an error code, or a response of the wrong kind.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TransactionException extends RuntimeException {
+
+    final static private long serialVersionUID = 1L;
+
+    final public Class<?> requestClass;   // the class of the request message that failed...
+
+
+    /**
+     * Creates a new instance of this class with the given request class and message.
+     *
+     * @param _requestClass the class of the request message that failed
+     * @param _message the explanatory message
+     */
+    public TransactionException( final Class<?> _requestClass, final String _message ) {
+        super( _message );
+        requestClass = _requestClass;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dilatush.pakbus.app;
+
+/**
+ * Implemented by classes that want to be told about the lifecycle of every transaction (that is, every request and its response) between a
+ * datalogger and this application: for tracing, or for finding which requests cause latency.  Register a listener with
+ * {@link Datalogger#addTransactionListener(TransactionListener)} to hear about one datalogger's transactions, or with
+ * {@link Application#addTransactionListener(TransactionListener)} to hear about all of them.  Every callback is given the datalogger, the transaction
+ * number, the class of the request message, and a {@link System#nanoTime()} timestamp; all of them do nothing by default, so implementations need
+ * only override the ones they care about.  Callbacks are made synchronously, on the application's packet reader or timing wheel thread (or on the
+ * thread making the request), so they must be quick and must not block.  A callback that throws an exception is logged and otherwise ignored.  When
+ * no listener is registered, no events are built at all.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface TransactionListener {
+
+    /**
+     * Called when a transaction is created for a request, just before the request is first sent.
+     *
+     * @param _datalogger the datalogger the request is for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _requestBytes the size of the request packet, in bytes
+     * @param _nanos the time the transaction was created, from {@link System#nanoTime()}
+     */
+    default void created( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final int _requestBytes,
+                          final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request is sent for the first time, just before it's handed to the link (so always before any answer to it).
+     *
+     * @param _datalogger the datalogger the request is for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _requestBytes the size of the request packet, in bytes
+     * @param _nanos the time the request was sent, from {@link System#nanoTime()}
+     */
+    default void sent( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final int _requestBytes,
+                       final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request is resent because it wasn't answered in time, just before it's handed to the link.
+     *
+     * @param _datalogger the datalogger the request is for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _requestBytes the size of the request packet, in bytes
+     * @param _retransmits the number of times the request has now been resent
+     * @param _nanos the time the request was resent, from {@link System#nanoTime()}
+     */
+    default void retransmitted( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final int _requestBytes,
+                                final int _retransmits, final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request has been answered with the expected kind of response.
+     *
+     * @param _datalogger the datalogger the request was for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _responseClass the class of the response message
+     * @param _responseBytes the size of the response packet, in bytes
+     * @param _roundTripNanos the time from first sending the request to receiving the response, in nanoseconds
+     * @param _nanos the time the response was received, from {@link System#nanoTime()}
+     */
+    default void answered( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final Class<?> _responseClass,
+                           final int _responseBytes, final long _roundTripNanos, final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request has been answered with the wrong kind of response (which fails the transaction).
+     *
+     * @param _datalogger the datalogger the request was for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _expectedClass the class of the expected response message
+     * @param _responseClass the class of the response message actually received
+     * @param _responseBytes the size of the response packet, in bytes
+     * @param _nanos the time the response was received, from {@link System#nanoTime()}
+     */
+    default void mismatched( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final Class<?> _expectedClass,
+                             final Class<?> _responseClass, final int _responseBytes, final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request has gone unanswered after being resent as many times as we allow (which fails the transaction).
+     *
+     * @param _datalogger the datalogger the request was for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _retransmits the number of times the request was resent
+     * @param _nanos the time the transaction failed, from {@link System#nanoTime()}
+     */
+    default void timedOut( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final int _retransmits,
+                           final long _nanos ) {
+    }
+
+
+    /**
+     * Called when a request couldn't be handed to the link the first time (after {@link #sent(Datalogger, int, Class, int, long)} was called for
+     * it), which fails the transaction and frees its transaction number.  Every transaction that's created ends with one of this, an answer, a
+     * mismatched response, or a time out.
+     *
+     * @param _datalogger the datalogger the request was for
+     * @param _number the transaction number
+     * @param _requestClass the class of the request message
+     * @param _cause the reason the request couldn't be sent
+     * @param _nanos the time the transaction failed, from {@link System#nanoTime()}
+     */
+    default void abandoned( final Datalogger _datalogger, final int _number, final Class<?> _requestClass, final Throwable _cause,
+                            final long _nanos ) {
+    }
+}
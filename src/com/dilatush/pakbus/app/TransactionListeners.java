@@ -0,0 +1,76 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class hold a set of transaction listeners in a volatile array that is replaced (never modified) when a listener is added or
+ * removed, so that notifying them takes no lock, and checking whether there are any is a single volatile read.  Instances of this class are
+ * threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class TransactionListeners {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private TransactionListener[] NONE = new TransactionListener[0];
+
+    private volatile TransactionListener[] listeners = NONE;
+
+
+    /**
+     * Adds the given listener, unless it's already been added.
+     *
+     * @param _listener the listener to add
+     */
+    /*package*/ synchronized void add( final TransactionListener _listener ) {
+        Checks.required( _listener );
+        if( Arrays.asList( listeners ).contains( _listener ) )
+            return;
+        TransactionListener[] updated = Arrays.copyOf( listeners, listeners.length + 1 );
+        updated[listeners.length] = _listener;
+        listeners = updated;
+    }
+
+
+    /**
+     * Removes the given listener, if it was added.
+     *
+     * @param _listener the listener to remove
+     */
+    /*package*/ synchronized void remove( final TransactionListener _listener ) {
+        listeners = Arrays.stream( listeners ).filter( listener -> listener != _listener ).toArray( TransactionListener[]::new );
+    }
+
+
+    /**
+     * Returns true if there are any listeners.
+     *
+     * @return true if there are any listeners
+     */
+    /*package*/ boolean any() {
+        return listeners.length != 0;
+    }
+
+
+    /**
+     * Gives the given event to each of the listeners, logging (and otherwise ignoring) any exception a listener throws.
+     *
+     * @param _event the event to give to each listener
+     */
+    /*package*/ void fire( final Consumer<TransactionListener> _event ) {
+        for( TransactionListener listener : listeners ) {
+            try {
+                _event.accept( listener );
+            }
+            catch( RuntimeException _e ) {
+                LOGGER.log( Level.WARNING, "Transaction listener threw an exception", _e );
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.dilatush.pakbus.app;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when a request to a datalogger was retransmitted as many times as allowed without any response.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TransactionTimeoutException extends TransactionException {
+
+    final static private long serialVersionUID = 1L;
+
+    final public int retransmits;   // the number of times the request was retransmitted before giving up...
+
+
+    /**
+     * Creates a new instance of this class for the given request class and number of retransmissions.
+     *
+     * @param _requestClass the class of the request message that timed out
+     * @param _retransmits the number of times the request was retransmitted
+     */
+    public TransactionTimeoutException( final Class<?> _requestClass, final int _retransmits ) {
+        super( _requestClass, _requestClass.getSimpleName() + " got no response after " + _retransmits + " retransmits" );
+        retransmits = _retransmits;
+    }
+}
@@ -0,0 +1,29 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.messages.Msg;
+
+/**
+ * Thrown (or used to complete a future exceptionally) when a datalogger answers a request with a message that isn't the kind of response expected.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class UnexpectedResponseException extends TransactionException {
+
+    final static private long serialVersionUID = 1L;
+
+    final public Msg response;   // the message the datalogger answered with...
+
+
+    /**
+     * Creates a new instance of this class for the given request class, expected response class, and actual response.
+     *
+     * @param _requestClass the class of the request message that failed
+     * @param _expectedClass the class of the response message that was expected
+     * @param _response the response message actually received
+     */
+    public UnexpectedResponseException( final Class<?> _requestClass, final Class<?> _expectedClass, final Msg _response ) {
+        super( _requestClass, _requestClass.getSimpleName() + " expected " + _expectedClass.getSimpleName() + " but got "
+                + _response.getClass().getSimpleName() );
+        response = _response;
+    }
+}
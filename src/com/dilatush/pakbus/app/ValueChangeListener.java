@@ -0,0 +1,27 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.values.Datum;
+
+import java.util.Map;
+
+/**
+ * Implemented by classes that want to know when the values of fields in a datalogger's table change.  See
+ * {@link Datalogger#subscribe(String, java.util.Collection, double, ValueChangeListener)}.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface ValueChangeListener {
+
+
+    /**
+     * Called when one or more of the subscribed fields have changed (and once when the first values are read).  Each changed field's new value is
+     * decoded to a primitive form: numbers as a {@link Double}, booleans as a {@link Boolean}, strings as a {@link String}, and array fields as a
+     * read-only {@link java.nio.ByteBuffer} of their raw bytes.  This is called on the thread that completed the poll, so it must be quick and must
+     * not block.
+     *
+     * @param _tableName the name of the table the fields are in
+     * @param _changes the map of the names of the changed fields to their new values
+     * @param _record the record the new values were read from, which must not be modified
+     */
+    void changed( final String _tableName, final Map<String,Object> _changes, final Datum _record );
+}
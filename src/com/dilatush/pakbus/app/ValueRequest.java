@@ -0,0 +1,78 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.types.PakBusType;
+import com.dilatush.pakbus.util.Checks;
+
+import java.util.Objects;
+
+/**
+ * Instances of this class identify a value (or a swath of array values) to read from a datalogger's table: the table and field names, the type to
+ * convert the value(s) to, and the number of values.  Two instances with the same table, field, type, and swath are equal, so instances may be used
+ * as map keys (and concurrent reads of equal instances share one request).  Instances of this class are immutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ValueRequest {
+
+    final public String     tableName;
+    final public String     fieldName;
+    final public PakBusType fieldType;
+    final public int        swath;
+
+
+    /**
+     * Creates a new instance of this class for the given number of values in the given table and field, as the given type.
+     *
+     * @param _tableName the table name to get the value from
+     * @param _fieldName the field name to get the value from
+     * @param _fieldType the type to convert the returned value to
+     * @param _swath the number of values to return (>1 for array fields)
+     */
+    public ValueRequest( final String _tableName, final String _fieldName, final PakBusType _fieldType, final int _swath ) {
+
+        // sanity checks...
+        Checks.required( _tableName, _fieldName, _fieldType );
+        Checks.inBounds( _swath, 1, 1000,"Illegal value for swath: " + _swath  );
+
+        tableName = _tableName;
+        fieldName = _fieldName;
+        fieldType = _fieldType;
+        swath     = _swath;
+    }
+
+
+    /**
+     * Creates a new instance of this class for the single value in the given table and field, as the given type.
+     *
+     * @param _tableName the table name to get the value from
+     * @param _fieldName the field name to get the value from
+     * @param _fieldType the type to convert the returned value to
+     */
+    public ValueRequest( final String _tableName, final String _fieldName, final PakBusType _fieldType ) {
+        this( _tableName, _fieldName, _fieldType, 1 );
+    }
+
+
+    @Override
+    public boolean equals( final Object _o ) {
+        if( this == _o ) return true;
+        if( _o == null || getClass() != _o.getClass() ) return false;
+        ValueRequest that = (ValueRequest) _o;
+        return swath == that.swath &&
+                tableName.equals( that.tableName ) &&
+                fieldName.equals( that.fieldName ) &&
+                fieldType == that.fieldType;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Objects.hash( tableName, fieldName, fieldType, swath );
+    }
+
+
+    @Override
+    public String toString() {
+        return tableName + "." + fieldName + ((swath > 1) ? "[" + swath + "]" : "") + " as " + fieldType;
+    }
+}
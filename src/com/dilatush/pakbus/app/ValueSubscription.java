@@ -0,0 +1,118 @@
+package com.dilatush.pakbus.app;
+
+import com.dilatush.pakbus.values.Datum;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class represent a subscription to changes in the values of some fields in a datalogger's table.  The subscription remembers the
+ * last value it delivered for each field, and delivers a field again only when its value has really changed - for numbers, by more than the
+ * subscription's deadband.  Comparing with the last value <i>delivered</i> (rather than the last value read) means that a slow drift is delivered
+ * once it adds up to more than the deadband.  Get an instance with
+ * {@link Datalogger#subscribe(String, Collection, double, ValueChangeListener)}.  Instances of this class are threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ValueSubscription {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final public String       tableName;
+    final public List<String> fieldNames;
+    final public double       deadband;
+
+    final private TablePoller         poller;
+    final private ValueChangeListener listener;
+    final private Map<String,Object>  delivered;   // the last value delivered for each field...
+
+
+    /**
+     * Creates a new instance of this class for the given fields, deadband, and listener, polled by the given poller.
+     *
+     * @param _poller the poller that polls the table
+     * @param _fieldNames the names of the fields subscribed to
+     * @param _deadband how much a numeric value must change by to be delivered
+     * @param _listener the listener to deliver changes to
+     */
+    /*package*/ ValueSubscription( final TablePoller _poller, final Collection<String> _fieldNames, final double _deadband,
+                                   final ValueChangeListener _listener ) {
+        poller     = _poller;
+        tableName  = _poller.tableName;
+        fieldNames = Collections.unmodifiableList( new ArrayList<>( _fieldNames ) );
+        deadband   = _deadband;
+        listener   = _listener;
+        delivered  = new HashMap<>();
+    }
+
+
+    /**
+     * Cancels this subscription; its listener won't be called again (though a call already in progress may finish).  When a table has no more
+     * subscriptions, it's no longer polled.
+     */
+    public void cancel() {
+        poller.remove( this );
+    }
+
+
+    /**
+     * Compares the given decoded field values (read from the given record) with the values last delivered, and delivers any that have changed to
+     * our listener.
+     *
+     * @param _values the map of field names to their decoded values; any of our fields not in it are skipped
+     * @param _record the record the values were read from
+     */
+    /*package*/ void update( final Map<String,Object> _values, final Datum _record ) {
+
+        // figure out what's changed...
+        Map<String,Object> changes = new LinkedHashMap<>();
+        synchronized( this ) {
+            for( String field : fieldNames ) {
+                if( !_values.containsKey( field ) )
+                    continue;
+                Object value = _values.get( field );
+                if( !delivered.containsKey( field ) || isChanged( delivered.get( field ), value ) ) {
+                    changes.put( field, value );
+                    delivered.put( field, value );
+                }
+            }
+        }
+
+        // if anything changed, tell our listener...
+        if( changes.isEmpty() )
+            return;
+        try {
+            listener.changed( tableName, changes, _record );
+        }
+        catch( RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Value change listener for " + tableName + " threw exception, ignoring", _e );
+        }
+    }
+
+
+    /**
+     * Returns true if the given new value is a real change from the given old value: for numbers, a change of more than our deadband (or a change
+     * to or from NaN); for anything else, any change at all.
+     *
+     * @param _old the value last delivered
+     * @param _new the value just read
+     * @return true if the value has changed
+     */
+    private boolean isChanged( final Object _old, final Object _new ) {
+        if( (_old instanceof Double) && (_new instanceof Double) ) {
+            double o = (Double) _old;
+            double n = (Double) _new;
+            if( Double.isNaN( o ) || Double.isNaN( n ) )
+                return Double.isNaN( o ) != Double.isNaN( n );
+            return Math.abs( n - o ) > deadband;
+        }
+        return (_old == null) ? (_new != null) : !_old.equals( _new );
+    }
+}
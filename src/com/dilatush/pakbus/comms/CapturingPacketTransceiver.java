@@ -0,0 +1,179 @@
+package com.dilatush.pakbus.comms;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class are packet transceivers that wrap another packet transceiver, recording every packet sent and received through it to a
+ * capture file, which can later be played back with a {@link ReplayPacketTransceiver}.  The capture file starts with a header: the magic number
+ * {@link #MAGIC}, the format version, and the wall clock time (in milliseconds since the epoch) the capture started.  After that come the packets,
+ * one record each: the nanoseconds since the capture started (long), the direction ({@link #SENT} or {@link #RECEIVED}, a byte), the length of the
+ * packet (int), and the packet's bytes (unquoted, including the signature nullifier).  The file is written through memory mapped regions, so
+ * recording a packet is just a copy into memory; the file is grown a region at a time, with the unused part zeroed - so a record whose direction is
+ * zero marks the end of the capture, even if the capture was never closed.  Closing the capture truncates the file to just the records written.
+ * Packets that the wrapped transceiver refused to send are not recorded.  Instances of this class are threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class CapturingPacketTransceiver implements PacketTransceiver, Closeable {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static public int  MAGIC    = 0x50424350;   // "PBCP"...
+    final static public int  VERSION  = 1;
+    final static public byte SENT     = 1;
+    final static public byte RECEIVED = 2;
+
+    final static /*package*/ int HEADER_BYTES        = 4 + 4 + 8;         // magic, version, start time...
+    final static /*package*/ int RECORD_HEADER_BYTES = 8 + 1 + 4;         // nanoseconds, direction, length...
+    final static private     int REGION_BYTES        = 16 * 1024 * 1024;  // how much of the file we map at once...
+
+    final private PacketTransceiver transceiver;
+    final private FileChannel       channel;
+    final private long              startNanos;    // System.nanoTime() when the capture started...
+
+    private MappedByteBuffer region;         // the mapped region of the file we're writing into...
+    private long             regionStart;    // the file position of the start of the mapped region...
+    private long             written;        // the file position just past the last complete record...
+    private boolean          failed;         // true if writing the capture failed, which stops capturing (but the file still needs closing)...
+    private boolean          closed;
+
+
+    /**
+     * Creates a new instance of this class that wraps the given packet transceiver, capturing to a new file at the given path (replacing any file
+     * that's already there).
+     *
+     * @param _transceiver the packet transceiver to wrap
+     * @param _file the path of the capture file
+     * @throws IOException on any problem creating the capture file
+     */
+    public CapturingPacketTransceiver( final PacketTransceiver _transceiver, final Path _file ) throws IOException {
+
+        // sanity check...
+        Checks.required( _transceiver, _file );
+
+        transceiver = _transceiver;
+        channel     = FileChannel.open( _file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE );
+        startNanos  = System.nanoTime();
+
+        // map our first region, and write the header...
+        map( 0 );
+        region.putInt( MAGIC );
+        region.putInt( VERSION );
+        region.putLong( System.currentTimeMillis() );
+        written = HEADER_BYTES;
+    }
+
+
+    /**
+     * Sends the given packet through the wrapped transceiver, recording it if it was sent.
+     *
+     * @param _packet the packet to be added to the transmission queue
+     * @return true if the packet was successfully added
+     */
+    @Override
+    public boolean tx( final RawPacket _packet ) {
+        boolean sent = transceiver.tx( _packet );
+        if( sent )
+            record( SENT, _packet );
+        return sent;
+    }
+
+
+    /**
+     * Returns the next packet received from the wrapped transceiver, recording it if there was one.
+     *
+     * @return the next packet received, or null if none were received
+     * @throws InterruptedException if interrupted while blocked
+     */
+    @Override
+    public RawPacket rx() throws InterruptedException {
+        RawPacket packet = transceiver.rx();
+        if( packet != null )
+            record( RECEIVED, packet );
+        return packet;
+    }
+
+
+    /**
+     * Stops capturing, truncating the capture file to just the records written and closing it.  The wrapped transceiver is not closed, and keeps
+     * working through this instance.
+     *
+     * @throws IOException on any problem closing the capture file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if( closed )
+            return;
+        closed = true;
+
+        // truncate to the complete records (even if writing failed part way through one), and release the file however that goes...
+        try {
+            region.force();
+            region = null;
+            channel.truncate( written );
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Records the given packet, sent or received at this moment, in the capture file.  Problems writing the capture are logged, and stop the capture,
+     * but never interfere with communications.
+     *
+     * @param _direction the direction of the packet ({@link #SENT} or {@link #RECEIVED})
+     * @param _packet the packet to record
+     */
+    private synchronized void record( final byte _direction, final RawPacket _packet ) {
+
+        if( closed || failed )
+            return;
+
+        try {
+            long nanos = System.nanoTime() - startNanos;
+            ByteBuffer bytes = _packet.packetBytes.duplicate();
+            bytes.position( 0 );
+
+            // if the record won't fit in what's left of our region, map the next one starting right here...
+            int recordBytes = RECORD_HEADER_BYTES + bytes.remaining();
+            if( region.remaining() < recordBytes )
+                map( regionStart + region.position() );
+
+            region.putLong( nanos );
+            region.put( _direction );
+            region.putInt( bytes.remaining() );
+            region.put( bytes );
+            written = regionStart + region.position();
+        }
+        catch( IOException | RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Could not write packet capture; capture stopped", _e );
+            failed = true;
+        }
+    }
+
+
+    /**
+     * Maps the region of the capture file starting at the given position, growing the file to hold it.
+     *
+     * @param _position the file position of the start of the region
+     * @throws IOException on any problem mapping the region
+     */
+    private void map( final long _position ) throws IOException {
+        if( region != null )
+            region.force();
+        regionStart = _position;
+        region = channel.map( FileChannel.MapMode.READ_WRITE, _position, REGION_BYTES );
+    }
+}
@@ -0,0 +1,210 @@
+package com.dilatush.pakbus.comms;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instances of this class are packet transceivers that play back the packets received in a capture file written by a
+ * {@link CapturingPacketTransceiver}, so that an application can be fed real traffic without a real link - to reproduce a problem seen in the field,
+ * or to benchmark decoding and dispatching.  Received packets are played back either at the speed they were recorded (each one returned when as
+ * much time has passed since the replay started as had passed since the capture started) or as fast as they can be read.  Packets the capture
+ * recorded as sent are skipped.  Packets sent through this transceiver go nowhere; they're just counted.  Once the capture has been played back,
+ * {@link #rx()} behaves as though the link were quiet.  The whole capture file is mapped into memory, so it is limited to 2GB.  Instances of this
+ * class are threadsafe through synchronization.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class ReplayPacketTransceiver implements PacketTransceiver {
+
+    final static private long QUIET_MILLIS     = 100;     // how long rx() blocks when there's nothing to return...
+    final static private long MAX_WAIT_NANOS   = TimeUnit.SECONDS.toNanos( 1 );   // the longest rx() blocks, as on a live link...
+    final static private int  MIN_PACKET_BYTES = 4 + 2;   // the shortest real packet: a header and the signature nullifier...
+
+    final public Instant captureStarted;   // when the capture was started...
+    final public boolean realTime;         // true to play back at the recorded speed...
+
+    final private MappedByteBuffer capture;
+    final private LongAdder        sent;
+
+    private long    startNanos;   // System.nanoTime() when the replay started, or zero if it hasn't yet...
+    private long    replayed;     // the number of packets played back...
+    private boolean finished;     // true when the whole capture has been played back...
+
+    private ByteBuffer pending;        // the next received packet, read but not yet due, or null if none...
+    private long       pendingNanos;   // the nanoseconds since the capture started that the pending packet was received...
+
+
+    /**
+     * Creates a new instance of this class that plays back the capture file at the given path, at the recorded speed or as fast as possible.
+     *
+     * @param _file the path of the capture file
+     * @param _realTime true to play back at the recorded speed, false to play back as fast as possible
+     * @throws IOException on any problem reading the capture file, or if it isn't a capture file
+     */
+    public ReplayPacketTransceiver( final Path _file, final boolean _realTime ) throws IOException {
+
+        // sanity check...
+        Checks.required( _file );
+
+        // map the whole capture file...
+        try( FileChannel channel = FileChannel.open( _file, StandardOpenOption.READ ) ) {
+            if( channel.size() > Integer.MAX_VALUE )
+                throw new IOException( "Capture file is too large to replay: " + _file );
+            capture = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+
+        // check the header...
+        if( (capture.remaining() < CapturingPacketTransceiver.HEADER_BYTES) || (capture.getInt() != CapturingPacketTransceiver.MAGIC) )
+            throw new IOException( "Not a packet capture file: " + _file );
+        int version = capture.getInt();
+        if( version != CapturingPacketTransceiver.VERSION )
+            throw new IOException( "Unsupported packet capture version " + version + ": " + _file );
+        captureStarted = Instant.ofEpochMilli( capture.getLong() );
+
+        realTime = _realTime;
+        sent     = new LongAdder();
+    }
+
+
+    /**
+     * Discards the given packet, as there's nothing to send it to, counting it.
+     *
+     * @param _packet the packet to be added to the transmission queue
+     * @return true, always
+     */
+    @Override
+    public boolean tx( final RawPacket _packet ) {
+        sent.increment();
+        return true;
+    }
+
+
+    /**
+     * Returns the next received packet in the capture, waiting until its recorded time if we're playing back at the recorded speed.  As with a live
+     * link, this never blocks for more than one second: if the next packet isn't due by then, null is returned after a one second wait, and the
+     * packet is returned by a later call.  Returns null (after a short wait) if the whole capture has been played back.
+     *
+     * @return the next packet received, or null if none were received
+     * @throws InterruptedException if interrupted while blocked
+     */
+    @Override
+    public RawPacket rx() throws InterruptedException {
+
+        // get the next received packet, if there is one...
+        ByteBuffer bytes = null;
+        long waitNanos = 0;
+        synchronized( this ) {
+            if( startNanos == 0 )
+                startNanos = System.nanoTime();
+            while( (pending == null) && !finished ) {
+
+                // if we're out of records, we're done...
+                if( capture.remaining() < CapturingPacketTransceiver.RECORD_HEADER_BYTES ) {
+                    finished = true;
+                    break;
+                }
+                long nanos = capture.getLong();
+                byte direction = capture.get();
+                int length = capture.getInt();
+                if( (direction == 0) || (length < 0) || (length > capture.remaining()) ) {
+                    finished = true;
+                    break;
+                }
+
+                // get the packet's bytes, skipping it if it's one that was sent (or too short to be a packet at all)...
+                ByteBuffer record = capture.slice();
+                record.limit( length );
+                capture.position( capture.position() + length );
+                if( (direction != CapturingPacketTransceiver.RECEIVED) || (length < MIN_PACKET_BYTES) )
+                    continue;
+
+                pending = record;
+                pendingNanos = nanos;
+            }
+
+            // take the pending packet if it's due within our longest wait (it always is, if we're not keeping time)...
+            if( pending != null ) {
+                waitNanos = realTime ? (startNanos + pendingNanos) - System.nanoTime() : 0;
+                if( waitNanos <= MAX_WAIT_NANOS ) {
+                    bytes = pending;
+                    pending = null;
+                    replayed++;
+                }
+            }
+        }
+
+        // if the capture has been played back, act like a quiet link...
+        if( (bytes == null) && (waitNanos <= 0) ) {
+            Thread.sleep( QUIET_MILLIS );
+            return null;
+        }
+
+        // if the next packet isn't due yet, wait as long as a live link would, and come back for it...
+        if( bytes == null ) {
+            TimeUnit.NANOSECONDS.sleep( MAX_WAIT_NANOS );
+            return null;
+        }
+
+        // otherwise, wait until the packet's time (if we're keeping time), and return it...
+        if( waitNanos > 0 )
+            TimeUnit.NANOSECONDS.sleep( waitNanos );
+        return packet( bytes );
+    }
+
+
+    /**
+     * Returns true if the whole capture has been played back.
+     *
+     * @return true if the whole capture has been played back
+     */
+    public synchronized boolean isFinished() {
+        return finished && (pending == null);
+    }
+
+
+    /**
+     * Returns the number of received packets played back so far.
+     *
+     * @return the number of packets played back
+     */
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+
+    /**
+     * Returns the number of packets sent to (and discarded by) this transceiver.
+     *
+     * @return the number of packets sent
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+
+    /**
+     * Returns a raw packet made from the given bytes (including the signature nullifier), with its signature computed the same way the serial
+     * packet transceiver does when it receives one.
+     *
+     * @param _bytes the bytes of the packet
+     * @return the raw packet
+     */
+    private static RawPacket packet( final ByteBuffer _bytes ) {
+        ByteBuffer bytes = ByteBuffer.allocate( _bytes.remaining() );
+        bytes.put( _bytes );
+        bytes.flip();
+        bytes.limit( bytes.limit() - 2 );
+        Signature signature = new Signature( bytes );
+        bytes.limit( bytes.limit() + 2 );
+        return new RawPacket( bytes, signature );
+    }
+}
@@ -1,11 +1,13 @@
 package com.dilatush.pakbus.comms;
 
+import com.dilatush.pakbus.metrics.LinkMetrics;
 import com.dilatush.pakbus.util.Checks;
 
 import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -31,6 +33,9 @@ public class SerialPacketTransceiver implements PacketTransceiver {
     final static private int      MAX_PACKET_BYTES    = 1000 + 8 + 2;
     final static private int      MIN_PACKET_BYTES    = 4 + 2;
 
+    final static private AtomicInteger INSTANCES = new AtomicInteger();   // for naming instances that weren't given a name...
+
+    final public LinkMetrics metrics;
 
     final private SerialTransceiver transceiver;
     final private Reader            reader;
@@ -39,22 +44,34 @@ public class SerialPacketTransceiver implements PacketTransceiver {
 
 
     /**
-     * Creates a new instance of this class using the given serial transceiver.
+     * Creates a new instance of this class using the given serial transceiver, with the given name for its link metrics.
      *
      * @param _transceiver the serial transceiver this instance will use
+     * @param _name the name of this instance's link, for its metrics
      */
-    public SerialPacketTransceiver( final SerialTransceiver _transceiver ) {
+    public SerialPacketTransceiver( final SerialTransceiver _transceiver, final String _name ) {
 
         // sanity check...
-        Checks.required( _transceiver );
+        Checks.required( _transceiver, _name );
 
         // some setup...
         transceiver = _transceiver;
+        metrics = new LinkMetrics( _name );
         reader = new Reader();
         stop =false;
     }
 
 
+    /**
+     * Creates a new instance of this class using the given serial transceiver.
+     *
+     * @param _transceiver the serial transceiver this instance will use
+     */
+    public SerialPacketTransceiver( final SerialTransceiver _transceiver ) {
+        this( _transceiver, "SerialPacketTransceiver-" + INSTANCES.incrementAndGet() );
+    }
+
+
 
     /**
      * Adds the given packet to the ordered queue of packets to be transmitted from this packet transceiver, returning true if the packet was
@@ -67,10 +84,12 @@ public class SerialPacketTransceiver implements PacketTransceiver {
     public boolean tx( final RawPacket _packet ) {
 
         // first we transmit the sync preamble...
-        if( !txSync( (LONG_SYNC_THRESHOLD.compareTo( transceiver.sinceTx() ) < 0) ? LONG_SYNC : SHORT_SYNC ) )
+        int preamble = (LONG_SYNC_THRESHOLD.compareTo( transceiver.sinceTx() ) < 0) ? LONG_SYNC : SHORT_SYNC;
+        if( !txSync( preamble ) )
             return false;
 
         // now we transmit the bytes in the packet, quoting as we go...
+        int quotes = 0;
         for( int i = 0; i < _packet.packetBytes.limit(); i++ ) {
 
             // get the next byte and send it, quoted or not...
@@ -80,6 +99,7 @@ public class SerialPacketTransceiver implements PacketTransceiver {
                     return false;
                 if( !transceiver.tx( (byte)(b + QUOTE_OFFSET) ) )
                     return false;
+                quotes++;
             }
             else {
                 if( !transceiver.tx( b ) )
@@ -88,7 +108,14 @@ public class SerialPacketTransceiver implements PacketTransceiver {
         }
 
         // then the postamble...
-        return txSync( SHORT_SYNC );
+        if( !txSync( SHORT_SYNC ) )
+            return false;
+
+        // count what went out on the wire...
+        metrics.packetsSent.increment();
+        metrics.bytesSent.add( preamble + _packet.packetBytes.limit() + quotes + SHORT_SYNC );
+        metrics.quotesSent.add( quotes );
+        return true;
     }
 
 
@@ -163,6 +190,7 @@ public class SerialPacketTransceiver implements PacketTransceiver {
 
                     // make a place to hold our packet's bytes...
                     ByteBuffer packetBytes = ByteBuffer.allocate( MAX_PACKET_BYTES );
+                    int quotes = 0;
 
                     // loop until we get our entire packet...
                     while( true ) {
@@ -172,10 +200,12 @@ public class SerialPacketTransceiver implements PacketTransceiver {
 
                             // now let's see if we've got a valid packet...
                             packetBytes.flip();
+                            metrics.quotesReceived.add( quotes );
 
                             // if it's too short to be a real packet, ignore this monstrosity...
                             if( packetBytes.limit() < MIN_PACKET_BYTES ) {
                                 LOGGER.finest( "Packet too short, ignoring packet" );
+                                metrics.shortFrames.increment();
                                 break;
                             }
 
@@ -187,12 +217,14 @@ public class SerialPacketTransceiver implements PacketTransceiver {
                             // if the nullifier doesn't match, ignore this grotesque monstrosity...
                             if( ((short)signature.getNullifier()) != packetBytes.getShort( packetBytes.limit() - 2 ) ) {
                                 LOGGER.finest( "Bad nullifier, ignoring packet" );
+                                metrics.signatureFailures.increment();
                                 break;
                             }
 
                             // we have a good packet, so queue it up...
                             RawPacket rawPacket = new RawPacket( packetBytes, signature );
                             LOGGER.finest( "Received good packet" );
+                            metrics.packetsReceived.increment();
                             queue.putFirst( rawPacket );
 
                             break;
@@ -201,6 +233,7 @@ public class SerialPacketTransceiver implements PacketTransceiver {
                         // if we're out of room, we've got to end this...
                         if( packetBytes.position() == MAX_PACKET_BYTES ) {
                             LOGGER.finest( "Oversized packet, ignoring packet" );
+                            metrics.oversizeFrames.increment();
                             waitForOutPacket();  // read bytes until we got a sync, so we're done with this packet...
                             break;
                         }
@@ -209,14 +242,15 @@ public class SerialPacketTransceiver implements PacketTransceiver {
                         if( QUOTE == b ) {
 
                             // yup, it was, so get another byte and dequote it...
-                            b = (byte)(transceiver.rx() - QUOTE_OFFSET);
+                            b = (byte)(rx() - QUOTE_OFFSET);
+                            quotes++;
                         }
 
                         // time to add this to our packet's bytes...
                         packetBytes.put( b );
 
                         // and get another one...
-                        b = transceiver.rx();
+                        b = rx();
                     }
                 }
                 catch( InterruptedException _e ) {
@@ -234,7 +268,7 @@ public class SerialPacketTransceiver implements PacketTransceiver {
         private byte waitForInPacket() throws InterruptedException {
             byte result = SYNC;
             while( result == SYNC )
-                result = transceiver.rx();
+                result = rx();
             return result;
         }
 
@@ -245,7 +279,20 @@ public class SerialPacketTransceiver implements PacketTransceiver {
         private void waitForOutPacket() throws InterruptedException {
             byte result = 0;
             while( result != SYNC )
-                result = transceiver.rx();
+                result = rx();
+        }
+
+
+        /**
+         * Returns the next byte read from the serial transceiver, counting it in our link metrics - every byte read counts, including syncs, quotes,
+         * and the bytes of frames we throw away.
+         *
+         * @return the next byte read from the serial transceiver
+         */
+        private byte rx() throws InterruptedException {
+            byte result = transceiver.rx();
+            metrics.bytesReceived.increment();
+            return result;
         }
     }
 }
@@ -33,6 +33,25 @@ public class SiteValues {
     }
 
 
+    /**
+     * Creates a new instance of this class with the given values, as read individually from the WeatherHawk.
+     *
+     * @param _altitude the altitude of the WeatherHawk in meters
+     * @param _latitude the latitude of the WeatherHawk in degrees
+     * @param _longitude the longitude of the WeatherHawk in degrees
+     * @param _barometerOffset the pressure offset in kilopascals
+     * @param _data1Interval the interval between new records in table "data1", in minutes
+     */
+    /*package*/ SiteValues( final float _altitude, final float _latitude, final float _longitude, final float _barometerOffset,
+                            final float _data1Interval ) {
+        altitude        = _altitude;
+        latitude        = _latitude;
+        longitude       = _longitude;
+        barometerOffset = _barometerOffset;
+        data1Interval   = _data1Interval;
+    }
+
+
     /**
      * Returns true if the two given numbers are within 0.000001 of each other.
      *
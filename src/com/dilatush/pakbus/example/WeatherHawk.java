@@ -4,6 +4,7 @@ import com.dilatush.pakbus.values.Address;
 import com.dilatush.pakbus.values.Node;
 import com.dilatush.pakbus.app.Application;
 import com.dilatush.pakbus.app.Datalogger;
+import com.dilatush.pakbus.app.ValueRequest;
 import com.dilatush.pakbus.comms.PacketTransceiver;
 import com.dilatush.pakbus.comms.SerialPacketTransceiver;
 import com.dilatush.pakbus.comms.SerialTransceiver;
@@ -18,12 +19,12 @@ import com.dilatush.pakbus.values.SimpleDatum;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static com.dilatush.pakbus.comms.PortSerialTransceiver.*;
-import static com.dilatush.pakbus.example.SiteValues.isCloseEnough;
-import static java.lang.Thread.sleep;
 
 /**
  * Instances of this class implement an interface to a WeatherHawk weather station that communicates by spread spectrum radio.
@@ -64,18 +65,16 @@ public class WeatherHawk {
 
 
     /**
-     * Collect and return realtime weather data from the WeatherHawk.
+     * Collect and return realtime weather data from the WeatherHawk.  The data comes from the datalogger's cache of the latest "Public" record, so it
+     * may be a few seconds old, and frequent calls don't each poll the WeatherHawk.
      *
      * @return the realtime weather data collected, or null if there was a problem
      */
     public RealtimeRecord collectRealtimeData() {
-        TableDefinitions tds = logger.getTableDefinitions();
-        TableDefinition publicTable = tds.getTableDef( "Public" );
-        DataQuery query = new DataQuery( publicTable.index, publicTable.signature );
-        List<Datum> record = logger.collectMostRecent( query, 1 );
+        Datum record = logger.getLatestRecordCache( "Public" ).get();
         if( record == null )
             return null;
-        return new RealtimeRecord( record.get( 0 ) );
+        return new RealtimeRecord( record );
     }
 
 
@@ -124,88 +123,82 @@ public class WeatherHawk {
 
 
     /**
-     * Read and return the WeatherHawk's site values.
+     * Read and return the WeatherHawk's site values.  These are read directly from the datalogger rather than from its cache of the latest "Public"
+     * record, so that they're current even right after they've been set.
      *
      * @return the WeatherHawk's site values
      */
     public SiteValues getSiteValues() {
-        TableDefinitions tds = logger.getTableDefinitions();
-        TableDefinition publicTable = tds.getTableDef( "Public" );
-        DataQuery query = new DataQuery( publicTable.index, publicTable.signature );
-        List<Datum> record = logger.collectMostRecent( query, 1 );
-        if( record == null )
+
+        // read just the values we need from the "Public" table, all at once...
+        ValueRequest altitude  = new ValueRequest( "Public", "Altitude_m",   PakBusType.IEEE4 );
+        ValueRequest latitude  = new ValueRequest( "Public", "Latitude",     PakBusType.IEEE4 );
+        ValueRequest longitude = new ValueRequest( "Public", "Longitude",    PakBusType.IEEE4 );
+        ValueRequest bpOffset  = new ValueRequest( "Public", "BPoffset_KPa", PakBusType.IEEE4 );
+        ValueRequest interval  = new ValueRequest( "Public", "Int_timer",    PakBusType.IEEE4 );
+        Map<ValueRequest,Datum> values = logger.getValues( Arrays.asList( altitude, latitude, longitude, bpOffset, interval ) );
+        if( values == null )
             return null;
-        return new SiteValues( record.get( 0 ) );
+
+        return new SiteValues( (float) values.get( altitude  ).getAsDouble(), (float) values.get( latitude ).getAsDouble(),
+                               (float) values.get( longitude ).getAsDouble(), (float) values.get( bpOffset ).getAsDouble(),
+                               (float) values.get( interval  ).getAsDouble() );
     }
 
 
     /**
-     * Sets the WeatherHawk's site values to the given values.  Note that this command can take up to a minute or so, depending on how many attempts
-     * are required to get all the parameters set correctly.  Additional note: the altitude setting and barometric offset settings independently
+     * Sets the WeatherHawk's site values to the given values, confirming that they were set, then tells the WeatherHawk to save them (and reads the
+     * site values once more, to confirm that they're what we set).  Note that the altitude setting and barometric offset settings independently
      * adjust the barometric pressure readings collected.  Generally you would use one and leave the other at zero.
      *
      * @param _altitude the WeatherHawk station's altitude in meters
      * @param _latitude the WeatherHawk station's latitude in degrees
      * @param _longitude the WeatherHawk station's longitude in degrees
      * @param _barometerOffset the WeatherHawk station's barometric offset in kilopascals
+     * @return true if the values were set, confirmed, saved, and read back unchanged
      */
-    public void setSiteValues( final double _altitude, final double _latitude, final double _longitude, final double _barometerOffset ) {
-
-        // loop in here until we succeed...
-        boolean allGood = false;
-        do {
-            // get the current site values, so we can tell what needs changing...
-            SiteValues current = getSiteValues();
-
-            // see if anything needs changing...
-            allGood = isCloseEnough( current.altitude, (float) _altitude ) &&
-                      isCloseEnough( current.latitude, (float) _latitude ) &&
-                      isCloseEnough( current.longitude, (float) _longitude ) &&
-                      isCloseEnough( current.barometerOffset, (float) _barometerOffset );
-
-            if( !allGood ) {
-
-                // see what's wrong and fix it...
-                if( !isCloseEnough( current.altitude, (float) _altitude ) )
-                    setPublicFloatValue( "Altitude_m", (float) _altitude );
-                if( !isCloseEnough( current.latitude, (float) _latitude ) )
-                    setPublicFloatValue( "Latitude", (float) _latitude );
-                if( !isCloseEnough( current.longitude, (float) _longitude ) )
-                    setPublicFloatValue( "Longitude", (float) _longitude );
-                if( !isCloseEnough( current.barometerOffset, (float) _barometerOffset ) )
-                    setPublicFloatValue( "BPoffset_KPa", (float) _barometerOffset );
-
-                // tell the thing to save the values...
-                setPublicFloatValue( "SaveSite", 1 );
-
-                // wait ten seconds for the "SaveSite" setting to be effective...
-                try {
-                    sleep( 10000 );
-                }
-                catch( InterruptedException _e ) {
-                    // naught to do here...
-                }
-            }
-        }
-        while( !allGood );
+    public boolean setSiteValues( final double _altitude, final double _latitude, final double _longitude, final double _barometerOffset ) {
+
+        // set all the values at once, confirming them...
+        Map<String,Datum> values = new LinkedHashMap<>();
+        values.put( "Altitude_m",   floatDatum( (float) _altitude        ) );
+        values.put( "Latitude",     floatDatum( (float) _latitude        ) );
+        values.put( "Longitude",    floatDatum( (float) _longitude       ) );
+        values.put( "BPoffset_KPa", floatDatum( (float) _barometerOffset ) );
+        if( logger.setValues( "Public", values ) == null )
+            return false;
+        logger.getLatestRecordCache( "Public" ).invalidate();
+
+        // tell the thing to save the values - just once, without reading the trigger back, as the program may clear it once it has saved...
+        if( logger.setValues( "Public", "SaveSite", floatDatum( 1 ) ) == null )
+            return false;
+
+        // then confirm that the site values are still the ones we set...
+        SiteValues saved = getSiteValues();
+        return (saved != null)
+                && SiteValues.isCloseEnough( saved.altitude,        (float) _altitude        )
+                && SiteValues.isCloseEnough( saved.latitude,        (float) _latitude        )
+                && SiteValues.isCloseEnough( saved.longitude,       (float) _longitude       )
+                && SiteValues.isCloseEnough( saved.barometerOffset, (float) _barometerOffset );
     }
 
 
     /**
-     * Set the given field name in the "Public" table to the given value.
+     * Returns a datum containing the given value as an IEEE4 float.
      *
-     * @param _fieldName the field name in the "Public" table to set
-     * @param _value the value to set the field to
+     * @param _value the value for the datum
+     * @return the datum containing the value
      */
-    private void setPublicFloatValue( final String _fieldName, final float _value ) {
+    private Datum floatDatum( final float _value ) {
         Datum field = new SimpleDatum( DataTypes.IEEE4 );
         field.setTo( _value );
-        logger.setValues( "Public", _fieldName, field );
+        return field;
     }
 
 
     /**
-     * Calibrate the datalogger's clock against this computer's clock, adjusting the datalogger's clock to match within one second.
+     * Calibrate the datalogger's clock against this computer's clock, adjusting the datalogger's clock to match within
+     * {@link Datalogger#DEFAULT_CLOCK_PRECISION}.
      */
     public void calibrateClock() {
         logger.calibrateClock();
@@ -0,0 +1,100 @@
+package com.dilatush.pakbus.messages.bmp5;
+
+import com.dilatush.pakbus.types.MessageType;
+import com.dilatush.pakbus.types.Protocol;
+import com.dilatush.pakbus.comms.Context;
+import com.dilatush.pakbus.messages.AMsg;
+import com.dilatush.pakbus.types.CP;
+import com.dilatush.pakbus.types.DataTypes;
+import com.dilatush.pakbus.util.BitBuffer;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.CompositeDatum;
+
+import java.nio.ByteBuffer;
+
+import static com.dilatush.pakbus.types.MessageType.Request;
+import static com.dilatush.pakbus.types.Protocol.BMP5;
+
+/**
+ * Represents a BMP5 "File Send Request" message.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class FileSendReqMsg extends AMsg {
+
+
+    final static public String FIELD_SECURITY_CODE = "SecurityCode";
+    final static public String FIELD_FILE_NAME     = "FileName";
+    final static public String FIELD_ATTRIBUTE     = "Attribute";
+    final static public String FIELD_CLOSE_FLAG    = "CloseFlag";
+    final static public String FIELD_FILE_OFFSET   = "FileOffset";
+    final static public String FIELD_FILE_DATA     = "FileData";
+
+    final public int        securityCode;
+    final public String     fileName;
+    final public int        attribute;
+    final public int        closeFlag;
+    final public int        fileOffset;
+    final public ByteBuffer fileData;
+
+    final static public Protocol    PROTOCOL = BMP5;
+    final static public int         CODE     = 0x1C;
+    final static public MessageType TYPE     = Request;
+
+
+    public FileSendReqMsg( final int _securityCode, final String _fileName, final int _attribute, final int _closeFlag, final int _fileOffset,
+                           final ByteBuffer _fileData, final Context _context ) {
+        super( PROTOCOL, CODE, TYPE, _context );
+
+        // sanity check...
+        Checks.required( _fileName, _fileData, _context );
+
+        // save our parameters...
+        securityCode = _securityCode;
+        fileName     = _fileName;
+        attribute    = _attribute;
+        closeFlag    = _closeFlag;
+        fileOffset   = _fileOffset;
+        fileData     = _fileData.asReadOnlyBuffer();
+
+        // create and initialize our datum...
+        initDataType();
+        setDatum();
+        datum.at( FIELD_SECURITY_CODE ).setTo( securityCode );
+        datum.at( FIELD_FILE_NAME     ).setTo( fileName     );
+        datum.at( FIELD_ATTRIBUTE     ).setTo( attribute    );
+        datum.at( FIELD_CLOSE_FLAG    ).setTo( closeFlag    );
+        datum.at( FIELD_FILE_OFFSET   ).setTo( fileOffset   );
+        datum.at( FIELD_FILE_DATA     ).setTo( fileData     );
+    }
+
+
+    public FileSendReqMsg( final ByteBuffer _bytes, final Context _context ) {
+        super( PROTOCOL, CODE, TYPE, _context );
+
+        // sanity check...
+        Checks.required( _bytes, _context );
+
+        // decode our request...
+        initDataType();
+        datum = new CompositeDatum( getDataType() );
+        datum.set( new BitBuffer( _bytes ) );
+        securityCode = datum.at( FIELD_SECURITY_CODE ).getAsInt();
+        fileName     = datum.at( FIELD_FILE_NAME     ).getAsString();
+        attribute    = datum.at( FIELD_ATTRIBUTE     ).getAsInt();
+        closeFlag    = datum.at( FIELD_CLOSE_FLAG    ).getAsInt();
+        fileOffset   = datum.at( FIELD_FILE_OFFSET   ).getAsInt();
+        fileData     = datum.at( FIELD_FILE_DATA     ).getAsByteBuffer();
+        setBase();
+    }
+
+
+    private void initDataType() {
+        props.add( new CP( FIELD_SECURITY_CODE, DataTypes.UINT2  ) );
+        props.add( new CP( FIELD_FILE_NAME,     DataTypes.ASCIIZ ) );
+        props.add( new CP( FIELD_ATTRIBUTE,     DataTypes.BYTE   ) );
+        props.add( new CP( FIELD_CLOSE_FLAG,    DataTypes.BYTE   ) );
+        props.add( new CP( FIELD_FILE_OFFSET,   DataTypes.UINT4  ) );
+        props.add( new CP( FIELD_FILE_DATA,     DataTypes.BYTES  ) );
+    }
+}
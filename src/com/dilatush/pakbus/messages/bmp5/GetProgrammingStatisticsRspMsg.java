@@ -30,7 +30,7 @@ public class GetProgrammingStatisticsRspMsg extends AMsg {
     final public ProgrammingStatistics programmingStatistics;
 
     final static public Protocol    PROTOCOL = BMP5;
-    final static public int         CODE     = 0x89;
+    final static public int         CODE     = 0x98;
     final static public MessageType TYPE     = Response;
 
 
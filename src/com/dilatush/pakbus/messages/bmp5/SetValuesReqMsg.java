@@ -54,16 +54,9 @@ public class SetValuesReqMsg extends AMsg {
         fieldName    = _fieldName;
         values       = _values;
 
-        // figure out whether we've got an array (ASCIIZ and BOOL8 don't count)...
-        if( (_values instanceof ArrayDatum) && (_values.type() != DataTypes.ASCIIZ) && (_values.type() != DataTypes.BOOL8) ) {
-            ArrayDatum arrayDatum = (ArrayDatum)values;
-            swath = arrayDatum.elements();
-            fieldType = arrayDatum.type().pakBusType();
-        }
-        else {
-            swath = 1;
-            fieldType = values.type().pakBusType();
-        }
+        // the field type and swath come from the values...
+        fieldType = fieldTypeOf( _values );
+        swath     = swathOf( _values );
 
         // create and initialize our datum...
         props.add( new CP( FIELD_SECURITY_CODE, DataTypes.UINT2  ) );
@@ -80,4 +73,35 @@ public class SetValuesReqMsg extends AMsg {
         datum.at( FIELD_SWATH         ).setTo( swath               );
         datum.at( FIELD_VALUES        ).set(   values.get()        );
     }
+
+
+    /**
+     * Returns the field type a set values request for the given values would have: the type of the values, or of their elements if they're an
+     * array (though ASCIIZ and BOOL8 don't count as arrays).
+     *
+     * @param _values the values to be set
+     * @return the field type of a request setting them
+     */
+    static public PakBusType fieldTypeOf( final Datum _values ) {
+        Checks.required( _values );
+        return isArray( _values ) ? ((ArrayDatum) _values).type().pakBusType() : _values.type().pakBusType();
+    }
+
+
+    /**
+     * Returns the swath a set values request for the given values would have: the number of elements if they're an array (though ASCIIZ and BOOL8
+     * don't count as arrays), otherwise one.
+     *
+     * @param _values the values to be set
+     * @return the swath of a request setting them
+     */
+    static public int swathOf( final Datum _values ) {
+        Checks.required( _values );
+        return isArray( _values ) ? ((ArrayDatum) _values).elements() : 1;
+    }
+
+
+    private static boolean isArray( final Datum _values ) {
+        return (_values instanceof ArrayDatum) && (_values.type() != DataTypes.ASCIIZ) && (_values.type() != DataTypes.BOOL8);
+    }
 }
@@ -0,0 +1,103 @@
+package com.dilatush.pakbus.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instances of this class hold the metrics for one datalogger: counts of its transactions and how they ended, a round trip time histogram for each
+ * type of request sent to it, and the records and bytes collected from each of its tables.  The per request type and per table metrics are created
+ * (and registered with the platform MBean server) the first time they're used.  Instances of this class are mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class DataloggerMetrics implements DataloggerMetricsMBean {
+
+    final public String    name;
+    final public LongAdder requests;
+    final public LongAdder responses;
+    final public LongAdder retransmits;
+    final public LongAdder timeouts;
+    final public LongAdder unexpectedResponses;
+
+    final private Map<Class<?>,LatencyHistogram> roundTrips;   // round trip times by request message class...
+    final private Map<String,TableMetrics>       tables;       // collection counts by table name...
+
+
+    /**
+     * Creates a new instance of this class for the datalogger with the given name, and registers it with the platform MBean server.
+     *
+     * @param _name the name of the datalogger
+     */
+    public DataloggerMetrics( final String _name ) {
+        name                = _name;
+        requests            = new LongAdder();
+        responses           = new LongAdder();
+        retransmits         = new LongAdder();
+        timeouts            = new LongAdder();
+        unexpectedResponses = new LongAdder();
+        roundTrips          = new ConcurrentHashMap<>();
+        tables              = new ConcurrentHashMap<>();
+        Metrics.register( this, "Datalogger", "name", _name );
+    }
+
+
+    /**
+     * Returns the round trip time histogram for requests of the given message class.
+     *
+     * @param _requestClass the class of the request message
+     * @return the round trip time histogram for the class
+     */
+    public LatencyHistogram roundTrip( final Class<?> _requestClass ) {
+        LatencyHistogram histogram = roundTrips.get( _requestClass );
+        if( histogram != null )
+            return histogram;
+        return roundTrips.computeIfAbsent( _requestClass, requestClass -> {
+            LatencyHistogram result = new LatencyHistogram();
+            Metrics.register( result, "RoundTrip", "datalogger", name, "message", requestClass.getSimpleName() );
+            return result;
+        } );
+    }
+
+
+    /**
+     * Returns the collection counts for the table with the given name.
+     *
+     * @param _tableName the name of the table
+     * @return the collection counts for the table
+     */
+    public TableMetrics table( final String _tableName ) {
+        TableMetrics metrics = tables.get( _tableName );
+        return (metrics != null) ? metrics : tables.computeIfAbsent( _tableName, tableName -> new TableMetrics( name, tableName ) );
+    }
+
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+
+    @Override
+    public long getResponses() {
+        return responses.sum();
+    }
+
+
+    @Override
+    public long getRetransmits() {
+        return retransmits.sum();
+    }
+
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+
+    @Override
+    public long getUnexpectedResponses() {
+        return unexpectedResponses.sum();
+    }
+}
@@ -0,0 +1,15 @@
+package com.dilatush.pakbus.metrics;
+
+/**
+ * The management interface of {@link DataloggerMetrics}.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface DataloggerMetricsMBean {
+
+    long getRequests();
+    long getResponses();
+    long getRetransmits();
+    long getTimeouts();
+    long getUnexpectedResponses();
+}
@@ -0,0 +1,176 @@
+package com.dilatush.pakbus.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instances of this class record a distribution of latencies (in nanoseconds) in a log-linear histogram, in the style of HdrHistogram: each power of
+ * two is split into {@link #SUB_BUCKETS} equal buckets, so every latency from a nanosecond to centuries is recorded with a relative error of at most
+ * one part in {@link #SUB_BUCKETS}, in a fixed array of counters.  Recording a latency just finds its bucket with a little bit twiddling and
+ * increments a counter, so it never allocates, never locks, and may be done from any number of threads at once.  Reading percentiles scans the
+ * buckets, so it's meant for the occasional management query, not for every request.  Instances of this class are mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    final static public  int SUB_BUCKET_BITS = 4;                                       // log2 of the buckets in each power of two...
+    final static public  int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;                    // buckets in each power of two...
+    final static private int BUCKETS         = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;    // enough for any non-negative long...
+
+    final private AtomicLongArray counts;
+    final private LongAdder       count;
+    final private LongAdder       sum;
+    final private LongAccumulator max;
+
+
+    /**
+     * Creates a new, empty instance of this class.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray( BUCKETS );
+        count  = new LongAdder();
+        sum    = new LongAdder();
+        max    = new LongAccumulator( Math::max, 0 );
+    }
+
+
+    /**
+     * Records the given latency.  Negative latencies are recorded as zero.
+     *
+     * @param _nanos the latency to record, in nanoseconds
+     */
+    public void record( final long _nanos ) {
+        long nanos = Math.max( 0, _nanos );
+        counts.incrementAndGet( index( nanos ) );
+        count.increment();
+        sum.add( nanos );
+        max.accumulate( nanos );
+    }
+
+
+    /**
+     * Returns the latency (in nanoseconds) at or below which the given percentage of the recorded latencies fall, or zero if nothing has been
+     * recorded.  The result is the middle of the bucket the latency fell in, so it's within one part in {@link #SUB_BUCKETS} of the real value.
+     *
+     * @param _percentile the percentage of recorded latencies, in [0..100]
+     * @return the latency at the given percentile, in nanoseconds
+     */
+    public long getValueAtPercentile( final double _percentile ) {
+
+        // add up the buckets (which may be changing as we go, so we don't trust our own count)...
+        long total = 0;
+        for( int i = 0; i < BUCKETS; i++ )
+            total += counts.get( i );
+        if( total == 0 )
+            return 0;
+
+        // then find the bucket the percentile falls in...
+        long target = Math.max( 1, (long) Math.ceil( Math.min( 100, Math.max( 0, _percentile ) ) * total / 100 ) );
+        long seen = 0;
+        for( int i = 0; i < BUCKETS; i++ ) {
+            seen += counts.get( i );
+            if( seen >= target )
+                return Math.min( lowest( i ) + ((lowest( i + 1 ) - lowest( i )) >>> 1), getMax() );
+        }
+        return getMax();
+    }
+
+
+    /**
+     * Returns the largest latency recorded, in nanoseconds.
+     *
+     * @return the largest latency recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Returns the mean of the latencies recorded, in nanoseconds, or zero if nothing has been recorded.
+     *
+     * @return the mean latency
+     */
+    public double getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) sum.sum() / n;
+    }
+
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    @Override
+    public double getMeanMillis() {
+        return getMean() / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+
+
+    @Override
+    public double getMaxMillis() {
+        return millis( getMax() );
+    }
+
+
+    @Override
+    public double getP50Millis() {
+        return millis( getValueAtPercentile( 50 ) );
+    }
+
+
+    @Override
+    public double getP90Millis() {
+        return millis( getValueAtPercentile( 90 ) );
+    }
+
+
+    @Override
+    public double getP99Millis() {
+        return millis( getValueAtPercentile( 99 ) );
+    }
+
+
+    @Override
+    public double getP999Millis() {
+        return millis( getValueAtPercentile( 99.9 ) );
+    }
+
+
+    /**
+     * Returns the index of the bucket the given (non-negative) value falls in.  Values below {@link #SUB_BUCKETS} each have their own bucket; above
+     * that, the value's top {@link #SUB_BUCKET_BITS} + 1 bits pick the bucket within its power of two.
+     *
+     * @param _value the value to find the bucket for
+     * @return the index of the bucket
+     */
+    private static int index( final long _value ) {
+        int shift = Math.max( 0, 64 - Long.numberOfLeadingZeros( _value ) - SUB_BUCKET_BITS - 1 );
+        return (shift << SUB_BUCKET_BITS) + (int)(_value >>> shift);
+    }
+
+
+    /**
+     * Returns the lowest value that falls in the bucket with the given index (or the largest long, for the index just past the last bucket).
+     *
+     * @param _index the index of the bucket
+     * @return the lowest value in the bucket
+     */
+    private static long lowest( final int _index ) {
+        if( _index < 2 * SUB_BUCKETS )
+            return _index;
+        int shift = (_index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = (_index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return (shift >= 64 - SUB_BUCKET_BITS - 1) ? Long.MAX_VALUE : mantissa << shift;
+    }
+
+
+    private static double millis( final long _nanos ) {
+        return (double) _nanos / TimeUnit.MILLISECONDS.toNanos( 1 );
+    }
+}
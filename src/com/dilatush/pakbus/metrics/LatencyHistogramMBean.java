@@ -0,0 +1,17 @@
+package com.dilatush.pakbus.metrics;
+
+/**
+ * The management interface of {@link LatencyHistogram}.  All latencies are in milliseconds.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface LatencyHistogramMBean {
+
+    long   getCount();
+    double getMeanMillis();
+    double getMaxMillis();
+    double getP50Millis();
+    double getP90Millis();
+    double getP99Millis();
+    double getP999Millis();
+}
@@ -0,0 +1,107 @@
+package com.dilatush.pakbus.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instances of this class count the traffic on one link (that is, through one packet transceiver): packets and bytes sent and received, the frames
+ * thrown away as damaged (bad signature, too long, or too short), and the quoted bytes in each direction.  Byte counts are of bytes on the wire,
+ * including framing and quoting.  The quote density (the fraction of bytes on the wire that are quote escapes) shows how much of a link's capacity
+ * quoting is costing.  The counters are {@link LongAdder}s, so counting is cheap even when several threads do it at once.  Instances of this class
+ * are mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class LinkMetrics implements LinkMetricsMBean {
+
+    final public String    name;
+    final public LongAdder packetsSent;
+    final public LongAdder bytesSent;
+    final public LongAdder packetsReceived;
+    final public LongAdder bytesReceived;
+    final public LongAdder signatureFailures;
+    final public LongAdder oversizeFrames;
+    final public LongAdder shortFrames;
+    final public LongAdder quotesSent;
+    final public LongAdder quotesReceived;
+
+
+    /**
+     * Creates a new instance of this class for the link with the given name, and registers it with the platform MBean server.
+     *
+     * @param _name the name of the link
+     */
+    public LinkMetrics( final String _name ) {
+        name              = _name;
+        packetsSent       = new LongAdder();
+        bytesSent         = new LongAdder();
+        packetsReceived   = new LongAdder();
+        bytesReceived     = new LongAdder();
+        signatureFailures = new LongAdder();
+        oversizeFrames    = new LongAdder();
+        shortFrames       = new LongAdder();
+        quotesSent        = new LongAdder();
+        quotesReceived    = new LongAdder();
+        Metrics.register( this, "Link", "name", _name );
+    }
+
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+
+    @Override
+    public long getSignatureFailures() {
+        return signatureFailures.sum();
+    }
+
+
+    @Override
+    public long getOversizeFrames() {
+        return oversizeFrames.sum();
+    }
+
+
+    @Override
+    public long getShortFrames() {
+        return shortFrames.sum();
+    }
+
+
+    @Override
+    public long getQuotesSent() {
+        return quotesSent.sum();
+    }
+
+
+    @Override
+    public long getQuotesReceived() {
+        return quotesReceived.sum();
+    }
+
+
+    @Override
+    public double getQuoteDensity() {
+        long bytes = bytesSent.sum() + bytesReceived.sum();
+        return (bytes == 0) ? 0 : (double)(quotesSent.sum() + quotesReceived.sum()) / bytes;
+    }
+}
@@ -0,0 +1,20 @@
+package com.dilatush.pakbus.metrics;
+
+/**
+ * The management interface of {@link LinkMetrics}.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface LinkMetricsMBean {
+
+    long   getPacketsSent();
+    long   getBytesSent();
+    long   getPacketsReceived();
+    long   getBytesReceived();
+    long   getSignatureFailures();
+    long   getOversizeFrames();
+    long   getShortFrames();
+    long   getQuotesSent();
+    long   getQuotesReceived();
+    double getQuoteDensity();
+}
@@ -0,0 +1,55 @@
+package com.dilatush.pakbus.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Static methods for exposing metrics through the platform MBean server, under the {@link #DOMAIN} domain.  Each metrics object is registered under a
+ * type and a set of names (for instance, a datalogger's name and a table's name); registering a second object under the same type and names
+ * replaces the first, so that recreating a transceiver or datalogger doesn't leave stale metrics behind.  Failures to register are logged, not
+ * thrown: metrics are never worth breaking communications for.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class Metrics {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static public String DOMAIN = "com.dilatush.pakbus";
+
+
+    /**
+     * Registers the given MBean with the platform MBean server, with an object name made from our domain, the given type, and the given key/value
+     * pairs of names (values are quoted as needed), replacing any MBean already registered under that name.
+     *
+     * @param _mbean the MBean to register
+     * @param _type the type of the MBean
+     * @param _names alternating keys and values naming the MBean
+     */
+    public static void register( final Object _mbean, final String _type, final String... _names ) {
+
+        try {
+            StringBuilder name = new StringBuilder( DOMAIN ).append( ":type=" ).append( _type );
+            for( int i = 0; i + 1 < _names.length; i += 2 )
+                name.append( ',' ).append( _names[i] ).append( '=' ).append( ObjectName.quote( _names[i + 1] ) );
+            ObjectName objectName = new ObjectName( name.toString() );
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if( server.isRegistered( objectName ) )
+                server.unregisterMBean( objectName );
+            server.registerMBean( _mbean, objectName );
+        }
+        catch( JMException | RuntimeException _e ) {
+            LOGGER.log( Level.WARNING, "Could not register metrics " + _type + " " + String.join( ",", _names ), _e );
+        }
+    }
+
+
+    private Metrics() {
+        // prevent instantiation...
+    }
+}
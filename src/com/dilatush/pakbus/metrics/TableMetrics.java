@@ -0,0 +1,42 @@
+package com.dilatush.pakbus.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instances of this class count the records, and the bytes of record data, collected from one table in one datalogger.  Instances of this class are
+ * mutable and threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TableMetrics implements TableMetricsMBean {
+
+    final public String    tableName;
+    final public LongAdder recordsCollected;
+    final public LongAdder bytesCollected;
+
+
+    /**
+     * Creates a new instance of this class for the given table in the given datalogger, and registers it with the platform MBean server.
+     *
+     * @param _dataloggerName the name of the datalogger
+     * @param _tableName the name of the table
+     */
+    public TableMetrics( final String _dataloggerName, final String _tableName ) {
+        tableName        = _tableName;
+        recordsCollected = new LongAdder();
+        bytesCollected   = new LongAdder();
+        Metrics.register( this, "Table", "datalogger", _dataloggerName, "name", _tableName );
+    }
+
+
+    @Override
+    public long getRecordsCollected() {
+        return recordsCollected.sum();
+    }
+
+
+    @Override
+    public long getBytesCollected() {
+        return bytesCollected.sum();
+    }
+}
@@ -0,0 +1,12 @@
+package com.dilatush.pakbus.metrics;
+
+/**
+ * The management interface of {@link TableMetrics}.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public interface TableMetricsMBean {
+
+    long getRecordsCollected();
+    long getBytesCollected();
+}
@@ -74,6 +74,17 @@ public class TableDefinition {
     }
 
 
+    /**
+     * Returns the definition of the field with the given name, or null if there is no such field in this table.
+     *
+     * @param _name the name of the field
+     * @return the definition of the field, or null if there is none
+     */
+    public FieldDefinition getField( final String _name ) {
+        return byName.get( _name );
+    }
+
+
     /**
      * Returns the element at the specified position in this list.
      *
@@ -110,6 +110,16 @@ public class TableDefinitions {
     }
 
 
+    /**
+     * Returns the number of table definitions.
+     *
+     * @return the number of table definitions
+     */
+    public int size() {
+        return byNumber.size();
+    }
+
+
     /**
      * Returns the table definition for the table with the given name, or null if there is no table by that name.
      *
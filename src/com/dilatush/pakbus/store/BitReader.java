@@ -0,0 +1,61 @@
+package com.dilatush.pakbus.store;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Instances of this class read a stream of bits, most significant bit first, from the bytes in a byte buffer (which may be memory mapped), starting
+ * at the buffer's position.  The buffer itself isn't changed.  Instances of this class are mutable and <i>not</i> threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class BitReader {
+
+    final private ByteBuffer buffer;
+
+    private int index;       // the index of the next byte to read from the buffer...
+    private int current;     // the byte being read...
+    private int available;   // the number of bits of the current byte not yet read...
+
+
+    /*package*/ BitReader( final ByteBuffer _buffer ) {
+        buffer = _buffer;
+        index  = _buffer.position();
+    }
+
+
+    /**
+     * Reads the given number of bits, returning them LSB-aligned.
+     *
+     * @param _bits the number of bits to read, from 0 to 64
+     * @return the bits read
+     * @throws BufferUnderflowException if there aren't enough bits left in the buffer
+     */
+    /*package*/ long read( final int _bits ) {
+        long result = 0;
+        int needed = _bits;
+        while( needed > 0 ) {
+            if( available == 0 ) {
+                if( index >= buffer.limit() )
+                    throw new BufferUnderflowException();
+                current = buffer.get( index++ ) & 0xFF;
+                available = 8;
+            }
+            int take = Math.min( needed, available );
+            result = (result << take) | ((current >>> (available - take)) & ((1 << take) - 1));
+            available -= take;
+            needed -= take;
+        }
+        return result;
+    }
+
+
+    /**
+     * Reads a single bit.
+     *
+     * @return true if the bit is a one
+     */
+    /*package*/ boolean readBit() {
+        return read( 1 ) != 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.dilatush.pakbus.store;
+
+import java.util.Arrays;
+
+/**
+ * Instances of this class write a stream of bits, most significant bit first, into a growing byte array.  Unlike a {@link
+ * com.dilatush.pakbus.util.BitBuffer}, which is sized up front and allocates on every write, this is meant for the codec's hot loop.  Instances of
+ * this class are mutable and <i>not</i> threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+/*package*/ class BitWriter {
+
+    final static private int INITIAL_BYTES = 256;
+
+    private byte[] bytes;     // the bytes written so far...
+    private int    size;      // the number of complete bytes in the array...
+    private int    current;   // the bits of the byte being filled, LSB-aligned...
+    private int    used;      // the number of bits in the byte being filled...
+
+
+    /*package*/ BitWriter() {
+        bytes = new byte[INITIAL_BYTES];
+    }
+
+
+    /**
+     * Writes the given number of low-order bits of the given value, most significant first.
+     *
+     * @param _value the value holding the bits to write
+     * @param _bits the number of bits to write, from 0 to 64
+     */
+    /*package*/ void write( final long _value, final int _bits ) {
+        int remaining = _bits;
+        while( remaining > 0 ) {
+            int take = Math.min( remaining, 8 - used );
+            int chunk = (int)(_value >>> (remaining - take)) & ((1 << take) - 1);
+            current = (current << take) | chunk;
+            used += take;
+            remaining -= take;
+            if( used == 8 ) {
+                if( size == bytes.length )
+                    bytes = Arrays.copyOf( bytes, 2 * size );
+                bytes[size++] = (byte) current;
+                current = 0;
+                used = 0;
+            }
+        }
+    }
+
+
+    /**
+     * Writes a single bit.
+     *
+     * @param _bit the bit to write
+     */
+    /*package*/ void write( final boolean _bit ) {
+        write( _bit ? 1 : 0, 1 );
+    }
+
+
+    /**
+     * Returns the number of bits written.
+     *
+     * @return the number of bits written
+     */
+    /*package*/ long bits() {
+        return 8L * size + used;
+    }
+
+
+    /**
+     * Returns the bits written, padded with zeroes to a whole number of bytes.
+     *
+     * @return the bytes written
+     */
+    /*package*/ byte[] toByteArray() {
+        byte[] result = Arrays.copyOf( bytes, size + ((used > 0) ? 1 : 0) );
+        if( used > 0 )
+            result[size] = (byte)(current << (8 - used));
+        return result;
+    }
+}
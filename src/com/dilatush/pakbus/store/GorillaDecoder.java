@@ -0,0 +1,178 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Instances of this class decode a block of records compressed by a {@link GorillaEncoder}, one record at a time - so a scan can stop as soon as it
+ * has the records it needs, without decompressing the rest of the block.  The block is read where it is (it may be in a memory mapped file); the
+ * given buffer isn't changed.  Call {@link #next()} to decode each record, then get its record number, timestamp, and values.  Instances of this
+ * class are mutable and <i>not</i> threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class GorillaDecoder {
+
+    final public int records;   // the number of records in the block...
+    final public int columns;   // the number of values in each record...
+
+    final private BitReader in;
+    final private int[]     value;       // the bits of the current value in each column...
+    final private int[]     leading;     // the leading zeroes in the current XOR window for each column...
+    final private int[]     trailing;    // the trailing zeroes in the current XOR window for each column...
+
+    private int  decoded;             // the number of records decoded so far...
+    private long recordNumber;
+    private long recordNumberDelta;
+    private long timestamp;
+    private long timestampDelta;
+
+
+    /**
+     * Creates a new instance of this class to decode the block starting at the given buffer's position.
+     *
+     * @param _block the buffer holding the block
+     */
+    public GorillaDecoder( final ByteBuffer _block ) {
+
+        // sanity checks...
+        Checks.required( _block );
+        Checks.isTrue( _block.remaining() >= GorillaEncoder.HEADER_BYTES, "Compressed block is too short" );
+
+        // read the header...
+        int position = _block.position();
+        records = _block.getInt( position );
+        columns = _block.getShort( position + 4 ) & 0xFFFF;
+        Checks.isTrue( records >= 0, "Invalid record count in compressed block: " + records );
+
+        // and get ready to read the compressed records...
+        ByteBuffer bits = _block.duplicate();
+        bits.position( position + GorillaEncoder.HEADER_BYTES );
+        in       = new BitReader( bits );
+        value    = new int[columns];
+        leading  = new int[columns];
+        trailing = new int[columns];
+    }
+
+
+    /**
+     * Returns true if there are more records to decode.
+     *
+     * @return true if there are more records to decode
+     */
+    public boolean hasNext() {
+        return decoded < records;
+    }
+
+
+    /**
+     * Decodes the next record, whose record number, timestamp, and values are then available from this decoder's getters.
+     *
+     * @throws NoSuchElementException if all the records have been decoded
+     */
+    public void next() {
+
+        if( decoded >= records )
+            throw new NoSuchElementException( "All " + records + " records have been decoded" );
+
+        // the first record is stored whole; after that we have only the differences...
+        if( decoded == 0 ) {
+            recordNumber = in.read( 32 );
+            timestamp = in.read( 64 );
+            for( int c = 0; c < columns; c++ )
+                value[c] = (int) in.read( 32 );
+        }
+        else {
+            recordNumberDelta += readDeltaOfDelta();
+            recordNumber      += recordNumberDelta;
+            timestampDelta    += readDeltaOfDelta();
+            timestamp         += timestampDelta;
+            for( int c = 0; c < columns; c++ )
+                readValue( c );
+        }
+        decoded++;
+    }
+
+
+    /**
+     * Returns the record number of the current record (an unsigned 32 bit value).
+     *
+     * @return the record number
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+
+    /**
+     * Returns the timestamp of the current record, in nanoseconds since the PakBus epoch.
+     *
+     * @return the timestamp in nanoseconds since the PakBus epoch
+     */
+    public long getTimestampNanos() {
+        return timestamp;
+    }
+
+
+    /**
+     * Returns the value in the given column of the current record, as a float.
+     *
+     * @param _column the column of the value
+     * @return the value
+     */
+    public float getValue( final int _column ) {
+        return Float.intBitsToFloat( value[_column] );
+    }
+
+
+    /**
+     * Returns the raw bits of the value in the given column of the current record (see {@link GorillaEncoder#appendBits(long, long, int...)}).
+     *
+     * @param _column the column of the value
+     * @return the bits of the value
+     */
+    public int getBits( final int _column ) {
+        return value[_column];
+    }
+
+
+    /**
+     * Reads a delta of deltas written in one of Gorilla's variable length encodings.
+     */
+    private long readDeltaOfDelta() {
+        int prefix = 0;
+        while( (prefix < 5) && in.readBit() )
+            prefix++;
+        switch( prefix ) {
+            case 0:  return 0;
+            case 1:  return signed( in.read( 7 ), 7 );
+            case 2:  return signed( in.read( 9 ), 9 );
+            case 3:  return signed( in.read( 12 ), 12 );
+            case 4:  return signed( in.read( 32 ), 32 );
+            default: return in.read( 64 );
+        }
+    }
+
+
+    /**
+     * Reads the XOR of the next value in the given column with the previous one, and applies it.
+     */
+    private void readValue( final int _column ) {
+        if( !in.readBit() )
+            return;
+        if( in.readBit() ) {
+            leading[_column] = (int) in.read( 5 );
+            int meaningful = (int) in.read( 5 ) + 1;
+            trailing[_column] = 32 - leading[_column] - meaningful;
+        }
+        int meaningful = 32 - leading[_column] - trailing[_column];
+        value[_column] ^= (int) in.read( meaningful ) << trailing[_column];
+    }
+
+
+    private static long signed( final long _value, final int _bits ) {
+        return (_value << (64 - _bits)) >> (64 - _bits);
+    }
+}
@@ -0,0 +1,209 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.util.Checks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Instances of this class compress a series of records into a block of bits, in the style of Facebook's Gorilla time series database.  Each record is
+ * a record number, a timestamp (in nanoseconds since the PakBus epoch), and a fixed number of 32 bit values (floats, or the raw bits of any value no
+ * longer than that).  Record numbers and timestamps are stored as the difference between successive deltas (which for a table recorded at a regular
+ * interval is almost always zero, taking a single bit), and each value is stored as the XOR of it and the previous value in its column, with only the
+ * bits that differ written (a value that didn't change takes a single bit).  The records are interleaved in the block, so a {@link GorillaDecoder}
+ * can decode them one at a time and stop when it has what it needs, rather than decompressing the whole block first.
+ *
+ * <p>A block starts with a header holding the number of records and columns; see {@link #finish()}.  Instances of this class are mutable and
+ * <i>not</i> threadsafe.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class GorillaEncoder {
+
+    final static public int HEADER_BYTES = 4 + 2;   // the record count and column count at the start of a block...
+    final static public int MAX_COLUMNS  = 0xFFFF;
+
+    final public int columns;   // the number of values in each record...
+
+    final private BitWriter out;
+    final private int[]     previousValue;      // the bits of the previous value in each column...
+    final private int[]     previousLeading;    // the leading zeroes in the previous XOR window for each column, or -1 if there isn't one...
+    final private int[]     previousTrailing;   // the trailing zeroes in the previous XOR window for each column...
+
+    private int  records;                // the number of records appended...
+    private long previousRecordNumber;
+    private long recordNumberDelta;
+    private long previousTimestamp;
+    private long timestampDelta;
+
+
+    /**
+     * Creates a new instance of this class for records with the given number of values.
+     *
+     * @param _columns the number of values in each record
+     */
+    public GorillaEncoder( final int _columns ) {
+        Checks.inBounds( _columns, 0, MAX_COLUMNS, "Invalid number of columns: " + _columns );
+        columns          = _columns;
+        out              = new BitWriter();
+        previousValue    = new int[_columns];
+        previousLeading  = new int[_columns];
+        previousTrailing = new int[_columns];
+    }
+
+
+    /**
+     * Appends the given record of float values to the block.
+     *
+     * @param _recordNumber the record number (an unsigned 32 bit value)
+     * @param _timestampNanos the record's timestamp, in nanoseconds since the PakBus epoch
+     * @param _values the record's values, one per column
+     */
+    public void append( final long _recordNumber, final long _timestampNanos, final float... _values ) {
+        Checks.required( _values );
+        int[] bits = new int[_values.length];
+        for( int c = 0; c < _values.length; c++ )
+            bits[c] = Float.floatToRawIntBits( _values[c] );
+        appendBits( _recordNumber, _timestampNanos, bits );
+    }
+
+
+    /**
+     * Appends the given record to the block, with its values given as their raw bits - which are stored exactly, whatever they encode.
+     *
+     * @param _recordNumber the record number (an unsigned 32 bit value)
+     * @param _timestampNanos the record's timestamp, in nanoseconds since the PakBus epoch
+     * @param _bits the bits of the record's values, one per column
+     */
+    public void appendBits( final long _recordNumber, final long _timestampNanos, final int... _bits ) {
+
+        // sanity checks...
+        Checks.required( _bits );
+        Checks.isTrue( _bits.length == columns, "Expected " + columns + " values, got " + _bits.length );
+        Checks.isTrue( records < Integer.MAX_VALUE, "Too many records in block" );
+
+        // the first record is stored whole; after that we store only the differences...
+        if( records == 0 ) {
+            out.write( _recordNumber, 32 );
+            out.write( _timestampNanos, 64 );
+            for( int c = 0; c < columns; c++ ) {
+                out.write( _bits[c], 32 );
+                previousValue[c] = _bits[c];
+                previousLeading[c] = -1;
+            }
+        }
+        else {
+            long delta = _recordNumber - previousRecordNumber;
+            writeDeltaOfDelta( delta - recordNumberDelta );
+            recordNumberDelta = delta;
+            delta = _timestampNanos - previousTimestamp;
+            writeDeltaOfDelta( delta - timestampDelta );
+            timestampDelta = delta;
+            for( int c = 0; c < columns; c++ )
+                writeValue( c, _bits[c] );
+        }
+        previousRecordNumber = _recordNumber;
+        previousTimestamp    = _timestampNanos;
+        records++;
+    }
+
+
+    /**
+     * Returns the number of records appended.
+     *
+     * @return the number of records appended
+     */
+    public int records() {
+        return records;
+    }
+
+
+    /**
+     * Returns the number of bits the appended records have been compressed to (not counting the header).
+     *
+     * @return the number of compressed bits
+     */
+    public long bits() {
+        return out.bits();
+    }
+
+
+    /**
+     * Returns the compressed block: the number of records (an int) and the number of columns (an unsigned short), then the compressed records padded
+     * to a whole number of bytes.  More records may be appended afterwards, and this method called again to get the longer block.
+     *
+     * @return the compressed block
+     */
+    public byte[] finish() {
+        byte[] bits = out.toByteArray();
+        ByteBuffer block = ByteBuffer.allocate( HEADER_BYTES + bits.length );
+        block.putInt( records );
+        block.putShort( (short) columns );
+        block.put( bits );
+        return block.array();
+    }
+
+
+    /**
+     * Writes the given delta of deltas, in the fewest bits of Gorilla's variable length encodings.
+     */
+    private void writeDeltaOfDelta( final long _dod ) {
+        if( _dod == 0 )
+            out.write( false );
+        else if( fits( _dod, 7 ) ) {
+            out.write( 0b10, 2 );
+            out.write( _dod, 7 );
+        }
+        else if( fits( _dod, 9 ) ) {
+            out.write( 0b110, 3 );
+            out.write( _dod, 9 );
+        }
+        else if( fits( _dod, 12 ) ) {
+            out.write( 0b1110, 4 );
+            out.write( _dod, 12 );
+        }
+        else if( fits( _dod, 32 ) ) {
+            out.write( 0b11110, 5 );
+            out.write( _dod, 32 );
+        }
+        else {
+            out.write( 0b11111, 5 );
+            out.write( _dod, 64 );
+        }
+    }
+
+
+    /**
+     * Writes the XOR of the given value bits with the previous value in the given column: a single zero bit if they're the same, otherwise the
+     * differing bits - within the previous column's window of meaningful bits if they fit there, or with a new window if they don't.
+     */
+    private void writeValue( final int _column, final int _bits ) {
+
+        int xor = _bits ^ previousValue[_column];
+        previousValue[_column] = _bits;
+        if( xor == 0 ) {
+            out.write( false );
+            return;
+        }
+        out.write( true );
+
+        int leading = Integer.numberOfLeadingZeros( xor );
+        int trailing = Integer.numberOfTrailingZeros( xor );
+        if( (previousLeading[_column] >= 0) && (leading >= previousLeading[_column]) && (trailing >= previousTrailing[_column]) ) {
+            out.write( false );
+            out.write( xor >>> previousTrailing[_column], 32 - previousLeading[_column] - previousTrailing[_column] );
+            return;
+        }
+        int meaningful = 32 - leading - trailing;
+        out.write( true );
+        out.write( leading, 5 );
+        out.write( meaningful - 1, 5 );
+        out.write( xor >>> trailing, meaningful );
+        previousLeading[_column]  = leading;
+        previousTrailing[_column] = trailing;
+    }
+
+
+    private static boolean fits( final long _value, final int _bits ) {
+        return (_value >= -(1L << (_bits - 1))) && (_value < (1L << (_bits - 1)));
+    }
+}
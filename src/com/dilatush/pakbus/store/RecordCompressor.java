@@ -0,0 +1,182 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.app.Datalogger;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.types.CP;
+import com.dilatush.pakbus.types.CompositeDataType;
+import com.dilatush.pakbus.types.DataType;
+import com.dilatush.pakbus.types.GeneralDataType;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.CompositeDatum;
+import com.dilatush.pakbus.values.Datum;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Instances of this class compress and decompress the records of one table with a {@link GorillaEncoder} and {@link GorillaDecoder}, turning each
+ * record into its record number, timestamp, and a column per field.  Only tables whose fields are all single floating point values of no more than
+ * 32 bits (FP2, FP3, FP4, or IEEE4 in any byte order) can be compressed this way - which covers most tables of sensor readings.  Each field is
+ * compressed as its serialized bits (right-justified in 32 bits), not as a float converted from them: FP4 has more mantissa bits than a float, and
+ * converting FP2 changes its non-canonical and out-of-range encodings.  So records come back bit for bit as they went in, and since consecutive
+ * readings share most of their serialized bits just as they do a float's, they compress as well.  Instances of this class are immutable and
+ * threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RecordCompressor {
+
+    final public String            tableName;
+    final public CompositeDataType recordType;   // the type of the records, as returned by collection...
+
+    final private String[] fields;       // the names of the fields compressed as columns, in order...
+    final private int[]    fieldBytes;   // the serialized length of each of those fields, in bytes...
+
+
+    /**
+     * Creates a new instance of this class for the given table.
+     *
+     * @param _tableDefinition the definition of the table whose records are to be compressed
+     * @throws IllegalArgumentException if the table's records can't be compressed
+     */
+    public RecordCompressor( final TableDefinition _tableDefinition ) {
+        Checks.required( _tableDefinition );
+        tableName  = _tableDefinition.name;
+        recordType = Datalogger.getRecordType( _tableDefinition );
+        List<String> names = fieldNames( recordType );
+        if( names == null )
+            throw new IllegalArgumentException( "Records of table " + tableName + " have fields that aren't single floating point values" );
+        fields = names.toArray( new String[names.size()] );
+        fieldBytes = new int[fields.length];
+        for( int c = 0; c < fields.length; c++ )
+            fieldBytes[c] = recordType.names().get( fields[c] ).getType().bits() >>> 3;
+    }
+
+
+    /**
+     * Returns true if the records of the given table can be compressed by an instance of this class.
+     *
+     * @param _tableDefinition the definition of the table
+     * @return true if the table's records can be compressed
+     */
+    public static boolean isCompressible( final TableDefinition _tableDefinition ) {
+        Checks.required( _tableDefinition );
+        return fieldNames( Datalogger.getRecordType( _tableDefinition ) ) != null;
+    }
+
+
+    /**
+     * Returns the given records (which must be of the type returned by collecting all the fields of this compressor's table) compressed into a
+     * block.
+     *
+     * @param _records the records to compress
+     * @return the compressed block
+     */
+    public byte[] compress( final Iterable<Datum> _records ) {
+        Checks.required( _records );
+        GorillaEncoder encoder = new GorillaEncoder( fields.length );
+        int[] values = new int[fields.length];
+        for( Datum record : _records ) {
+            for( int c = 0; c < fields.length; c++ )
+                values[c] = toBits( record.at( fields[c] ).getAsByteBuffer() );
+            encoder.appendBits( Integer.toUnsignedLong( record.at( Datalogger.FIELD_RECORD_NUMBER ).getAsInt() ),
+                    RecordSegment.toNanos( record.at( Datalogger.FIELD_TIMESTAMP ).getAsNSec() ), values );
+        }
+        return encoder.finish();
+    }
+
+
+    /**
+     * Returns the records in the given segment from the given index (inclusive) to the given index (exclusive) compressed into a block.  The
+     * segment must hold this compressor's table.
+     *
+     * @param _segment the segment holding the records
+     * @param _from the index of the first record
+     * @param _to the index after the last record
+     * @return the compressed block
+     */
+    public byte[] compress( final RecordSegment _segment, final long _from, final long _to ) {
+        Checks.required( _segment );
+        Checks.isTrue( _segment.recordType.bits() == recordType.bits() && _segment.tableName.equals( tableName ),
+                "Record segment isn't for table " + tableName + ": " + _segment.file );
+        List<Datum> records = new ArrayList<>();
+        _segment.scan( _from, _to, records::add );
+        return compress( records );
+    }
+
+
+    /**
+     * Decodes the records in the compressed block at the given buffer's position, giving each one to the given consumer as it's decoded.  The
+     * consumer may throw an exception to stop decoding early.
+     *
+     * @param _block the buffer holding the compressed block
+     * @param _consumer the consumer to give the records to
+     */
+    public void decompress( final ByteBuffer _block, final Consumer<Datum> _consumer ) {
+        Checks.required( _block, _consumer );
+        GorillaDecoder decoder = new GorillaDecoder( _block );
+        Checks.isTrue( decoder.columns == fields.length, "Compressed block isn't for table " + tableName );
+        while( decoder.hasNext() ) {
+            decoder.next();
+            _consumer.accept( toRecord( decoder ) );
+        }
+    }
+
+
+    /**
+     * Returns a record made from the current record of the given decoder.
+     */
+    private Datum toRecord( final GorillaDecoder _decoder ) {
+        CompositeDatum record = new CompositeDatum( recordType );
+        record.at( Datalogger.FIELD_RECORD_NUMBER ).setTo( _decoder.getRecordNumber() );
+        record.at( Datalogger.FIELD_TIMESTAMP ).setTo( RecordSegment.toNSec( _decoder.getTimestampNanos() ) );
+        for( int c = 0; c < fields.length; c++ )
+            record.at( fields[c] ).setTo( fromBits( _decoder.getBits( c ), fieldBytes[c] ) );
+        record.finish();
+        return record;
+    }
+
+
+    /**
+     * Returns the given serialized value (no more than four bytes) as the low order bits of an int.
+     */
+    private static int toBits( final ByteBuffer _value ) {
+        int bits = 0;
+        while( _value.hasRemaining() )
+            bits = (bits << 8) | (_value.get() & 0xFF);
+        return bits;
+    }
+
+
+    /**
+     * Returns the serialized value of the given length held in the low order bits of the given int.
+     */
+    private static ByteBuffer fromBits( final int _bits, final int _bytes ) {
+        ByteBuffer value = ByteBuffer.allocate( _bytes );
+        for( int b = _bytes - 1; b >= 0; b-- )
+            value.put( (byte)(_bits >>> (b << 3)) );
+        value.flip();
+        return value;
+    }
+
+
+    /**
+     * Returns the names of the fields (other than the record number and timestamp) in the given record type, or null if any of them isn't a single
+     * floating point value of a whole number of bytes, no more than 32 bits.
+     */
+    private static List<String> fieldNames( final CompositeDataType _recordType ) {
+        List<String> names = new ArrayList<>();
+        for( CP component : _recordType.order() ) {
+            String name = component.getName();
+            if( Datalogger.FIELD_RECORD_NUMBER.equals( name ) || Datalogger.FIELD_TIMESTAMP.equals( name ) )
+                continue;
+            DataType type = component.getType();
+            if( (type.generalType() != GeneralDataType.Float) || (type.bits() > 32) || ((type.bits() & 7) != 0) )
+                return null;
+            names.add( name );
+        }
+        return names;
+    }
+}
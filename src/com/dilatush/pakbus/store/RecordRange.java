@@ -0,0 +1,32 @@
+package com.dilatush.pakbus.store;
+
+/**
+ * Instances of this class represent a half-open range of record numbers or timestamps (in nanoseconds since the PakBus epoch): from the start
+ * (inclusive) to the end (exclusive), just as the datalogger's range collection requests take them.  Instances of this class are immutable and
+ * threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RecordRange {
+
+    final public long start;   // the first value in the range...
+    final public long end;     // the first value after the range...
+
+
+    /**
+     * Creates a new instance of this class for the given half-open range.
+     *
+     * @param _start the first value in the range
+     * @param _end the first value after the range
+     */
+    public RecordRange( final long _start, final long _end ) {
+        start = _start;
+        end   = _end;
+    }
+
+
+    @Override
+    public String toString() {
+        return "[" + start + ".." + end + ")";
+    }
+}
@@ -0,0 +1,369 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.app.Datalogger;
+import com.dilatush.pakbus.app.RecordSink;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.types.CompositeDataType;
+import com.dilatush.pakbus.util.BitBuffer;
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.CompositeDatum;
+import com.dilatush.pakbus.values.Datum;
+import com.dilatush.pakbus.values.NSec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Instances of this class store the records collected from one table (with one table signature) in one datalogger, in an append-only file.  Every
+ * record takes a fixed-length slot: the record's timestamp (as a long count of nanoseconds since the PakBus epoch), then the record exactly as the
+ * datalogger serialized it, preceded by its record number - the compact binary layout the table definition's field types call for.  Because the
+ * slots are all the same length, record i is at a computed position, and a sequential scan just walks memory.  The file is read and written through
+ * memory mapped regions.  Each segment keeps a {@link SegmentIndex} over its committed records, for finding records by record number or timestamp,
+ * and for finding the records missing from it.
+ *
+ * <p>The file starts with a header holding the magic number, format version, slot length, table signature, and the number of committed records.
+ * Appended records aren't visible to readers until they're committed: committing forces the appended slots to disk, and only then writes (and
+ * forces) the new committed count in the header.  So after a crash the file holds exactly the records committed before it, and anything appended
+ * after the last commit is simply overwritten by the next append.  A segment is also a {@link RecordSink}, committing each block of records as it's
+ * accepted, so collection can be streamed straight to disk.</p>
+ *
+ * <p>Get instances of this class from a {@link RecordStore}.  Instances of this class are mutable and threadsafe: appends and commits are
+ * synchronized, and reads of committed records take no lock.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RecordSegment implements RecordSink, Closeable {
+
+    final static public int MAGIC   = 0x50425253;   // "PBRS"...
+    final static public int VERSION = 1;
+
+    final static private int HEADER_BYTES     = 64;
+    final static private int SLOT_BYTES_AT    = 8;                  // header offset of the slot length...
+    final static private int SIGNATURE_AT     = 12;                 // header offset of the table signature...
+    final static private int COMMITTED_AT     = 16;                 // header offset of the committed record count...
+    final static private int TIMESTAMP_BYTES  = 8;                  // the timestamp at the start of each slot...
+    final static private int REGION_BYTES     = 64 * 1024 * 1024;   // how much of the file we map at once (at most)...
+    final static private String INDEX_SUFFIX  = ".idx";
+
+    final public Path              file;
+    final public String            tableName;
+    final public CompositeDataType recordType;   // the type of the records, as returned by collection...
+    final public int               slotBytes;    // the length of each record's slot...
+    final public SegmentIndex      index;        // the record number and timestamp index over the committed records...
+
+    final private FileChannel      channel;
+    final private MappedByteBuffer header;
+    final private int              regionSlots;  // the number of slots in each mapped region...
+
+    private volatile MappedByteBuffer[] regions;     // the mapped regions, in file order...
+    private volatile long               committed;   // the number of records readers may see...
+    private          long               appended;    // the number of records appended, committed or not...
+    private          boolean            closed;
+
+
+    /**
+     * Opens the segment in the given file for the given table, creating it if it doesn't exist.
+     *
+     * @param _file the path of the segment file
+     * @param _tableDefinition the definition of the table whose records the segment holds
+     * @throws IOException on any problem opening the file, or if it isn't a segment for the given table
+     */
+    /*package*/ RecordSegment( final Path _file, final TableDefinition _tableDefinition ) throws IOException {
+
+        // sanity check...
+        Checks.required( _file, _tableDefinition );
+
+        // figure out our slot length, which only works for tables whose records have a fixed length...
+        file       = _file;
+        tableName  = _tableDefinition.name;
+        recordType = Datalogger.getRecordType( _tableDefinition );
+        int recordBits = recordType.bits();
+        if( (recordBits <= 0) || ((recordBits & 7) != 0) )
+            throw new IOException( "Records of table " + tableName + " don't have a fixed length in bytes" );
+        slotBytes   = TIMESTAMP_BYTES + (recordBits >>> 3);
+        regionSlots = Math.max( 1, REGION_BYTES / slotBytes );
+        int signature = _tableDefinition.signature.getSignature();
+
+        // open the file and map its header...
+        channel = FileChannel.open( _file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        boolean isNew = (channel.size() == 0);
+        header = channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES );
+
+        // if the file is new, write its header; otherwise check that it's the segment we expect...
+        if( isNew ) {
+            header.putInt( 0, MAGIC );
+            header.putInt( 4, VERSION );
+            header.putInt( SLOT_BYTES_AT, slotBytes );
+            header.putInt( SIGNATURE_AT, signature );
+            header.putLong( COMMITTED_AT, 0 );
+            header.force();
+        }
+        else {
+            if( (header.getInt( 0 ) != MAGIC) || (header.getInt( 4 ) != VERSION) ) {
+                channel.close();
+                throw new IOException( "Not a record segment: " + _file );
+            }
+            if( (header.getInt( SLOT_BYTES_AT ) != slotBytes) || (header.getInt( SIGNATURE_AT ) != signature) ) {
+                channel.close();
+                throw new IOException( "Record segment " + _file + " is for a different definition of table " + tableName );
+            }
+        }
+
+        // map the regions holding the committed records...
+        committed = header.getLong( COMMITTED_AT );
+        appended  = committed;
+        regions   = new MappedByteBuffer[0];
+        ensureMapped( committed );
+
+        // open (or rebuild) our index...
+        index = new SegmentIndex( _file.resolveSibling( _file.getFileName() + INDEX_SUFFIX ), this );
+    }
+
+
+    /**
+     * Returns the number of committed records in this segment.
+     *
+     * @return the number of committed records
+     */
+    public long size() {
+        return committed;
+    }
+
+
+    /**
+     * Appends the given record (which must be of the type returned by collecting all the fields of this segment's table) to this segment.  The
+     * record isn't visible to readers (or durable) until {@link #commit()} is called.
+     *
+     * @param _record the record to append
+     * @throws IOException on any problem growing the file
+     */
+    public synchronized void append( final Datum _record ) throws IOException {
+
+        // sanity checks...
+        Checks.required( _record );
+        Checks.isTrue( !closed, "Record segment is closed: " + file );
+
+        // get the record's bytes and timestamp...
+        _record.finish();
+        ByteBuffer bytes = _record.getAsByteBuffer();
+        Checks.isTrue( bytes.remaining() + TIMESTAMP_BYTES == slotBytes, "Record doesn't match table " + tableName + ": " + file );
+        NSec timestamp = _record.at( Datalogger.FIELD_TIMESTAMP ).getAsNSec();
+
+        // and write them into the next slot...
+        ensureMapped( appended + 1 );
+        ByteBuffer slot = slot( appended );
+        slot.putLong( toNanos( timestamp ) );
+        slot.put( bytes );
+        appended++;
+    }
+
+
+    /**
+     * Appends the given records to this segment, as {@link #append(Datum)} does.
+     *
+     * @param _records the records to append
+     * @throws IOException on any problem growing the file
+     */
+    public synchronized void append( final List<Datum> _records ) throws IOException {
+        Checks.required( _records );
+        for( Datum record : _records )
+            append( record );
+    }
+
+
+    /**
+     * Commits the records appended since the last commit, making them durable and visible to readers.
+     *
+     * @throws IOException on any problem writing to the file
+     */
+    public synchronized void commit() throws IOException {
+
+        if( closed || (appended == committed) )
+            return;
+
+        // first make the appended records durable...
+        int first = (int)(committed / regionSlots);
+        int last = (int)((appended - 1) / regionSlots);
+        MappedByteBuffer[] mapped = regions;
+        for( int r = first; r <= last; r++ )
+            mapped[r].force();
+
+        // then (and only then) the count that says they're there...
+        header.putLong( COMMITTED_AT, appended );
+        header.force();
+        committed = appended;
+
+        // now that they're visible, index them...
+        index.update();
+    }
+
+
+    /**
+     * Appends the given block of collected records, and commits them.
+     *
+     * @param _records the block of collected records
+     */
+    @Override
+    public void accept( final List<Datum> _records ) {
+        try {
+            synchronized( this ) {
+                append( _records );
+                commit();
+            }
+        }
+        catch( IOException _e ) {
+            throw new IllegalStateException( "Could not store records in " + file, _e );
+        }
+    }
+
+
+    /**
+     * Returns the committed record at the given index (zero being the first record stored).
+     *
+     * @param _index the index of the record
+     * @return the record
+     */
+    public Datum get( final long _index ) {
+        checkIndex( _index );
+        ByteBuffer slot = slot( _index );
+        slot.position( slot.position() + TIMESTAMP_BYTES );
+        return decode( slot );
+    }
+
+
+    /**
+     * Returns the record number of the committed record at the given index, without decoding the record.
+     *
+     * @param _index the index of the record
+     * @return the record number
+     */
+    public int getRecordNumber( final long _index ) {
+        checkIndex( _index );
+        ByteBuffer slot = slot( _index );
+        return slot.getInt( slot.position() + TIMESTAMP_BYTES );
+    }
+
+
+    /**
+     * Returns the timestamp, in nanoseconds since the PakBus epoch, of the committed record at the given index, without decoding the record.
+     *
+     * @param _index the index of the record
+     * @return the timestamp in nanoseconds since the PakBus epoch
+     */
+    public long getTimestampNanos( final long _index ) {
+        checkIndex( _index );
+        ByteBuffer slot = slot( _index );
+        return slot.getLong( slot.position() );
+    }
+
+
+    /**
+     * Gives each committed record from the given index (inclusive) to the given index (exclusive) to the given consumer, in order.  The end index is
+     * limited to the number of committed records.
+     *
+     * @param _from the index of the first record
+     * @param _to the index after the last record
+     * @param _consumer the consumer to give the records to
+     */
+    public void scan( final long _from, final long _to, final Consumer<Datum> _consumer ) {
+        Checks.required( _consumer );
+        long to = Math.min( _to, committed );
+        for( long index = Math.max( 0, _from ); index < to; index++ )
+            _consumer.accept( get( index ) );
+    }
+
+
+    /**
+     * Commits anything appended, then closes this segment.
+     *
+     * @throws IOException on any problem writing to or closing the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if( closed )
+            return;
+        commit();
+        closed = true;
+        index.close();
+        channel.close();
+    }
+
+
+    /**
+     * Returns the given time as nanoseconds since the PakBus epoch.
+     *
+     * @param _time the time to convert
+     * @return the time in nanoseconds since the PakBus epoch
+     */
+    public static long toNanos( final NSec _time ) {
+        return TimeUnit.SECONDS.toNanos( _time.seconds ) + _time.nanoseconds;
+    }
+
+
+    /**
+     * Returns the given count of nanoseconds since the PakBus epoch as a time.
+     *
+     * @param _nanos the nanoseconds since the PakBus epoch
+     * @return the time
+     */
+    public static NSec toNSec( final long _nanos ) {
+        return new NSec( (int) TimeUnit.NANOSECONDS.toSeconds( _nanos ), (int)(_nanos % TimeUnit.SECONDS.toNanos( 1 )) );
+    }
+
+
+    /**
+     * Returns a record decoded from the bytes at the given buffer's position.
+     */
+    private Datum decode( final ByteBuffer _bytes ) {
+        ByteBuffer bytes = _bytes.slice();
+        bytes.limit( slotBytes - TIMESTAMP_BYTES );
+        CompositeDatum datum = new CompositeDatum( recordType );
+        datum.set( new BitBuffer( bytes ) );
+        return datum;
+    }
+
+
+    /**
+     * Returns a buffer positioned at the start of the slot with the given index (whose region must be mapped).
+     */
+    private ByteBuffer slot( final long _index ) {
+        ByteBuffer region = regions[(int)(_index / regionSlots)].duplicate();
+        region.position( (int)(_index % regionSlots) * slotBytes );
+        return region;
+    }
+
+
+    private void checkIndex( final long _index ) {
+        if( (_index < 0) || (_index >= committed) )
+            throw new IndexOutOfBoundsException( "Record index " + _index + " is not in [0.." + committed + ")" );
+    }
+
+
+    /**
+     * Makes sure that the regions holding the given number of slots are mapped, growing the file if necessary.
+     *
+     * @param _slots the number of slots that must be mapped
+     * @throws IOException on any problem mapping the regions
+     */
+    private void ensureMapped( final long _slots ) throws IOException {
+        long needed = (_slots + regionSlots - 1) / regionSlots;
+        MappedByteBuffer[] mapped = regions;
+        if( needed <= mapped.length )
+            return;
+        MappedByteBuffer[] grown = Arrays.copyOf( mapped, (int) needed );
+        for( int r = mapped.length; r < needed; r++ ) {
+            long position = HEADER_BYTES + (long) r * regionSlots * slotBytes;
+            grown[r] = channel.map( FileChannel.MapMode.READ_WRITE, position, (long) regionSlots * slotBytes );
+        }
+        regions = grown;
+    }
+}
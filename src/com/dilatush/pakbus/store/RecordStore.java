@@ -0,0 +1,113 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.app.Datalogger;
+import com.dilatush.pakbus.shims.TableDefinition;
+import com.dilatush.pakbus.util.Checks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class are local, embedded stores for the records collected from dataloggers, with no external database.  The store is a
+ * directory holding one subdirectory per datalogger, each holding one {@link RecordSegment} file per table and table signature - so when a table is
+ * redefined (changing its signature), its records go into a new segment rather than being mixed with the old ones.  Segments are opened when first
+ * asked for, and stay open until the store is closed.  Instances of this class are threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class RecordStore implements Closeable {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final static private String SEGMENT_SUFFIX = ".seg";
+
+    final public Path root;
+
+    final private Map<Path,RecordSegment> segments;   // the open segments, by file...
+
+
+    /**
+     * Creates a new instance of this class in the given directory, creating the directory if it doesn't exist.
+     *
+     * @param _root the directory holding the store
+     * @throws IOException on any problem creating the directory
+     */
+    public RecordStore( final Path _root ) throws IOException {
+        Checks.required( _root );
+        root = Files.createDirectories( _root );
+        segments = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns the segment holding the records of the given table in the given datalogger, opening (or creating) it if necessary.
+     *
+     * @param _datalogger the datalogger the records are collected from
+     * @param _tableDefinition the definition of the table the records are collected from
+     * @return the segment holding the table's records
+     * @throws IOException on any problem opening or creating the segment
+     */
+    public RecordSegment segment( final Datalogger _datalogger, final TableDefinition _tableDefinition ) throws IOException {
+
+        Checks.required( _datalogger, _tableDefinition );
+
+        Path dir = root.resolve( fileName( _datalogger.name ) );
+        Path file = dir.resolve( fileName( _tableDefinition.name )
+                + String.format( "-%04x", _tableDefinition.signature.getSignature() ) + SEGMENT_SUFFIX );
+
+        RecordSegment segment = segments.get( file );
+        if( segment != null )
+            return segment;
+        synchronized( this ) {
+            segment = segments.get( file );
+            if( segment == null ) {
+                Files.createDirectories( dir );
+                segment = new RecordSegment( file, _tableDefinition );
+                segments.put( file, segment );
+            }
+            return segment;
+        }
+    }
+
+
+    /**
+     * Closes all the open segments (committing anything appended to them).
+     *
+     * @throws IOException if any segment couldn't be closed (after trying to close the rest)
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        List<IOException> failures = new ArrayList<>();
+        for( RecordSegment segment : segments.values() ) {
+            try {
+                segment.close();
+            }
+            catch( IOException _e ) {
+                LOGGER.log( Level.WARNING, "Could not close record segment " + segment.file, _e );
+                failures.add( _e );
+            }
+        }
+        segments.clear();
+        if( !failures.isEmpty() )
+            throw failures.get( 0 );
+    }
+
+
+    /**
+     * Returns the given name with anything that might not be safe in a file name replaced by underscores.
+     *
+     * @param _name the name to make safe
+     * @return the safe file name
+     */
+    private static String fileName( final String _name ) {
+        return _name.replaceAll( "[^A-Za-z0-9._-]", "_" );
+    }
+}
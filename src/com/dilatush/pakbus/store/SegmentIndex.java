@@ -0,0 +1,321 @@
+package com.dilatush.pakbus.store;
+
+import com.dilatush.pakbus.util.Checks;
+import com.dilatush.pakbus.values.Datum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Instances of this class are sparse indexes over the records in a {@link RecordSegment}, by record number and by timestamp.  The segment's records
+ * are divided into blocks of {@link #BLOCK_RECORDS} records, and the index holds one entry per block: the lowest and highest record numbers and
+ * timestamps in it, and whether its record numbers run consecutively.  Queries look at the entries first, and only read the records in blocks that
+ * could hold what they're looking for - so finding a range of records seeks to it rather than scanning the whole segment.  Nothing is assumed about
+ * the order of the records (a datalogger's record numbers restart when its table is reset, and gap-filling appends older records after newer ones),
+ * so queries return records in the order they're stored.  The same entries tell which ranges of record numbers or timestamps are missing from the
+ * segment, so that gap-fill collection asks the datalogger for just those.
+ *
+ * <p>The index is kept in its own memory mapped file next to the segment's.  It's derived entirely from the segment, and is brought up to date
+ * whenever the segment commits.  Like the segment, it forces its entries before the count of records they cover, so after a crash that count never
+ * covers entries that were lost; if the index is lost or falls behind, it's simply rebuilt from the segment when the segment is opened.
+ * Instances of this class are threadsafe through synchronization.</p>
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class SegmentIndex implements Closeable {
+
+    final static public int MAGIC         = 0x50425249;   // "PBRI"...
+    final static public int VERSION       = 1;
+    final static public int BLOCK_RECORDS = 256;          // records per index entry...
+
+    final static private int HEADER_BYTES   = 32;
+    final static private int INDEXED_AT     = 8;               // header offset of the number of records indexed...
+    final static private int ENTRY_BYTES    = 4 + 4 + 8 + 8 + 4 + 4;   // min and max record number and timestamp, count, consecutive...
+    final static private int MIN_RECORD     = 0;
+    final static private int MAX_RECORD     = 4;
+    final static private int MIN_TIME       = 8;
+    final static private int MAX_TIME       = 16;
+    final static private int COUNT          = 24;
+    final static private int CONSECUTIVE    = 28;
+    final static private int INITIAL_BLOCKS = 1024;            // entries to make room for when the index file is created...
+
+    final public Path file;
+
+    final private RecordSegment segment;
+    final private FileChannel   channel;
+
+    private MappedByteBuffer map;       // the mapped index file...
+    private long             indexed;   // the number of segment records indexed...
+
+
+    /**
+     * Opens the index in the given file for the given segment, creating it (or rebuilding it) if necessary, and brings it up to date.
+     *
+     * @param _file the path of the index file
+     * @param _segment the segment to index
+     * @throws IOException on any problem opening or writing the index file
+     */
+    /*package*/ SegmentIndex( final Path _file, final RecordSegment _segment ) throws IOException {
+
+        file    = _file;
+        segment = _segment;
+        channel = FileChannel.open( _file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        map( Math.max( channel.size(), HEADER_BYTES + (long) INITIAL_BLOCKS * ENTRY_BYTES ) );
+
+        // if the index is usable, carry on from where it left off; otherwise start over...
+        boolean usable = (map.getInt( 0 ) == MAGIC) && (map.getInt( 4 ) == VERSION) && (map.getLong( INDEXED_AT ) <= _segment.size());
+        if( !usable ) {
+            map.putInt( 0, MAGIC );
+            map.putInt( 4, VERSION );
+            map.putLong( INDEXED_AT, 0 );
+        }
+        indexed = map.getLong( INDEXED_AT );
+        update();
+    }
+
+
+    /**
+     * Brings this index up to date with the segment's committed records, rebuilding the entry for the last (partial) block it had indexed, and
+     * adding entries for any blocks after that.
+     *
+     * @throws IOException on any problem writing the index file
+     */
+    /*package*/ synchronized void update() throws IOException {
+
+        long size = segment.size();
+        if( size == indexed )
+            return;
+
+        // make sure there's room for all the entries we need...
+        long blocks = (size + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        long needed = HEADER_BYTES + blocks * ENTRY_BYTES;
+        if( needed > map.capacity() )
+            map( Math.max( needed, 2L * map.capacity() ) );
+
+        // (re)build the entries from the block holding the first record we haven't indexed...
+        for( long block = indexed / BLOCK_RECORDS; block < blocks; block++ ) {
+
+            long first = block * BLOCK_RECORDS;
+            long last = Math.min( size, first + BLOCK_RECORDS );
+            long minRecord = Long.MAX_VALUE, maxRecord = Long.MIN_VALUE, minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+            boolean consecutive = true;
+            long previous = -1;
+            for( long index = first; index < last; index++ ) {
+                long recordNumber = Integer.toUnsignedLong( segment.getRecordNumber( index ) );
+                long time = segment.getTimestampNanos( index );
+                minRecord = Math.min( minRecord, recordNumber );
+                maxRecord = Math.max( maxRecord, recordNumber );
+                minTime   = Math.min( minTime, time );
+                maxTime   = Math.max( maxTime, time );
+                if( (previous >= 0) && (recordNumber != previous + 1) )
+                    consecutive = false;
+                previous = recordNumber;
+            }
+
+            int at = entry( block );
+            map.putInt(  at + MIN_RECORD,  (int) minRecord );
+            map.putInt(  at + MAX_RECORD,  (int) maxRecord );
+            map.putLong( at + MIN_TIME,    minTime );
+            map.putLong( at + MAX_TIME,    maxTime );
+            map.putInt(  at + COUNT,       (int)(last - first) );
+            map.putInt(  at + CONSECUTIVE, consecutive ? 1 : 0 );
+        }
+
+        // force the entries before the count that vouches for them (as the segment does with its records), so after a crash the count never covers
+        // entries that didn't make it to disk - the last block it covers is rebuilt on the next update anyway...
+        map.force();
+        map.putLong( INDEXED_AT, size );
+        map.force();
+        indexed = size;
+    }
+
+
+    /**
+     * Gives each record with a record number in the given range to the given consumer, in the order they're stored.
+     *
+     * @param _range the range of record numbers
+     * @param _consumer the consumer to give the records to
+     */
+    public void scanRecordNumbers( final RecordRange _range, final Consumer<Datum> _consumer ) {
+        Checks.required( _range, _consumer );
+        for( long block : blocks( _range, MIN_RECORD, MAX_RECORD, true ) ) {
+            long first = block * BLOCK_RECORDS;
+            long last = first + getInt( block, COUNT );
+            for( long index = first; index < last; index++ ) {
+                long recordNumber = Integer.toUnsignedLong( segment.getRecordNumber( index ) );
+                if( (recordNumber >= _range.start) && (recordNumber < _range.end) )
+                    _consumer.accept( segment.get( index ) );
+            }
+        }
+    }
+
+
+    /**
+     * Gives each record with a timestamp (in nanoseconds since the PakBus epoch) in the given range to the given consumer, in the order they're
+     * stored.
+     *
+     * @param _range the range of timestamps
+     * @param _consumer the consumer to give the records to
+     */
+    public void scanTimestamps( final RecordRange _range, final Consumer<Datum> _consumer ) {
+        Checks.required( _range, _consumer );
+        for( long block : blocks( _range, MIN_TIME, MAX_TIME, false ) ) {
+            long first = block * BLOCK_RECORDS;
+            long last = first + getInt( block, COUNT );
+            for( long index = first; index < last; index++ ) {
+                long time = segment.getTimestampNanos( index );
+                if( (time >= _range.start) && (time < _range.end) )
+                    _consumer.accept( segment.get( index ) );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the ranges of record numbers within the given range that are not in the segment, in ascending order.  Blocks whose record numbers run
+     * consecutively are taken whole from their index entries; only the records of other blocks are read.
+     *
+     * @param _range the range of record numbers to check
+     * @return the missing ranges of record numbers
+     */
+    public List<RecordRange> missingRecordNumbers( final RecordRange _range ) {
+
+        Checks.required( _range );
+
+        // gather the ranges of record numbers we have...
+        List<RecordRange> present = new ArrayList<>();
+        for( long block : blocks( _range, MIN_RECORD, MAX_RECORD, true ) ) {
+            if( getInt( block, CONSECUTIVE ) != 0 ) {
+                present.add( new RecordRange( Integer.toUnsignedLong( getInt( block, MIN_RECORD ) ),
+                        Integer.toUnsignedLong( getInt( block, MAX_RECORD ) ) + 1 ) );
+                continue;
+            }
+            long first = block * BLOCK_RECORDS;
+            long last = first + getInt( block, COUNT );
+            for( long index = first; index < last; index++ ) {
+                long recordNumber = Integer.toUnsignedLong( segment.getRecordNumber( index ) );
+                present.add( new RecordRange( recordNumber, recordNumber + 1 ) );
+            }
+        }
+
+        // the missing ranges are the gaps between them...
+        present.sort( Comparator.comparingLong( range -> range.start ) );
+        List<RecordRange> missing = new ArrayList<>();
+        long next = _range.start;
+        for( RecordRange range : present ) {
+            if( range.start > next )
+                missing.add( new RecordRange( next, Math.min( range.start, _range.end ) ) );
+            next = Math.max( next, range.end );
+            if( next >= _range.end )
+                break;
+        }
+        if( next < _range.end )
+            missing.add( new RecordRange( next, _range.end ) );
+        return missing;
+    }
+
+
+    /**
+     * Returns the ranges of timestamps (in nanoseconds since the PakBus epoch) within the given range where records of a table with the given record
+     * interval are missing from the segment, in ascending order.  Wherever two stored records (or a stored record and the ends of the range) are
+     * further apart than the interval, the time between them is missing.
+     *
+     * @param _range the range of timestamps to check
+     * @param _intervalNanos the table's record interval, in nanoseconds
+     * @return the missing ranges of timestamps
+     */
+    public List<RecordRange> missingTimestamps( final RecordRange _range, final long _intervalNanos ) {
+
+        Checks.required( _range );
+        Checks.isTrue( _intervalNanos > 0, "Table has no regular record interval" );
+
+        // gather the timestamps we have in the range...
+        long[] times = new long[16];
+        int count = 0;
+        for( long block : blocks( _range, MIN_TIME, MAX_TIME, false ) ) {
+            long first = block * BLOCK_RECORDS;
+            long last = first + getInt( block, COUNT );
+            for( long index = first; index < last; index++ ) {
+                long time = segment.getTimestampNanos( index );
+                if( (time >= _range.start) && (time < _range.end) ) {
+                    if( count == times.length )
+                        times = Arrays.copyOf( times, 2 * count );
+                    times[count++] = time;
+                }
+            }
+        }
+        Arrays.sort( times, 0, count );
+
+        // the missing ranges are wherever the records are further apart than the interval...
+        List<RecordRange> missing = new ArrayList<>();
+        long previous = _range.start - 1;   // just before the range, so a record right at its start leaves no gap...
+        for( int i = 0; i < count; i++ ) {
+            if( times[i] - previous > _intervalNanos )
+                missing.add( new RecordRange( previous + 1, times[i] ) );
+            previous = times[i];
+        }
+        if( _range.end - previous > _intervalNanos )
+            missing.add( new RecordRange( previous + 1, _range.end ) );
+        return missing;
+    }
+
+
+    /**
+     * Closes the index file.
+     *
+     * @throws IOException on any problem closing the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+
+    /**
+     * Returns the numbers of the blocks whose range of (unsigned int or long) values at the given entry offsets overlaps the given range.
+     */
+    private synchronized List<Long> blocks( final RecordRange _range, final int _minAt, final int _maxAt, final boolean _unsignedInt ) {
+        List<Long> result = new ArrayList<>();
+        long blocks = (indexed + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        for( long block = 0; block < blocks; block++ ) {
+            int at = entry( block );
+            long min = _unsignedInt ? Integer.toUnsignedLong( map.getInt( at + _minAt ) ) : map.getLong( at + _minAt );
+            long max = _unsignedInt ? Integer.toUnsignedLong( map.getInt( at + _maxAt ) ) : map.getLong( at + _maxAt );
+            if( (max >= _range.start) && (min < _range.end) )
+                result.add( block );
+        }
+        return result;
+    }
+
+
+    private synchronized int getInt( final long _block, final int _at ) {
+        return map.getInt( entry( _block ) + _at );
+    }
+
+
+    private static int entry( final long _block ) {
+        return (int)(HEADER_BYTES + _block * ENTRY_BYTES);
+    }
+
+
+    /**
+     * Maps the index file with the given size, growing the file if necessary.
+     *
+     * @param _size the size to map
+     * @throws IOException on any problem mapping the file
+     */
+    private void map( final long _size ) throws IOException {
+        if( _size > Integer.MAX_VALUE )
+            throw new IOException( "Record segment index is too large: " + file );
+        map = channel.map( FileChannel.MapMode.READ_WRITE, 0, _size );
+    }
+}
@@ -0,0 +1,81 @@
+package com.dilatush.pakbus.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Instances of this class make sure that concurrent identical asynchronous requests are made only once.  Each request is identified by a key; if a
+ * request is made while an equal one is still in flight, the second caller simply shares the first one's result, and no new request is made.  Once
+ * a request completes it's forgotten, so the next request with the same key is made afresh - nothing is cached.  Each caller gets its own dependent
+ * future, so one caller completing or cancelling its future can't affect the others, but the result value itself is shared: callers that might
+ * modify it should copy it.  Instances of this class are threadsafe.
+ *
+ * @param <K> the type of the keys identifying requests
+ * @param <V> the type of the requests' results
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class SingleFlight<K,V> {
+
+    final private Map<K,CompletableFuture<V>> inFlight;   // the requests in flight, by key...
+
+
+    /**
+     * Creates a new instance of this class with no requests in flight.
+     */
+    public SingleFlight() {
+        inFlight = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Returns a future that will be completed with the result of the request identified by the given key.  If an equal request is already in flight,
+     * the future will be completed with its result; otherwise the given supplier is called to make the request.
+     *
+     * @param _key the key identifying the request
+     * @param _request the supplier that makes the request, returning its future result
+     * @return the future result of the request
+     */
+    public CompletableFuture<V> run( final K _key, final Supplier<CompletableFuture<V>> _request ) {
+
+        // sanity check...
+        Checks.required( _key, _request );
+
+        // if an equal request is already in flight, just share its result...
+        CompletableFuture<V> mine   = new CompletableFuture<>();
+        CompletableFuture<V> shared = inFlight.putIfAbsent( _key, mine );
+        if( shared != null )
+            return shared.thenApply( value -> value );
+
+        // otherwise, make the request ourselves, and forget it once it's done...
+        CompletableFuture<V> request;
+        try {
+            request = _request.get();
+        }
+        catch( RuntimeException _e ) {
+            request = new CompletableFuture<>();
+            request.completeExceptionally( _e );
+        }
+        request.whenComplete( (value, e) -> {
+            inFlight.remove( _key, mine );
+            if( e == null )
+                mine.complete( value );
+            else
+                mine.completeExceptionally( ((e instanceof CompletionException) && (e.getCause() != null)) ? e.getCause() : e );
+        } );
+        return mine.thenApply( value -> value );
+    }
+
+
+    /**
+     * Returns the number of requests currently in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
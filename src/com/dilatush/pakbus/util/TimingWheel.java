@@ -0,0 +1,314 @@
+package com.dilatush.pakbus.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Instances of this class implement a hashed timing wheel: a timer that can hold a very large number of pending timeouts, each of which costs O(1) to
+ * schedule, cancel, and expire.  Time is divided into ticks of a fixed duration, and the wheel is a ring of buckets, one per tick.  A timeout is
+ * placed in the bucket for the tick it expires on, along with the number of full turns of the wheel remaining before it does.  A single daemon
+ * thread advances the wheel once per tick and runs the tasks of any timeouts that have expired.  Tasks are run on that thread, so they must be short
+ * and must not block.  The resolution of a timeout is one tick.  Instances of this class are threadsafe.
+ *
+ * @author Tom Dilatush  tom@dilatush.com
+ */
+public class TimingWheel {
+
+    final static private Logger LOGGER = Logger.getLogger( new Object(){}.getClass().getEnclosingClass().getCanonicalName() );
+
+    final private long          tickNanos;    // the duration of one tick...
+    final private Bucket[]      wheel;        // the ring of buckets, one per tick...
+    final private int           mask;         // the number of buckets, minus one (the number of buckets is always a power of two)...
+    final private Queue<Timeout> scheduled;   // timeouts scheduled, but not yet placed in a bucket...
+    final private Queue<Timeout> cancelled;   // timeouts cancelled, but not yet removed from their bucket...
+    final private long          startNanos;   // the System.nanoTime() that tick zero started at...
+    final private Worker        worker;
+
+
+    /**
+     * Creates a new instance of this class with the given name, tick duration, and number of buckets, and starts its worker thread.  The number of
+     * buckets is rounded up to the next power of two.  Timeouts further in the future than one turn of the wheel (ticks times buckets) are fine;
+     * they simply wait in their bucket for the extra turns.
+     *
+     * @param _name the name of this timing wheel, used to name its worker thread
+     * @param _tick the duration of one tick
+     * @param _unit the time unit of the tick duration
+     * @param _buckets the number of buckets in the wheel
+     */
+    public TimingWheel( final String _name, final long _tick, final TimeUnit _unit, final int _buckets ) {
+
+        // sanity checks...
+        Checks.required( _name, _unit );
+        Checks.inBounds( _tick, 1, Long.MAX_VALUE, "Invalid tick duration: " + _tick );
+        Checks.inBounds( _buckets, 1, 1 << 20, "Invalid number of buckets: " + _buckets );
+
+        // some setup...
+        tickNanos = _unit.toNanos( _tick );
+        int buckets = Integer.highestOneBit( _buckets );
+        if( buckets < _buckets )
+            buckets <<= 1;
+        wheel = new Bucket[buckets];
+        for( int i = 0; i < buckets; i++ )
+            wheel[i] = new Bucket();
+        mask = buckets - 1;
+        scheduled = new ConcurrentLinkedQueue<>();
+        cancelled = new ConcurrentLinkedQueue<>();
+        startNanos = System.nanoTime();
+        worker = new Worker( _name );
+    }
+
+
+    /**
+     * Schedules the given task to be run once, after the given delay has elapsed, on this timing wheel's worker thread.  The returned timeout may be
+     * used to cancel the task before it runs.
+     *
+     * @param _task the task to run
+     * @param _delay the delay before running the task
+     * @param _unit the time unit of the delay
+     * @return the timeout representing the scheduled task
+     */
+    public Timeout schedule( final Runnable _task, final long _delay, final TimeUnit _unit ) {
+
+        // sanity check...
+        Checks.required( _task, _unit );
+
+        // queue it up for the worker to place in a bucket...
+        Timeout timeout = new Timeout( this, _task, System.nanoTime() + Math.max( 0, _unit.toNanos( _delay ) ) );
+        scheduled.add( timeout );
+        return timeout;
+    }
+
+
+    /**
+     * Returns the duration of one tick of this timing wheel, in nanoseconds.
+     *
+     * @return the duration of one tick, in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+
+    /**
+     * Moves newly scheduled timeouts into the buckets they belong in, relative to the given current tick.
+     *
+     * @param _tick the current tick
+     */
+    private void placeScheduled( final long _tick ) {
+
+        Timeout timeout;
+        while( (timeout = scheduled.poll()) != null ) {
+
+            // if it was cancelled before we ever placed it, just drop it...
+            if( timeout.state.get() != Timeout.PENDING )
+                continue;
+
+            // figure out which tick it expires on (never in the past), and how many turns of the wheel that is...
+            long expiryTick = Math.max( _tick, (timeout.deadline - startNanos) / tickNanos );
+            timeout.remainingRounds = (expiryTick - _tick) / wheel.length;
+            wheel[(int)(expiryTick & mask)].add( timeout );
+        }
+    }
+
+
+    /**
+     * Removes cancelled timeouts from their buckets.
+     */
+    private void removeCancelled() {
+
+        Timeout timeout;
+        while( (timeout = cancelled.poll()) != null ) {
+            if( timeout.bucket != null )
+                timeout.bucket.remove( timeout );
+        }
+    }
+
+
+    /**
+     * Instances of this class represent a task scheduled on a timing wheel.
+     */
+    public static class Timeout {
+
+        final static private int PENDING   = 0;
+        final static private int CANCELLED = 1;
+        final static private int EXPIRED   = 2;
+
+        final private TimingWheel   timer;
+        final private Runnable      task;
+        final private long          deadline;       // the System.nanoTime() this timeout expires at...
+        final private AtomicInteger state;
+
+        // these are only touched by the worker thread...
+        private long    remainingRounds;
+        private Bucket  bucket;
+        private Timeout next;
+        private Timeout prev;
+
+
+        private Timeout( final TimingWheel _timer, final Runnable _task, final long _deadline ) {
+            timer    = _timer;
+            task     = _task;
+            deadline = _deadline;
+            state    = new AtomicInteger( PENDING );
+        }
+
+
+        /**
+         * Cancels this timeout, returning true if it was cancelled before its task was run.
+         *
+         * @return true if this timeout was cancelled before its task was run
+         */
+        public boolean cancel() {
+            if( !state.compareAndSet( PENDING, CANCELLED ) )
+                return false;
+            timer.cancelled.add( this );
+            return true;
+        }
+
+
+        /**
+         * Returns true if this timeout was cancelled before its task was run.
+         *
+         * @return true if this timeout was cancelled
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+
+        /**
+         * Returns true if this timeout's task has been run (or is running).
+         *
+         * @return true if this timeout has expired
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+
+        /**
+         * Runs this timeout's task, if it hasn't been cancelled.
+         */
+        private void expire() {
+
+            if( !state.compareAndSet( PENDING, EXPIRED ) )
+                return;
+
+            try {
+                task.run();
+            }
+            catch( RuntimeException _e ) {
+                LOGGER.log( Level.WARNING, "Timing wheel task threw exception, ignoring", _e );
+            }
+        }
+    }
+
+
+    /**
+     * A doubly linked list of the timeouts that expire on one tick (or on that tick in a later turn of the wheel).  Only touched by the worker thread.
+     */
+    private static class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+
+        private void add( final Timeout _timeout ) {
+            _timeout.bucket = this;
+            if( head == null ) {
+                head = _timeout;
+                tail = _timeout;
+            }
+            else {
+                tail.next = _timeout;
+                _timeout.prev = tail;
+                tail = _timeout;
+            }
+        }
+
+
+        private Timeout remove( final Timeout _timeout ) {
+            Timeout next = _timeout.next;
+            if( _timeout.prev != null )
+                _timeout.prev.next = next;
+            if( next != null )
+                next.prev = _timeout.prev;
+            if( _timeout == head )
+                head = next;
+            if( _timeout == tail )
+                tail = _timeout.prev;
+            _timeout.prev   = null;
+            _timeout.next   = null;
+            _timeout.bucket = null;
+            return next;
+        }
+
+
+        /**
+         * Expires all the timeouts in this bucket that are due on this turn of the wheel, and counts down the turns remaining on the rest.
+         */
+        private void expire() {
+            Timeout timeout = head;
+            while( timeout != null ) {
+                if( timeout.remainingRounds <= 0 ) {
+                    Timeout next = remove( timeout );
+                    timeout.expire();
+                    timeout = next;
+                }
+                else if( timeout.isCancelled() ) {
+                    timeout = remove( timeout );
+                }
+                else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Advances the wheel once per tick, forever.
+     */
+    private class Worker extends Thread {
+
+        private Worker( final String _name ) {
+            setName( _name );
+            setDaemon( true );
+            start();
+        }
+
+
+        @Override
+        public void run() {
+
+            long tick = 0;
+
+            // loop here forever...
+            // noinspection InfiniteLoopStatement
+            while( true ) {
+
+                // wait for the end of the current tick...
+                long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+                if( sleepNanos > 0 ) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep( sleepNanos );
+                    }
+                    catch( InterruptedException _e ) {
+                        break;
+                    }
+                }
+
+                // bring the buckets up to date, then expire anything that's due on this tick...
+                removeCancelled();
+                placeScheduled( tick );
+                wheel[(int)(tick & mask)].expire();
+                tick++;
+            }
+        }
+    }
+}